@@ -21,6 +21,12 @@
 #include <sys/ioctl.h>
 #include <fcntl.h>
 #include <sys/wait.h>
+#include <sys/mman.h>
+#include <pthread.h>
+#ifdef __linux__
+#include <sched.h>
+#include <sys/syscall.h>
+#endif
 
 #include "exec_pty.h"
 
@@ -53,125 +59,338 @@ void restore_signals() {
     restore_signal(SIGQUIT);
 }
 
-pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
-		       const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
-		       /* BashSupport Pro */ const char *add_pts_name, int add_pts_fdm)
-{
-	pid_t childpid;
-	char *full_path;
-
-	/*
-	 * We use pfind() to check that the program exists and is an executable.
-	 * If not pass the error up.  Also execve() wants a full path.
-	 */ 
-	full_path = pfind(path, envp);
-	if (full_path == NULL) {
-		fprintf(stderr, "Unable to find full path for \"%s\"\n", (path) ? path : "");
-		return -1;
+/*
+ * Everything the child needs between fork/clone and execve, prepared by the parent.
+ * In SPAWN_MODE_VFORK the child borrows the memory of the parent until execve, so it must not allocate
+ * or use stdio, and it reports a failure through failed_step and error instead.
+ */
+struct child_args {
+	const char *full_path;
+	char *const *argv;
+	char *const *envp;
+	const char *dirpath;
+	const char *pts_name;
+	int fdm;
+	const char *err_pts_name;
+	int err_fdm;
+	int console;
+	/* BashSupport Pro */
+	const char *add_pts_name;
+	int add_pts_fdm;
+	const struct winsize *win_size;
+
+	bool shared_vm;
+	sigset_t sigmask;
+	const char *failed_step;
+	int error;
+};
+
+static void child_failed(struct child_args *args, const char *step) {
+	args->failed_step = step;
+	args->error = errno;
+	if (!args->shared_vm) {
+		fprintf(stderr, "%s(%d): %s failed: %s\n", __FUNCTION__, __LINE__, step, strerror(errno));
 	}
+}
 
-	childpid = fork();
+#ifdef __linux__
+#ifndef SYS_close_range
+#define SYS_close_range 436 /* the same on all the architectures sharing the generic syscall table */
+#endif
 
-	if (childpid < 0) {
-		fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-		free(full_path);
+static int close_range_except(int first, int except) {
+	if (except >= first) {
+		if (except > first && syscall(SYS_close_range, first, except - 1, 0) != 0) {
+			return -1;
+		}
+		first = except + 1;
+	}
+	return syscall(SYS_close_range, first, ~0U, 0);
+}
+
+/*
+ * Closes the fds listed in /proc/self/fd. Uses getdents64 with a buffer on the stack,
+ * as opendir() allocates, which the vfork child must not do.
+ */
+static int close_proc_self_fds(int first, int except) {
+	char buf[4096] __attribute__((aligned(8)));
+	int dir_fd = open("/proc/self/fd", O_RDONLY | O_DIRECTORY | O_CLOEXEC);
+	if (dir_fd < 0) {
 		return -1;
-	} else if (childpid == 0) { /* child */
+	}
+	long count;
+	while ((count = syscall(SYS_getdents64, dir_fd, buf, sizeof(buf))) > 0) {
+		for (long offset = 0; offset < count;) {
+			struct linux_dirent64 {
+				unsigned long long d_ino;
+				long long d_off;
+				unsigned short d_reclen;
+				unsigned char d_type;
+				char d_name[];
+			} *entry = (struct linux_dirent64 *) (buf + offset);
+			offset += entry->d_reclen;
+			if (entry->d_name[0] < '0' || entry->d_name[0] > '9') continue; /* "." and ".." */
+			int fd = 0;
+			for (const char *c = entry->d_name; *c != '\0'; c++) {
+				fd = fd * 10 + (*c - '0');
+			}
+			if (fd >= first && fd != except && fd != dir_fd) {
+				close(fd);
+			}
+		}
+	}
+	close(dir_fd);
+	return count < 0 ? -1 : 0;
+}
+#endif
+
+/*
+ * Closes all the fds starting from the given one, except the given one.
+ * Looping up to sysconf(_SC_OPEN_MAX) makes a syscall per possible fd, i.e. a million syscalls
+ * with a common container limit, so on Linux we use close_range(2), or /proc/self/fd on older kernels.
+ */
+static void close_fds_from(int first, int except) {
+#ifdef __linux__
+	if (close_range_except(first, except) == 0 || close_proc_self_fds(first, except) == 0) {
+		return;
+	}
+#endif
+	int fdlimit = sysconf(_SC_OPEN_MAX);
+	for (int fd = first; fd < fdlimit; fd++) {
+		if (fd != except) {
+			close(fd);
+		}
+	}
+}
 
-		chdir(dirpath);
+/*
+ * Runs in the child: makes the slave the controlling tty of a new session, redirects the standard streams
+ * and executes the program. Returns only on failure.
+ */
+static void exec_child(struct child_args *args) {
+	int fds;
+	int err_fds = -1;
+	int add_fds = -1;
+	int console = args->console;
+
+	chdir(args->dirpath);
+
+	if (!console && setsid() < 0) {
+		child_failed(args, "setsid()");
+		return;
+	}
 
-		int fds;
-		int err_fds = -1;
+	fds = ptys_open(args->fdm, args->pts_name, true);
+	if (fds < 0) {
+		child_failed(args, "ptys_open()");
+		return;
+	}
 
-		if (!console && setsid() < 0) {
-			perror("setsid()");
-			return -1;
+	if (console && args->err_fdm >= 0) {
+		err_fds = ptys_open(args->err_fdm, args->err_pts_name, false);
+		if (err_fds < 0) {
+			child_failed(args, "ptys_open(err_pts_name)");
+			return;
 		}
+	}
 
-		fds = ptys_open(fdm, pts_name, true);
-		if (fds < 0) {
-			fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-			return -1;
+	// BashSupport Pro
+	if (args->add_pts_name != NULL) {
+		add_fds = ptys_open(args->add_pts_fdm, args->add_pts_name, true);
+		if (add_fds < 0) {
+			child_failed(args, "ptys_open(add_pts_name)");
+			return;
 		}
+	}
 
-		if (console && err_fdm >= 0) {
-			err_fds = ptys_open(err_fdm, err_pts_name, false);
-			if (err_fds < 0) {
-				fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-				return -1;
-			}
+	/* set the size before the program starts, so it never sees the default one */
+	if (args->win_size != NULL) {
+		ioctl(fds, TIOCSWINSZ, args->win_size);
+		if (err_fds >= 0) ioctl(err_fds, TIOCSWINSZ, args->win_size);
+		if (add_fds >= 0) ioctl(add_fds, TIOCSWINSZ, args->win_size);
+	}
+
+	/* close masters, no need in the child */
+	close(args->fdm);
+	if (console && args->err_fdm >= 0) close(args->err_fdm);
+	if (args->add_pts_name != NULL) close(args->add_pts_fdm);
+
+	if (console) {
+		set_noecho(fds);
+		if (setpgid(getpid(), getpid()) < 0) {
+			child_failed(args, "setpgid()");
+			return;
 		}
+	}
 
-        // BashSupport Pro
-        int add_fds = -1;
-        if (add_pts_name != NULL) {
-            add_fds = ptys_open(add_pts_fdm, add_pts_name, true);
-            if (add_fds < 0) {
-                fprintf(stderr, "%s(%d): returning due to error with add_fdm: %s\n", __FUNCTION__, __LINE__, strerror(errno));
-                return -1;
-            }
-        }
+	/* redirections */
+	dup2(fds, STDIN_FILENO);   /* dup stdin */
+	dup2(fds, STDOUT_FILENO);  /* dup stdout */
+	dup2(console && err_fds >= 0 ? err_fds : fds, STDERR_FILENO);  /* dup stderr */
 
-		/* close masters, no need in the child */
-		close(fdm);
-		if (console && err_fdm >= 0) close(err_fdm);
-		if (add_pts_name != NULL) close(add_pts_fdm);
+	close(fds);  /* done with fds. */
+	if (console && err_fds >= 0) close(err_fds);
 
-		if (console) {
-			set_noecho(fds);
-			if (setpgid(getpid(), getpid()) < 0) {
-				perror("setpgid()");
-				return -1;
-			}
-		}
+	/* Close all the fd's in the child */
+	close_fds_from(3, add_fds);
 
-		/* redirections */
-		dup2(fds, STDIN_FILENO);   /* dup stdin */
-		dup2(fds, STDOUT_FILENO);  /* dup stdout */
-		dup2(console && err_fds >= 0 ? err_fds : fds, STDERR_FILENO);  /* dup stderr */
-
-        // BashSupport Pro
-		if (add_pts_name != NULL) {
-            char** argv2 = argv;
-		    for (int i = 0; argv[i] != NULL; i++) {
-		        if (strcmp(argv[i], "_DBG_PTY_") == 0) {
-		            char* result;
-		            asprintf(&result, "%s", add_pts_name);
-		            argv2[i] = result;
-		        }
-		    }
-		}
+	restore_signals();
+	if (args->shared_vm) {
+		sigprocmask(SIG_SETMASK, &args->sigmask, NULL);
+	}
 
-		close(fds);  /* done with fds. */
-		if (console && err_fds >= 0) close(err_fds);
+	execve(args->full_path, args->argv, args->envp);
+	child_failed(args, "execve()");
+}
 
-		/* Close all the fd's in the child */
-		{
-			int fdlimit = sysconf(_SC_OPEN_MAX);
-            for (int fd = 3; fd < fdlimit; fd++) {
-			    if (fd != add_fds) {
-			        close(fd);
-			    }
-			}
+// BashSupport Pro
+/*
+ * Returns a copy of argv with the "_DBG_PTY_" placeholders replaced by the name of the additional pty.
+ * The copy is made in the parent, as the vfork child must not allocate.
+ */
+static char **replace_dbg_pty_args(char *const argv[], const char *add_pts_name) {
+	int argc = 0;
+	while (argv[argc] != NULL) argc++;
+	char **result = malloc((argc + 1) * sizeof(char *));
+	if (result == NULL) {
+		return NULL;
+	}
+	for (int i = 0; i <= argc; i++) {
+		result[i] = argv[i] != NULL && strcmp(argv[i], "_DBG_PTY_") == 0 ? (char *) add_pts_name : argv[i];
+	}
+	return result;
+}
+
+static pid_t fork_child(struct child_args *args) {
+	pid_t childpid = fork();
+	if (childpid == 0) {
+		exec_child(args);
+		_exit(127);
+	}
+	return childpid;
+}
+
+#ifdef __linux__
+#define SPAWN_STACK_SIZE (64 * 1024)
+
+static int clone_child_main(void *arg) {
+	struct child_args *args = arg;
+	/* handlers of the parent must not run on the borrowed memory, reset them before unblocking signals */
+	for (int sig = 1; sig < _NSIG; sig++) {
+		struct sigaction action;
+		if (sig == SIGKILL || sig == SIGSTOP) continue;
+		if (sigaction(sig, NULL, &action) == 0 && action.sa_handler != SIG_DFL && action.sa_handler != SIG_IGN) {
+			memset(&action, 0, sizeof(action));
+			action.sa_handler = SIG_DFL;
+			sigaction(sig, &action, NULL);
 		}
+	}
+	exec_child(args);
+	_exit(127);
+}
 
-		restore_signals();
+/*
+ * Same as vfork(), but the child runs on its own small stack: the parent thread is suspended until the child
+ * calls execve or exits, and no page tables are copied regardless of the parent heap size.
+ */
+static pid_t clone_vfork_child(struct child_args *args) {
+	sigset_t all_signals;
+	pid_t childpid;
+	int clone_errno;
+	void *stack = mmap(NULL, SPAWN_STACK_SIZE, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS | MAP_STACK, -1, 0);
+	if (stack == MAP_FAILED) {
+		return -1;
+	}
+	args->shared_vm = true;
+	sigfillset(&all_signals);
+	pthread_sigmask(SIG_SETMASK, &all_signals, &args->sigmask);
+	childpid = clone(clone_child_main, (char *) stack + SPAWN_STACK_SIZE, CLONE_VM | CLONE_VFORK | SIGCHLD, args);
+	clone_errno = errno;
+	pthread_sigmask(SIG_SETMASK, &args->sigmask, NULL);
+	munmap(stack, SPAWN_STACK_SIZE);
+
+	if (childpid > 0 && args->failed_step != NULL) {
+		fprintf(stderr, "%s(%d): %s failed in the child: %s\n", __FUNCTION__, __LINE__, args->failed_step, strerror(args->error));
+		waitpid(childpid, NULL, 0);
+		childpid = -1;
+		clone_errno = args->error;
+	}
+	errno = clone_errno;
+	return childpid;
+}
+#endif
+
+pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+		       const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
+		       /* BashSupport Pro */ const char *add_pts_name, int add_pts_fdm)
+{
+	return spawn_pty(path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console,
+	                 add_pts_name, add_pts_fdm, SPAWN_MODE_FORK, NULL);
+}
 
-		execve(full_path, argv, envp);
+pid_t spawn_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+                const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
+                /* BashSupport Pro */ const char *add_pts_name, int add_pts_fdm, int spawn_mode,
+                const struct winsize *win_size)
+{
+	pid_t childpid;
+	char *full_path;
+	char **child_argv = NULL;
+	struct child_args args;
 
-		_exit(127);
+	/*
+	 * We use pfind() to check that the program exists and is an executable.
+	 * If not pass the error up.  Also execve() wants a full path.
+	 */ 
+	full_path = pfind(path, envp);
+	if (full_path == NULL) {
+		fprintf(stderr, "Unable to find full path for \"%s\"\n", (path) ? path : "");
+		return -1;
+	}
 
-	} else if (childpid != 0) { /* parent */
-		if (console) {
-			set_noecho(fdm);
+	// BashSupport Pro
+	if (add_pts_name != NULL) {
+		child_argv = replace_dbg_pty_args(argv, add_pts_name);
+		if (child_argv == NULL) {
+			free(full_path);
+			return -1;
 		}
+	}
+
+	memset(&args, 0, sizeof(args));
+	args.full_path = full_path;
+	args.argv = child_argv != NULL ? child_argv : argv;
+	args.envp = envp;
+	args.dirpath = dirpath;
+	args.pts_name = pts_name;
+	args.fdm = fdm;
+	args.err_pts_name = err_pts_name;
+	args.err_fdm = err_fdm;
+	args.console = console;
+	args.add_pts_name = add_pts_name;
+	args.add_pts_fdm = add_pts_fdm;
+	args.win_size = win_size;
+
+#ifdef __linux__
+	if (spawn_mode == SPAWN_MODE_VFORK) {
+		childpid = clone_vfork_child(&args);
+	} else {
+		childpid = fork_child(&args);
+	}
+#else
+	/* no clone(CLONE_VM | CLONE_VFORK) here, fork() is the only safe option */
+	childpid = fork_child(&args);
+#endif
 
-		free(full_path);
-		return childpid;
+	if (childpid < 0) {
+		fprintf(stderr, "%s(%d): returning due to error: %s\n", __FUNCTION__, __LINE__, strerror(errno));
+	} else if (console) {
+		set_noecho(fdm);
 	}
 
+	free(child_argv);
 	free(full_path);
-	return -1;                  /*NOT REACHED */
+	return childpid;
 }
 
 int wait_for_child_process_exit(pid_t child_pid) {
@@ -7,6 +7,15 @@ pid_t exec_pty(const char *path, char *const argv[], char *const envp[], const c
                const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
                const char *add_pts_name, int add_pts_fdm);
 
+#define SPAWN_MODE_FORK 0
+/* clone(CLONE_VM | CLONE_VFORK) on Linux, fork() elsewhere */
+#define SPAWN_MODE_VFORK 1
+
+/* win_size, if not NULL, is set on all the slaves in the child before execve */
+pid_t spawn_pty(const char *path, char *const argv[], char *const envp[], const char *dirpath,
+                const char *pts_name, int fdm, const char *err_pts_name, int err_fdm, int console,
+                const char *add_pts_name, int add_pts_fdm, int spawn_mode, const struct winsize *win_size);
+
 int wait_for_child_process_exit(int child_pid);
 
 int get_window_size(int fd, struct winsize *size);
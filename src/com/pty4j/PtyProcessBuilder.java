@@ -1,5 +1,8 @@
 package com.pty4j;
 
+import com.pty4j.unix.PtyPool;
+import com.pty4j.unix.SpawnMode;
+import com.pty4j.unix.SpawnSpec;
 import com.pty4j.unix.UnixPtyProcess;
 import com.pty4j.windows.conpty.WinConPtyProcess;
 import com.pty4j.windows.CygwinPtyProcess;
@@ -29,6 +32,9 @@ public class PtyProcessBuilder {
   private Integer myInitialRows;
   private boolean myWindowsAnsiColorEnabled = false;
   private boolean myUnixOpenTtyToPreserveOutputAfterTermination = false;
+  private SpawnMode myUnixSpawnMode = SpawnMode.FORK;
+  private PtyPool myUnixPtyPool;
+  private long myUnixResizeCoalescingMillis;
   private boolean myUseWinConPty = false;
 
   public PtyProcessBuilder() {
@@ -117,19 +123,55 @@ public class PtyProcessBuilder {
     return this;
   }
 
+  /**
+   * Selects how the child process is created, see {@link SpawnMode}. {@link SpawnMode#VFORK} avoids copying the
+   * page tables of the JVM, which makes spawning from a large heap faster.
+   */
   @NotNull
-  public PtyProcess start() throws IOException {
-    if (myEnvironment == null) {
-      myEnvironment = System.getenv();
+  public PtyProcessBuilder setUnixSpawnMode(@NotNull SpawnMode unixSpawnMode) {
+    myUnixSpawnMode = unixSpawnMode;
+    return this;
+  }
+
+  /**
+   * Takes the ptys of the process from the given pool instead of creating them on spawn.
+   * Not used together with {@link #setUnixOpenTtyToPreserveOutputAfterTermination(boolean)} for the main pty.
+   */
+  @NotNull
+  public PtyProcessBuilder setUnixPtyPool(@Nullable PtyPool unixPtyPool) {
+    myUnixPtyPool = unixPtyPool;
+    return this;
+  }
+
+  /**
+   * Coalesces the window size changes made within the given time after the previous one: only the latest of them is
+   * applied, at the end of that time. Reduces the number of SIGWINCH signals and redraws in the child while a window is
+   * being resized. Zero, the default, applies every change at once.
+   */
+  @NotNull
+  public PtyProcessBuilder setUnixResizeCoalescingMillis(long unixResizeCoalescingMillis) {
+    if (unixResizeCoalescingMillis < 0) {
+      throw new IllegalArgumentException("unixResizeCoalescingMillis should not be negative: " + unixResizeCoalescingMillis);
     }
-    PtyProcessOptions options = new PtyProcessOptions(myCommand,
-            myEnvironment,
-            myDirectory,
-            myRedirectErrorStream,
-            myInitialColumns,
-            myInitialRows,
-            myWindowsAnsiColorEnabled,
-            myUnixOpenTtyToPreserveOutputAfterTermination, /*BashSupport Pro*/ myPassAdditionalPty);
+    myUnixResizeCoalescingMillis = unixResizeCoalescingMillis;
+    return this;
+  }
+
+  /**
+   * Encodes the command line and the environment once for spawning the command repeatedly on Unix,
+   * see {@link SpawnSpec}. Later changes of this builder don't affect the returned spec.
+   */
+  @NotNull
+  public SpawnSpec buildUnixSpawnSpec() {
+    if (Platform.isWindows()) {
+      throw new UnsupportedOperationException("Spawn specs are supported on Unix only");
+    }
+    return SpawnSpec.compile(buildOptions(), myConsole);
+  }
+
+  @NotNull
+  public PtyProcess start() throws IOException {
+    PtyProcessOptions options = buildOptions();
     if (Platform.isWindows()) {
       if (myCygwin) {
         // fixme(BashSupport Pro): pass additional pty
@@ -149,6 +191,23 @@ public class PtyProcessBuilder {
     return new UnixPtyProcess(options, myConsole);
   }
 
+  private @NotNull PtyProcessOptions buildOptions() {
+    if (myEnvironment == null) {
+      myEnvironment = System.getenv();
+    }
+    return new PtyProcessOptions(myCommand,
+            myEnvironment,
+            myDirectory,
+            myRedirectErrorStream,
+            myInitialColumns,
+            myInitialRows,
+            myWindowsAnsiColorEnabled,
+            myUnixOpenTtyToPreserveOutputAfterTermination,
+            myUnixSpawnMode,
+            myUnixPtyPool,
+            myUnixResizeCoalescingMillis, /*BashSupport Pro*/ myPassAdditionalPty);
+  }
+
   // changes for BashSupport Pro
   private boolean myPassAdditionalPty;
 
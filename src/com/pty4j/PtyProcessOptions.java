@@ -1,5 +1,7 @@
 package com.pty4j;
 
+import com.pty4j.unix.PtyPool;
+import com.pty4j.unix.SpawnMode;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -14,6 +16,9 @@ public class PtyProcessOptions {
   private final Integer myInitialRows;
   private final boolean myWindowsAnsiColorEnabled;
   private final boolean myUnixOpenTtyToPreserveOutputAfterTermination;
+  private final SpawnMode myUnixSpawnMode;
+  private final PtyPool myUnixPtyPool;
+  private final long myUnixResizeCoalescingMillis;
 
   PtyProcessOptions(@NotNull String[] command,
                     @NotNull Map<String, String> environment,
@@ -23,6 +28,9 @@ public class PtyProcessOptions {
                     @Nullable Integer initialRows,
                     boolean windowsAnsiColorEnabled,
                     boolean unixOpenTtyToPreserveOutputAfterTermination,
+                    @NotNull SpawnMode unixSpawnMode,
+                    @Nullable PtyPool unixPtyPool,
+                    long unixResizeCoalescingMillis,
                     /*BashSupport Pro*/boolean useAdditionalPTY) {
     myCommand = command;
     myEnvironment = environment;
@@ -32,6 +40,9 @@ public class PtyProcessOptions {
     myInitialRows = initialRows;
     myWindowsAnsiColorEnabled = windowsAnsiColorEnabled;
     myUnixOpenTtyToPreserveOutputAfterTermination = unixOpenTtyToPreserveOutputAfterTermination;
+    myUnixSpawnMode = unixSpawnMode;
+    myUnixPtyPool = unixPtyPool;
+    myUnixResizeCoalescingMillis = unixResizeCoalescingMillis;
     // BashSupport Pro
     myPassAdditionalPtyFD = useAdditionalPTY;
   }
@@ -72,6 +83,18 @@ public class PtyProcessOptions {
     return myUnixOpenTtyToPreserveOutputAfterTermination;
   }
 
+  public @NotNull SpawnMode getUnixSpawnMode() {
+    return myUnixSpawnMode;
+  }
+
+  public @Nullable PtyPool getUnixPtyPool() {
+    return myUnixPtyPool;
+  }
+
+  public long getUnixResizeCoalescingMillis() {
+    return myUnixResizeCoalescingMillis;
+  }
+
   // Changes for BashSupport Pro
   private final boolean myPassAdditionalPtyFD;
 
@@ -0,0 +1,64 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Direct-mapped Linux epoll API, see <a href="https://man7.org/linux/man-pages/man7/epoll.7.html">epoll(7)</a>.
+ * Must not be touched on other OSes.
+ */
+final class Epoll {
+  static {
+    Native.register(Epoll.class, Platform.C_LIBRARY_NAME);
+  }
+
+  static final int EPOLLIN = 0x001;
+  static final int EPOLLERR = 0x008;
+  static final int EPOLLHUP = 0x010;
+  static final int EPOLLONESHOT = 1 << 30;
+
+  static final int EPOLL_CTL_ADD = 1;
+  static final int EPOLL_CTL_DEL = 2;
+  static final int EPOLL_CTL_MOD = 3;
+
+  static final int EPOLL_CLOEXEC = 0x80000;
+
+  /**
+   * Denotes the epoll_event struct from "sys/epoll.h":
+   * <pre><code>
+   * struct epoll_event {
+   *   uint32_t     events;
+   *   epoll_data_t data;  // union of void *ptr, int fd, uint32_t u32, uint64_t u64
+   * };
+   * </code></pre>
+   * The struct is packed on x86 and naturally aligned elsewhere.
+   */
+  static final int EVENT_SIZE = Platform.isIntel() ? 12 : 16;
+  private static final int DATA_OFFSET = Platform.isIntel() ? 4 : 8;
+
+  private Epoll() {
+  }
+
+  static native int epoll_create1(int flags);
+
+  static native int epoll_ctl(int epfd, int op, int fd, Pointer event);
+
+  static native int epoll_wait(int epfd, Pointer events, int maxevents, int timeout);
+
+  static void setEvent(@NotNull Memory events, int index, int eventMask, long data) {
+    long offset = (long)index * EVENT_SIZE;
+    events.setInt(offset, eventMask);
+    events.setLong(offset + DATA_OFFSET, data);
+  }
+
+  static int getEventMask(@NotNull Memory events, int index) {
+    return events.getInt((long)index * EVENT_SIZE);
+  }
+
+  static long getEventData(@NotNull Memory events, int index) {
+    return events.getLong((long)index * EVENT_SIZE + DATA_OFFSET);
+  }
+}
@@ -0,0 +1,236 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the resolution of a command name through {@code PATH}, which {@code pfind()} in the native library
+ * otherwise repeats on every spawn with an access() call per {@code PATH} entry. The resolved absolute path is passed
+ * to the native library instead of the command name, so that it only checks that the file is executable.
+ * <p>
+ * Entries are keyed by the command and the {@code PATH} value. On every hit the cached file is checked to be still
+ * executable, which costs one access() call instead of one per {@code PATH} entry. Besides, a cached entry is
+ * revalidated at most once per check interval by comparing the modification times of the directories searched up to
+ * the match: adding or removing a file changes them. Regardless of that, an entry expires after its time to live.
+ * When the cache is full, the expired entries are evicted first, then the least recently used one.
+ */
+public final class ExecutablePathCache {
+  private static final String PATH_PREFIX = "PATH=";
+  private static final int MAX_SIZE = 1024;
+
+  private static final ExecutablePathCache INSTANCE = new ExecutablePathCache(TimeUnit.MINUTES.toNanos(10),
+                                                                              TimeUnit.SECONDS.toNanos(1));
+
+  private final long myTimeToLiveNanos;
+  private final long myCheckIntervalNanos;
+  private final int myMaxSize;
+  private final Map<String, Entry> myEntries = new ConcurrentHashMap<>();
+  private final AtomicLong myHitCount = new AtomicLong();
+  private final AtomicLong myMissCount = new AtomicLong();
+
+  ExecutablePathCache(long timeToLiveNanos, long checkIntervalNanos) {
+    this(timeToLiveNanos, checkIntervalNanos, MAX_SIZE);
+  }
+
+  ExecutablePathCache(long timeToLiveNanos, long checkIntervalNanos, int maxSize) {
+    myTimeToLiveNanos = timeToLiveNanos;
+    myCheckIntervalNanos = checkIntervalNanos;
+    myMaxSize = maxSize;
+  }
+
+  public static @NotNull ExecutablePathCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Resolves {@code command} the same way as {@code pfind()} does: through the {@code PATH} variable of
+   * {@code environment}, or of this process if {@code environment} is empty.
+   *
+   * @return the absolute path of the executable, or {@code command} itself if it's a path already or can't be
+   *         resolved to an absolute path, so that the native library reports the error as before
+   */
+  public @NotNull String resolve(@NotNull String command, @Nullable String[] environment) {
+    if (command.isEmpty() || command.charAt(0) == '/' || command.charAt(0) == '.') {
+      return command;
+    }
+    return resolveInPath(command, getPath(environment));
+  }
+
+  /**
+   * Same as {@link #resolve(String, String[])} with the {@code PATH} value already looked up.
+   *
+   * @param path the {@code PATH} variable, or {@code null} if it isn't set
+   */
+  @NotNull String resolveInPath(@NotNull String command, @Nullable String path) {
+    if (command.isEmpty() || command.charAt(0) == '/' || command.charAt(0) == '.') {
+      return command;
+    }
+    if (path == null || path.isEmpty()) {
+      return command;
+    }
+    String key = command + '\0' + path;
+    long now = System.nanoTime();
+    Entry entry = myEntries.get(key);
+    if (entry != null && isValid(entry, now)) {
+      entry.myUsedNanos = now;
+      myHitCount.incrementAndGet();
+      return entry.myResolvedPath;
+    }
+    myMissCount.incrementAndGet();
+    entry = lookup(command, path, now);
+    if (entry == null) {
+      myEntries.remove(key);
+      return command;
+    }
+    if (myEntries.size() >= myMaxSize && !myEntries.containsKey(key)) {
+      evict(now);
+    }
+    myEntries.put(key, entry);
+    return entry.myResolvedPath;
+  }
+
+  /**
+   * Makes room for a new entry: removes the expired entries, or the least recently used one if none has expired.
+   * Concurrent calls may leave the cache slightly over its size, which the following calls correct.
+   */
+  private void evict(long now) {
+    if (myEntries.values().removeIf(entry -> now - entry.myCreatedNanos >= myTimeToLiveNanos)) {
+      return;
+    }
+    String eldestKey = null;
+    long eldestUsed = Long.MAX_VALUE;
+    for (Map.Entry<String, Entry> e : myEntries.entrySet()) {
+      // nanoTime values are compared by their difference, as they may overflow
+      if (eldestKey == null || e.getValue().myUsedNanos - eldestUsed < 0) {
+        eldestKey = e.getKey();
+        eldestUsed = e.getValue().myUsedNanos;
+      }
+    }
+    if (eldestKey != null) {
+      myEntries.remove(eldestKey);
+    }
+  }
+
+  public long getHitCount() {
+    return myHitCount.get();
+  }
+
+  public long getMissCount() {
+    return myMissCount.get();
+  }
+
+  /**
+   * @return the share of {@link #resolve} calls served from the cache, from 0 to 1
+   */
+  public double getHitRate() {
+    long hits = myHitCount.get();
+    long total = hits + myMissCount.get();
+    return total == 0 ? 0 : (double)hits / total;
+  }
+
+  public void clear() {
+    myEntries.clear();
+  }
+
+  private boolean isValid(@NotNull Entry entry, long now) {
+    if (now - entry.myCreatedNanos >= myTimeToLiveNanos) {
+      return false;
+    }
+    // catches a chmod, or a replacement in place, which don't change the directory
+    if (!Files.isExecutable(entry.myFile)) {
+      return false;
+    }
+    if (now - entry.myCheckedNanos < myCheckIntervalNanos) {
+      return true;
+    }
+    for (int i = 0; i < entry.myDirectories.length; i++) {
+      if (getModificationTime(entry.myDirectories[i]) != entry.myModificationTimes[i]) {
+        return false;
+      }
+    }
+    entry.myCheckedNanos = now;
+    return true;
+  }
+
+  private static @Nullable Entry lookup(@NotNull String command, @NotNull String path, long now) {
+    List<Path> directories = new ArrayList<>();
+    // as strtok() in pfind(), skip empty entries
+    for (String directory : path.split(":")) {
+      if (directory.isEmpty()) continue;
+      Path dir;
+      try {
+        dir = Paths.get(directory);
+      }
+      catch (InvalidPathException e) {
+        return null;
+      }
+      directories.add(dir);
+      Path candidate = dir.resolve(command);
+      if (Files.isExecutable(candidate)) {
+        if (!candidate.isAbsolute()) {
+          return null;
+        }
+        Path[] searched = directories.toArray(new Path[0]);
+        long[] modificationTimes = new long[searched.length];
+        for (int i = 0; i < searched.length; i++) {
+          modificationTimes[i] = getModificationTime(searched[i]);
+        }
+        return new Entry(candidate, searched, modificationTimes, now);
+      }
+    }
+    return null;
+  }
+
+  private static long getModificationTime(@NotNull Path directory) {
+    try {
+      return Files.getLastModifiedTime(directory).to(TimeUnit.NANOSECONDS);
+    }
+    catch (IOException e) {
+      return -1;
+    }
+  }
+
+  private static @Nullable String getPath(@Nullable String[] environment) {
+    if (environment == null || environment.length == 0) {
+      return System.getenv("PATH");
+    }
+    for (String variable : environment) {
+      if (variable != null && variable.startsWith(PATH_PREFIX)) {
+        return variable.substring(PATH_PREFIX.length());
+      }
+    }
+    return null;
+  }
+
+  private static final class Entry {
+    private final Path myFile;
+    private final String myResolvedPath;
+    private final Path[] myDirectories;
+    private final long[] myModificationTimes;
+    private final long myCreatedNanos;
+    private volatile long myCheckedNanos;
+    private volatile long myUsedNanos;
+
+    private Entry(@NotNull Path file, @NotNull Path[] directories, long[] modificationTimes, long createdNanos) {
+      myFile = file;
+      myResolvedPath = file.toString();
+      myDirectories = directories;
+      myModificationTimes = modificationTimes;
+      myCreatedNanos = createdNanos;
+      myCheckedNanos = createdNanos;
+      myUsedNanos = createdNanos;
+    }
+  }
+}
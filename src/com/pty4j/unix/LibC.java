@@ -0,0 +1,46 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * Direct-mapped libc functions used on the hot I/O paths of {@link Pty}.
+ * <p>
+ * Unlike the interface-mapped libraries (see {@link PtyHelpers.OSFacade}), direct mapping neither boxes the arguments
+ * nor allocates an argument array, so a call doesn't produce any garbage on the Java heap.
+ * Use {@link PtyHelpers#errno()} to get the error code of a failed call.
+ */
+final class LibC {
+  static {
+    Native.register(LibC.class, Platform.C_LIBRARY_NAME);
+  }
+
+  private LibC() {
+  }
+
+  /**
+   * @param fds each {int fd, short events, short revents} structure is represented by two ints
+   */
+  static native int poll(int[] fds, int nfds, int timeout);
+
+  /**
+   * The {@code count} is always bounded by the size of {@code buf}, so it's safe to pass it as an {@code int}.
+   */
+  static native int read(int fd, Pointer buf, int count);
+
+  /**
+   * @param iov an array of {void *iov_base, size_t iov_len} structures
+   */
+  static native int readv(int fd, Pointer iov, int iovcnt);
+
+  /**
+   * The {@code count} is always bounded by the size of {@code buf}, so it's safe to pass it as an {@code int}.
+   */
+  static native int write(int fd, Pointer buf, int count);
+
+  /**
+   * @param iov an array of {void *iov_base, size_t iov_len} structures
+   */
+  static native int writev(int fd, Pointer iov, int iovcnt);
+}
@@ -3,9 +3,13 @@ package com.pty4j.unix;
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
 import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
 import com.sun.jna.Structure;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.List;
 
@@ -13,11 +17,29 @@ import java.util.List;
  * @author traff
  */
 class NativePtyExecutor implements PtyExecutor {
+  private static final Logger LOG = LoggerFactory.getLogger(NativePtyExecutor.class);
 
   private final Pty4J myPty4j;
+  // false if the library predates spawn_pty
+  private final boolean mySpawnPtySupported;
 
   NativePtyExecutor(@NotNull String libraryName) {
     myPty4j = Native.load(libraryName, Pty4J.class);
+    mySpawnPtySupported = hasFunction(libraryName, "spawn_pty");
+    if (!mySpawnPtySupported) {
+      LOG.info("Native library " + libraryName + " doesn't support spawn modes and the initial window size," +
+               " falling back to " + SpawnMode.FORK);
+    }
+  }
+
+  private static boolean hasFunction(@NotNull String libraryName, @NotNull String functionName) {
+    try {
+      NativeLibrary.getInstance(libraryName).getFunction(functionName);
+      return true;
+    }
+    catch (UnsatisfiedLinkError e) {
+      return false;
+    }
   }
 
   @Override
@@ -27,6 +49,37 @@ class NativePtyExecutor implements PtyExecutor {
     return myPty4j.exec_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm);
   }
 
+  @Override
+  public int execPty(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
+                     String err_pts_name, int err_fdm, boolean console,
+                     /*BashSupport Pro*/String add_pts_name, int add_pty_fdm,
+                     @NotNull SpawnMode spawnMode, @Nullable WinSize initialSize) {
+    if (mySpawnPtySupported) {
+      return myPty4j.spawn_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console,
+                               /*BashSupport Pro*/add_pts_name, add_pty_fdm, spawnMode.getNativeValue(),
+                               initialSize != null ? new WinSizeStructure(initialSize) : null);
+    }
+    return execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm);
+  }
+
+  @Override
+  public int execPty(String full_path, Pointer argv, Pointer envp, Pointer dirpath, String pts_name, int fdm,
+                     String err_pts_name, int err_fdm, boolean console,
+                     /*BashSupport Pro*/String add_pts_name, int add_pty_fdm,
+                     @NotNull SpawnMode spawnMode, @Nullable WinSize initialSize) {
+    if (mySpawnPtySupported) {
+      return myPty4j.spawn_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console,
+                               /*BashSupport Pro*/add_pts_name, add_pty_fdm, spawnMode.getNativeValue(),
+                               initialSize != null ? new WinSizeStructure(initialSize) : null);
+    }
+    return myPty4j.exec_pty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm);
+  }
+
+  @Override
+  public boolean isInitialWindowSizeSupported() {
+    return mySpawnPtySupported;
+  }
+
   @Override
   public int waitForProcessExitAndGetExitCode(int pid) {
     return myPty4j.wait_for_child_process_exit(pid);
@@ -82,6 +135,24 @@ class NativePtyExecutor implements PtyExecutor {
                  /*BashSupport Pro*/
                  String additionalPtySlaveName, int additionalPtyMasterFD);
 
+    int spawn_pty(String full_path, String[] argv, String[] envp, String dirpath, String pts_name, int fdm,
+                  String err_pts_name, int err_fdm, boolean console,
+                  /*BashSupport Pro*/
+                  String additionalPtySlaveName, int additionalPtyMasterFD,
+                  int spawn_mode, WinSizeStructure win_size);
+
+    // the same functions with argv, envp and dirpath already encoded, see SpawnSpec
+    int exec_pty(String full_path, Pointer argv, Pointer envp, Pointer dirpath, String pts_name, int fdm,
+                 String err_pts_name, int err_fdm, boolean console,
+                 /*BashSupport Pro*/
+                 String additionalPtySlaveName, int additionalPtyMasterFD);
+
+    int spawn_pty(String full_path, Pointer argv, Pointer envp, Pointer dirpath, String pts_name, int fdm,
+                  String err_pts_name, int err_fdm, boolean console,
+                  /*BashSupport Pro*/
+                  String additionalPtySlaveName, int additionalPtyMasterFD,
+                  int spawn_mode, WinSizeStructure win_size);
+
     int wait_for_child_process_exit(int child_pid);
 
     int get_window_size(int fd, WinSizeStructure win_size);
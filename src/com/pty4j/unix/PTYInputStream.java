@@ -43,13 +43,10 @@ public class PTYInputStream extends InputStream {
     if (len == 0) {
       return 0;
     }
-    byte[] tmpBuf = new byte[len];
-    len = myPty.read(tmpBuf, len);
+    len = myPty.read(buf, off, len);
     if (len <= 0) {
       return -1;
     }
-    System.arraycopy(tmpBuf, 0, buf, off, len);
-
     return len;
   }
 
@@ -7,8 +7,11 @@
  *******************************************************************************/
 package com.pty4j.unix;
 
+import org.jetbrains.annotations.NotNull;
+
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 public class PTYOutputStream extends OutputStream {
   Pty myPty;
@@ -25,15 +28,29 @@ public class PTYOutputStream extends OutputStream {
     } else if (len == 0) {
       return;
     }
-    byte[] tmpBuf = new byte[len];
-    System.arraycopy(b, off, tmpBuf, off, len);
-    myPty.write(tmpBuf, len);
+    myPty.write(b, off, len);
   }
 
   @Override public void write(int b) throws IOException {
-    byte[] buf = new byte[1];
-    buf[0] = (byte) b;
-    write(buf, 0, 1);
+    myPty.write(b);
+  }
+
+  /**
+   * Writes all the remaining bytes of {@code src}. A direct buffer is written to the pty without copying.
+   *
+   * @return the number of bytes written
+   */
+  public int write(@NotNull ByteBuffer src) throws IOException {
+    return myPty.write(src);
+  }
+
+  /**
+   * Writes all the remaining bytes of {@code srcs}, using a single gathering write when all the buffers are direct.
+   *
+   * @return the number of bytes written
+   */
+  public long write(@NotNull ByteBuffer... srcs) throws IOException {
+    return myPty.write(srcs, 0, srcs.length);
   }
 
   @Override public void close() throws IOException {
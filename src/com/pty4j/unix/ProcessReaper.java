@@ -0,0 +1,242 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Waits for the exit of the spawned child processes with a single thread for the whole JVM, instead of a thread
+ * blocked in waitpid per child.
+ * <p>
+ * On Linux 5.3+ every child is watched by a pidfd (see pidfd_open(2)) registered in one epoll instance, and the child
+ * is reaped as soon as its pidfd becomes readable. Other processes of the JVM, e.g. started by
+ * {@link ProcessBuilder}, are never reaped here. Where pidfds are unavailable, e.g. on macOS or on older kernels,
+ * every child falls back to a dedicated thread blocked in waitpid; so do all the children if the reaper thread fails.
+ */
+final class ProcessReaper {
+  private static final Logger LOG = LoggerFactory.getLogger(ProcessReaper.class);
+
+  private static final int MAX_EVENTS = 64;
+  private static final int ECHILD = 10; // No child processes
+
+  /**
+   * Receives the exit code of a watched child: the exit status if it exited normally,
+   * or 128 + signal number if it was killed by a signal.
+   */
+  interface ExitListener {
+    void processExited(int exitCode);
+  }
+
+  private static final class Holder {
+    private static final ProcessReaper INSTANCE = new ProcessReaper();
+  }
+
+  private final int myEpollFD;
+  // watched children by pid
+  private final Map<Integer, Watch> myWatches = new ConcurrentHashMap<>();
+  // set once the reaper thread has stopped, so that no watch is left without a thread to reap its child
+  private volatile boolean myStopped;
+
+  private ProcessReaper() {
+    myEpollFD = PidFD.isSupported() ? Epoll.epoll_create1(Epoll.EPOLL_CLOEXEC) : -1;
+    if (myEpollFD >= 0) {
+      Thread thread = new Thread(this::run, "PtyProcess Reaper");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  static @NotNull ProcessReaper getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * @return true if all the children are reaped by the single reaper thread
+   */
+  boolean isShared() {
+    return myEpollFD >= 0 && !myStopped;
+  }
+
+  /**
+   * Starts watching the child {@code pid}. The listener is called once, on the reaper thread, right after the child
+   * has been reaped, so it must not block.
+   */
+  void watch(int pid, @NotNull ExitListener listener) {
+    int pidFD = isShared() ? PidFD.open(pid) : -1;
+    if (pidFD < 0) {
+      watchWithThread(pid, listener);
+      return;
+    }
+    Watch watch = new Watch(pidFD, listener);
+    myWatches.put(pid, watch);
+    Memory event = new Memory(Epoll.EVENT_SIZE);
+    Epoll.setEvent(event, 0, Epoll.EPOLLIN, pid);
+    if (Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_ADD, pidFD, event) != 0) {
+      LOG.warn("Cannot register pidfd of " + pid + " in epoll, errno=" + PtyHelpers.errno());
+      myWatches.remove(pid);
+      JTermios.close(pidFD);
+      watchWithThread(pid, listener);
+      return;
+    }
+    if (myStopped) {
+      // the reaper thread may have stopped before the watch was added
+      moveToThread(pid);
+    }
+  }
+
+  /**
+   * Stops watching {@code pid} by the pidfd and waits for the child with a dedicated thread instead, unless it's
+   * already done by another thread.
+   */
+  private void moveToThread(int pid) {
+    Watch watch = myWatches.remove(pid);
+    if (watch != null) {
+      JTermios.close(watch.myPidFD);
+      watchWithThread(pid, watch.myListener);
+    }
+  }
+
+  private static void watchWithThread(int pid, @NotNull ExitListener listener) {
+    Thread thread = new Thread(() -> {
+      int exitCode = PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(pid);
+      notifyListener(pid, listener, exitCode);
+    }, "PtyProcess Reaper for " + pid);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void run() {
+    try {
+      poll();
+    }
+    finally {
+      myStopped = true;
+      for (Integer pid : myWatches.keySet()) {
+        moveToThread(pid);
+      }
+    }
+  }
+
+  private void poll() {
+    Memory events = new Memory((long)MAX_EVENTS * Epoll.EVENT_SIZE);
+    int[] status = new int[1];
+    while (true) {
+      int count = Epoll.epoll_wait(myEpollFD, events, MAX_EVENTS, -1);
+      if (count < 0) {
+        if (PtyHelpers.errno() == JTermios.EINTR) continue;
+        LOG.error("epoll_wait failed, errno=" + PtyHelpers.errno() + ", waiting for the processes with a thread per process");
+        return;
+      }
+      for (int i = 0; i < count; i++) {
+        int pid = (int)Epoll.getEventData(events, i);
+        Watch watch = myWatches.remove(pid);
+        if (watch == null) continue;
+        Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_DEL, watch.myPidFD, null);
+        JTermios.close(watch.myPidFD);
+        notifyListener(pid, watch.myListener, reap(pid, status));
+      }
+    }
+  }
+
+  /**
+   * Same as {@code wait_for_child_process_exit} in the native library, but never blocks for a child whose pidfd
+   * is readable.
+   */
+  private static int reap(int pid, int[] status) {
+    while (PtyHelpers.waitpid(pid, status, 0) < 0) {
+      int errno = PtyHelpers.errno();
+      if (errno == ECHILD) {
+        return 0; // already reaped, e.g. SIGCHLD is ignored
+      }
+      if (errno != JTermios.EINTR) {
+        return -1;
+      }
+    }
+    return toExitCode(status[0]);
+  }
+
+  static int toExitCode(int status) {
+    int termSig = status & 0x7f;
+    if (termSig == 0) {
+      // WIFEXITED: the process exited normally; get its exit code
+      return (status >> 8) & 0xff;
+    }
+    if (termSig != 0x7f) {
+      // WIFSIGNALED: return 128 + signal number as all Unix shells do
+      return 128 + termSig;
+    }
+    return status;
+  }
+
+  private static void notifyListener(int pid, @NotNull ExitListener listener, int exitCode) {
+    try {
+      listener.processExited(exitCode);
+    }
+    catch (Throwable t) {
+      LOG.error("Exit listener failed for process " + pid, t);
+    }
+  }
+
+  private static final class Watch {
+    private final int myPidFD;
+    private final ExitListener myListener;
+
+    private Watch(int pidFD, @NotNull ExitListener listener) {
+      myPidFD = pidFD;
+      myListener = listener;
+    }
+  }
+
+  /**
+   * pidfd_open(2) via syscall(2), as glibc provides a wrapper only since 2.36.
+   */
+  private static final class PidFD {
+    // the same number on all the architectures sharing the generic syscall table (x86_64, i386, arm, aarch64, ...)
+    private static final int SYS_pidfd_open = 434;
+
+    private static final @Nullable Throwable LOAD_ERROR = register();
+
+    private static @Nullable Throwable register() {
+      if (!Platform.isLinux()) {
+        return new UnsupportedOperationException("pidfd is Linux only");
+      }
+      try {
+        Native.register(PidFD.class, Platform.C_LIBRARY_NAME);
+        return null;
+      }
+      catch (Throwable t) {
+        return t;
+      }
+    }
+
+    private static native int syscall(NativeLong number, int pid, int flags);
+
+    static boolean isSupported() {
+      if (LOAD_ERROR != null) {
+        LOG.debug("pidfd is not available, using a reaper thread per process", LOAD_ERROR);
+        return false;
+      }
+      // probe with our own pid: fails with ENOSYS on kernels older than 5.3
+      int fd = open(PtyHelpers.getInstance().getpid());
+      if (fd < 0) {
+        LOG.debug("pidfd_open failed with errno=" + PtyHelpers.errno() + ", using a reaper thread per process");
+        return false;
+      }
+      JTermios.close(fd);
+      return true;
+    }
+
+    static int open(int pid) {
+      return syscall(new NativeLong(SYS_pidfd_open), pid, 0);
+    }
+  }
+}
@@ -10,12 +10,18 @@ package com.pty4j.unix;
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
 import com.pty4j.util.Pair;
+import com.pty4j.util.Scrollback;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import jtermios.FDSet;
 import jtermios.JTermios;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Locale;
 
 
@@ -24,13 +30,35 @@ import java.util.Locale;
  */
 public final class Pty {
   private static final int O_WRONLY = 0x0001;
+  private static final int MAX_READ_CHUNK = 64 * 1024;
+  private static final int MAX_WRITE_CHUNK = 64 * 1024;
+  private static final int MAX_IOVECS = 16;
 
   private final String mySlaveName;
   private final PTYInputStream myIn;
   private final PTYOutputStream myOut;
   private final Object myFDLock = new Object();
   private final Object mySelectLock = new Object();
+  // wakes up the threads waiting for the master fd; closed with both mySelectLock and myWriteLock held
   private final int[] myPipe = new int[2];
+  // each {int, short, short} structure is represented by two ints; guarded by mySelectLock
+  private final int[] myPollFds = new int[4];
+  // reused for all the reads, grows up to MAX_READ_CHUNK; guarded by mySelectLock
+  private Memory myReadBuffer;
+  // {void *iov_base, size_t iov_len} x MAX_IOVECS; guarded by mySelectLock
+  private Memory myReadIovecs;
+  private final Object myWriteLock = new Object();
+  // {master, pipe, wake-up fd}, each {int, short, short} structure is represented by two ints; guarded by myWriteLock
+  private final int[] myWritePollFds = new int[6];
+  // reused for all the writes of heap data, grows up to MAX_WRITE_CHUNK; guarded by myWriteLock
+  private Memory myWriteBuffer;
+  private ByteBuffer myWriteByteBuffer;
+  // {void *iov_base, size_t iov_len} x MAX_IOVECS; guarded by myWriteLock
+  private Memory myWriteIovecs;
+  private volatile PtyChannel myChannel;
+  private volatile PtyOutputPublisher myPublisher;
+  private volatile @Nullable Scrollback myScrollback;
+  private volatile @Nullable SessionRecorder myRecorder;
 
   private volatile int myMaster;
   private volatile int mySlaveFD;
@@ -69,6 +97,9 @@ public final class Pty {
     if (mySlaveName == null) {
       throw new IOException("Util.exception.cannotCreatePty");
     }
+    // a write blocked in the kernel could be woken up neither by closing the pty nor by an interrupt, so the threads
+    // wait for the master fd with poll instead
+    setNonBlocking(myMaster);
 
     // Without this line, on macOS the slave side of the pty will be automatically closed on process termination, and it
     // will be impossible to read process output after exit. It has a side effect: the child process won't be terminated
@@ -86,6 +117,9 @@ public final class Pty {
     return mySlaveName;
   }
 
+  /**
+   * @return the master fd, which is non-blocking
+   */
   public int getMasterFD() {
     return myMaster;
   }
@@ -98,6 +132,46 @@ public final class Pty {
     return myIn;
   }
 
+  /**
+   * Returns the NIO channel view of this Pty. Unlike the streams, it reads and writes direct buffers without copying,
+   * and a blocked read can be interrupted.
+   */
+  public @NotNull PtyChannel getChannel() {
+    PtyChannel channel = myChannel;
+    if (channel == null) {
+      synchronized (myFDLock) {
+        channel = myChannel;
+        if (channel == null) {
+          channel = new PtyChannel(this);
+          myChannel = channel;
+        }
+      }
+    }
+    return channel;
+  }
+
+  /**
+   * Returns the publisher of the output read from {@link #getChannel()}. It's created once, so that its single
+   * subscriber is the only reader of the channel.
+   */
+  @NotNull PtyOutputPublisher getOutputPublisher() {
+    PtyOutputPublisher publisher = myPublisher;
+    if (publisher == null) {
+      synchronized (myFDLock) {
+        publisher = myPublisher;
+        if (publisher == null) {
+          publisher = new PtyOutputPublisher(getChannel());
+          myPublisher = publisher;
+        }
+      }
+    }
+    return publisher;
+  }
+
+  boolean hasChannel() {
+    return myChannel != null;
+  }
+
   /**
    * Change terminal window size to given width and height.
    * <p>
@@ -156,6 +230,9 @@ public final class Pty {
   }
 
   private static String ptsname(PtyHelpers.OSFacade m_jpty, int fdm) {
+    if (m_jpty.isPtsnameThreadSafe()) {
+      return m_jpty.ptsname(fdm);
+    }
     synchronized (PTSNAME_LOCK) {
       // ptsname() function is not thread-safe: http://man7.org/linux/man-pages/man3/ptsname.3.html
       return m_jpty.ptsname(fdm);
@@ -167,6 +244,14 @@ public final class Pty {
     return ptyMasterOpen();
   }
 
+  private static void setNonBlocking(int fd) throws IOException {
+    int flags = JTermios.fcntl(fd, JTermios.F_GETFL, 0);
+    if (flags == -1 || JTermios.fcntl(fd, JTermios.F_SETFL, flags | JTermios.O_NONBLOCK) == -1) {
+      int errno = PtyHelpers.errno();
+      throw new UnixPtyException("Cannot make the pty master non-blocking: fd=" + fd + ", errno=" + errno, errno);
+    }
+  }
+
   public static int raise(int pid, int sig) {
     PtyHelpers.OSFacade m_jpty = PtyHelpers.getInstance();
 
@@ -223,40 +308,208 @@ public final class Pty {
     breakRead();
 
     synchronized (mySelectLock) {
-      JTermios.close(myPipe[0]);
-      JTermios.close(myPipe[1]);
-      myPipe[0] = -1;
-      myPipe[1] = -1;
+      // a writer waiting for the master fd has been woken up, and releases the lock once it sees the pty closed
+      synchronized (myWriteLock) {
+        JTermios.close(myPipe[0]);
+        JTermios.close(myPipe[1]);
+        myPipe[0] = -1;
+        myPipe[1] = -1;
+      }
+      myReadBuffer = null;
     }
 
     return ret;
   }
 
+  /**
+   * Sets the scrollback which all the bytes read from the master are appended to, whichever way they are read.
+   */
+  void setScrollback(@Nullable Scrollback scrollback) {
+    myScrollback = scrollback;
+  }
+
+  @Nullable Scrollback getScrollback() {
+    return myScrollback;
+  }
+
+  /**
+   * Sets the recorder of all the bytes read from and written to the master.
+   */
+  void setRecorder(@Nullable SessionRecorder recorder) {
+    myRecorder = recorder;
+  }
+
+  @Nullable SessionRecorder getRecorder() {
+    return myRecorder;
+  }
+
   void breakRead() {
     JTermios.write(myPipe[1], new byte[1], 1);
   }
 
-  int read(byte[] buf, int len) throws IOException {
-    int fd = myMaster;
-    if (fd == -1) return -1;
+  /**
+   * Reads up to {@code len} bytes straight into {@code buf} at {@code off}, blocking until some output is available or
+   * the read is interrupted by {@link #breakRead()}. In the steady state, no Java heap memory is allocated.
+   *
+   * @return the number of bytes read, or a non-positive value on EOF or error
+   */
+  int read(byte[] buf, int off, int len) throws IOException {
+    synchronized (mySelectLock) {
+      int count = Math.min(len, MAX_READ_CHUNK);
+      Memory buffer = myReadBuffer;
+      if (buffer == null || buffer.size() < count) {
+        buffer = new Memory(count);
+        myReadBuffer = buffer;
+      }
+      int result;
+      do {
+        int fd = awaitReadable();
+        if (fd == -1) return -1;
+        result = LibC.read(fd, buffer, count);
+      }
+      while (wouldBlock(result));
+      if (result > 0) {
+        buffer.read(0, buf, off, result);
+        SessionRecorder recorder = myRecorder;
+        if (recorder != null) {
+          recorder.recordOutput(buf, off, result);
+        }
+        Scrollback scrollback = myScrollback;
+        if (scrollback != null) {
+          scrollback.append(buf, off, result);
+        }
+      }
+      return result;
+    }
+  }
 
-    boolean haveBytes;
+  /**
+   * Reads up to {@code dst.remaining()} bytes into {@code dst}. A direct buffer is filled by the kernel without any
+   * intermediate copying.
+   *
+   * @return the number of bytes read, or a non-positive value on EOF or error
+   */
+  int read(@NotNull ByteBuffer dst) throws IOException {
+    if (dst.isReadOnly()) {
+      throw new ReadOnlyBufferException();
+    }
+    int len = dst.remaining();
+    if (len == 0) return 0;
+    if (dst.hasArray()) {
+      int result = read(dst.array(), dst.arrayOffset() + dst.position(), len);
+      if (result > 0) {
+        dst.position(dst.position() + result);
+      }
+      return result;
+    }
+    synchronized (mySelectLock) {
+      int result;
+      do {
+        int fd = awaitReadable();
+        if (fd == -1) return -1;
+        result = LibC.read(fd, Native.getDirectBufferPointer(dst).share(dst.position()), len);
+      }
+      while (wouldBlock(result));
+      if (result > 0) {
+        capture(dst, result);
+        dst.position(dst.position() + result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Scattering counterpart of {@link #read(ByteBuffer)}. If all the buffers are direct, they are filled by a single
+   * {@code readv} call, otherwise only the first buffer with some space remaining is filled.
+   *
+   * @return the number of bytes read, or a non-positive value on EOF or error
+   */
+  long read(@NotNull ByteBuffer[] dsts, int offset, int length) throws IOException {
+    int end = offset + length;
+    for (int i = offset; i < end; i++) {
+      if (dsts[i].isReadOnly()) {
+        throw new ReadOnlyBufferException();
+      }
+    }
+    int first = offset;
+    while (first < end && !dsts[first].hasRemaining()) first++;
+    if (first == end) return 0;
+    if (!allDirect(dsts, first, end)) {
+      return read(dsts[first]);
+    }
     synchronized (mySelectLock) {
-      if (myPipe[0] == -1) return -1;
+      if (myReadIovecs == null) {
+        myReadIovecs = newIovecs();
+      }
+      int count = fillIovecs(myReadIovecs, dsts, first, end);
+      int result;
+      do {
+        int fd = awaitReadable();
+        if (fd == -1) return -1;
+        result = LibC.readv(fd, myReadIovecs, count);
+      }
+      while (wouldBlock(result));
+      if (result > 0) {
+        long left = result;
+        for (int i = first; i < end && left > 0; i++) {
+          int step = (int)Math.min(dsts[i].remaining(), left);
+          capture(dsts[i], step);
+          left -= step;
+        }
+        advance(dsts, first, end, result);
+      }
+      return result;
+    }
+  }
 
-      haveBytes = useSelect ? select(myPipe[0], fd) : poll(myPipe[0], fd);
+  /**
+   * Passes {@code count} bytes just read into {@code buffer} at its position to the recorder and the scrollback, if any.
+   */
+  void capture(@NotNull ByteBuffer buffer, int count) {
+    SessionRecorder recorder = myRecorder;
+    Scrollback scrollback = myScrollback;
+    if ((recorder != null || scrollback != null) && count > 0) {
+      ByteBuffer bytes = buffer.duplicate();
+      bytes.limit(bytes.position() + count);
+      if (recorder != null) {
+        recorder.recordOutput(bytes);
+      }
+      if (scrollback != null) {
+        scrollback.append(bytes);
+      }
     }
+  }
+
+  /**
+   * Should be called with {@code mySelectLock} held.
+   *
+   * @return the master fd which has some data available, or -1 if the read was interrupted or the pty is closed
+   */
+  private int awaitReadable() {
+    int fd = myMaster;
+    if (fd == -1 || myPipe[0] == -1) return -1;
 
-    return haveBytes ? JTermios.read(fd, buf, len) : -1;
+    boolean haveBytes = useSelect ? select(myPipe[0], fd) : poll(myPollFds, myPipe[0], fd);
+    return haveBytes ? fd : -1;
   }
 
-  private static boolean poll(int pipeFd, int fd) {
-    // each {int, short, short} structure is represented by two ints
-    int[] poll_fds = new int[]{pipeFd, JTermios.POLLIN, fd, JTermios.POLLIN};
+  /**
+   * @return whether a call on the non-blocking master fd has failed only because it would block, e.g. as the data
+   *         announced by poll has been consumed by another reader
+   */
+  private static boolean wouldBlock(int result) {
+    return result < 0 && PtyHelpers.errno() == JTermios.EAGAIN;
+  }
+
+  private static boolean poll(int[] poll_fds, int pipeFd, int fd) {
     while (true) {
-      if (JTermios.poll(poll_fds, 2, -1) > 0) break;
+      poll_fds[0] = pipeFd;
+      poll_fds[1] = JTermios.POLLIN;
+      poll_fds[2] = fd;
+      poll_fds[3] = JTermios.POLLIN;
+      if (LibC.poll(poll_fds, 2, -1) > 0) break;
 
-      int errno = JTermios.errno();
+      int errno = PtyHelpers.errno();
       if (errno != JTermios.EAGAIN && errno != JTermios.EINTR) return false;
     }
     return ((poll_fds[3] >> 16) & JTermios.POLLIN) != 0;
@@ -272,8 +525,254 @@ public final class Pty {
     return JTermios.FD_ISSET(fd, set);
   }
 
-  int write(byte[] buf, int len) throws IOException {
-    return JTermios.write(myMaster, buf, len);
+  /**
+   * Writes all {@code len} bytes of {@code buf} starting at {@code off}, retrying on partial writes and waiting while
+   * the tty input buffer is full.
+   *
+   * @throws IOException if the data cannot be written, or the pty is closed meanwhile
+   */
+  void write(byte[] buf, int off, int len) throws IOException {
+    synchronized (myWriteLock) {
+      while (len > 0) {
+        int count = Math.min(len, MAX_WRITE_CHUNK);
+        Memory buffer = getWriteBuffer(count);
+        buffer.write(0, buf, off, count);
+        writeFully(buffer, count);
+        off += count;
+        len -= count;
+      }
+    }
+  }
+
+  void write(int b) throws IOException {
+    synchronized (myWriteLock) {
+      Memory buffer = getWriteBuffer(1);
+      buffer.setByte(0, (byte)b);
+      writeFully(buffer, 1);
+    }
+  }
+
+  /**
+   * Writes all the remaining bytes of {@code src}. A direct buffer is passed to the master fd as is, without copying.
+   *
+   * @return the number of bytes written
+   */
+  int write(@NotNull ByteBuffer src) throws IOException {
+    int count = src.remaining();
+    if (count == 0) return 0;
+    if (src.hasArray()) {
+      write(src.array(), src.arrayOffset() + src.position(), count);
+      src.position(src.limit());
+      return count;
+    }
+    synchronized (myWriteLock) {
+      if (src.isDirect()) {
+        writeFully(Native.getDirectBufferPointer(src).share(src.position()), count);
+        src.position(src.limit());
+      }
+      else {
+        // read-only heap buffer, no access to the backing array
+        while (src.hasRemaining()) {
+          int chunk = Math.min(src.remaining(), MAX_WRITE_CHUNK);
+          Memory buffer = getWriteBuffer(chunk);
+          ByteBuffer slice = src.duplicate();
+          slice.limit(slice.position() + chunk);
+          myWriteByteBuffer.clear();
+          myWriteByteBuffer.put(slice);
+          writeFully(buffer, chunk);
+          src.position(src.position() + chunk);
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes all the remaining bytes of {@code srcs[offset..offset+length)}. If all the buffers are direct, they are
+   * passed to the master fd with gathering {@code writev} calls, otherwise they are written one by one.
+   *
+   * @return the number of bytes written
+   */
+  long write(@NotNull ByteBuffer[] srcs, int offset, int length) throws IOException {
+    int end = offset + length;
+    long total = 0;
+    if (length == 1 || !allDirect(srcs, offset, end)) {
+      for (int i = offset; i < end; i++) {
+        total += write(srcs[i]);
+      }
+      return total;
+    }
+    synchronized (myWriteLock) {
+      int first = offset;
+      while (true) {
+        while (first < end && !srcs[first].hasRemaining()) first++;
+        if (first == end) return total;
+
+        if (myWriteIovecs == null) {
+          myWriteIovecs = newIovecs();
+        }
+        int count = fillIovecs(myWriteIovecs, srcs, first, end);
+        int written = writev(myWriteIovecs, count);
+        total += written;
+        SessionRecorder recorder = myRecorder;
+        if (recorder != null) {
+          long left = written;
+          for (int i = first; i < end && left > 0; i++) {
+            ByteBuffer bytes = srcs[i].duplicate();
+            bytes.limit(bytes.position() + (int)Math.min(bytes.remaining(), left));
+            recorder.recordInput(bytes);
+            left -= bytes.remaining();
+          }
+        }
+        advance(srcs, first, end, written);
+      }
+    }
+  }
+
+  private static boolean allDirect(@NotNull ByteBuffer[] buffers, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (!buffers[i].isDirect()) return false;
+    }
+    return true;
+  }
+
+  private static @NotNull Memory newIovecs() {
+    return new Memory((long)MAX_IOVECS * 2 * Native.POINTER_SIZE);
+  }
+
+  /**
+   * Describes the remaining space of up to {@link #MAX_IOVECS} direct buffers in {@code iovecs}.
+   *
+   * @return the number of filled iovec structures
+   */
+  private static int fillIovecs(@NotNull Memory iovecs, @NotNull ByteBuffer[] buffers, int from, int to) {
+    int entrySize = 2 * Native.POINTER_SIZE;
+    int count = 0;
+    for (int i = from; i < to && count < MAX_IOVECS; i++) {
+      ByteBuffer buffer = buffers[i];
+      if (!buffer.hasRemaining()) continue;
+      long entry = (long)count * entrySize;
+      iovecs.setPointer(entry, Native.getDirectBufferPointer(buffer).share(buffer.position()));
+      if (Native.POINTER_SIZE == 8) {
+        iovecs.setLong(entry + Native.POINTER_SIZE, buffer.remaining());
+      }
+      else {
+        iovecs.setInt(entry + Native.POINTER_SIZE, buffer.remaining());
+      }
+      count++;
+    }
+    return count;
+  }
+
+  private static void advance(@NotNull ByteBuffer[] buffers, int from, int to, long count) {
+    for (int i = from; i < to && count > 0; i++) {
+      ByteBuffer buffer = buffers[i];
+      int step = (int)Math.min(buffer.remaining(), count);
+      buffer.position(buffer.position() + step);
+      count -= step;
+    }
+  }
+
+  private @NotNull Memory getWriteBuffer(int size) {
+    Memory buffer = myWriteBuffer;
+    if (buffer == null || buffer.size() < size) {
+      buffer = new Memory(Math.max(size, 4096));
+      myWriteBuffer = buffer;
+      myWriteByteBuffer = buffer.getByteBuffer(0, buffer.size());
+    }
+    return buffer;
+  }
+
+  private void writeFully(@NotNull Pointer data, int count) throws IOException {
+    int written = 0;
+    while (written < count) {
+      Pointer chunk = written == 0 ? data : data.share(written);
+      int result = writeSome(chunk, count - written, false, -1);
+      SessionRecorder recorder = myRecorder;
+      if (recorder != null && result > 0) {
+        // only what has reached the child
+        recorder.recordInput(chunk.getByteBuffer(0, result));
+      }
+      written += result;
+    }
+  }
+
+  private int writev(@NotNull Memory iovecs, int count) throws IOException {
+    return writeSome(iovecs, count, true, -1);
+  }
+
+  /**
+   * Writes some of the {@code count} bytes at {@code data} the way the writes of this pty do: if the tty input buffer
+   * is full, waits until the child reads some input, the pty is closed, or {@code wakeUpFd} becomes readable.
+   * The bytes aren't passed to the recorder.
+   *
+   * @param wakeUpFd a fd which ends the wait when readable, or -1
+   * @return the number of bytes written, 0 if the wait has been ended by {@code wakeUpFd}
+   * @throws IOException if the pty is closed, the wait is broken by {@link #breakRead()}, e.g. as the process has
+   *                     exited, or the write fails
+   */
+  int writeSome(@NotNull Pointer data, int count, int wakeUpFd) throws IOException {
+    synchronized (myWriteLock) {
+      return writeSome(data, count, false, wakeUpFd);
+    }
+  }
+
+  /**
+   * Should be called with {@code myWriteLock} held.
+   *
+   * @param gather whether {@code data} is an array of {@code count} iovec structures to pass to {@code writev}
+   */
+  private int writeSome(@NotNull Pointer data, int count, boolean gather, int wakeUpFd) throws IOException {
+    while (true) {
+      int fd = checkMasterOpenForWrite();
+      int result = gather ? LibC.writev(fd, data, count) : LibC.write(fd, data, count);
+      if (result >= 0) {
+        return result;
+      }
+      int errno = PtyHelpers.errno();
+      if (errno == JTermios.EINTR) continue;
+      if (errno != JTermios.EAGAIN) {
+        throw new UnixPtyException("Failed to write to pty: fd=" + fd + ", errno=" + errno + "(" +
+                                   PtyHelpers.getInstance().strerror(errno) + ")", errno);
+      }
+      if (!awaitWritable(fd, wakeUpFd)) {
+        return 0;
+      }
+    }
   }
 
+  /**
+   * Should be called with {@code myWriteLock} held. Waits until the tty input buffer has some room, or the master fd
+   * has an error for the next write to report.
+   *
+   * @return {@code false} if the wait has been ended by {@code wakeUpFd}
+   */
+  private boolean awaitWritable(int fd, int wakeUpFd) throws IOException {
+    int[] pollFds = myWritePollFds;
+    pollFds[0] = fd;
+    pollFds[1] = JTermios.POLLOUT;
+    pollFds[2] = myPipe[0];
+    pollFds[3] = JTermios.POLLIN;
+    pollFds[4] = wakeUpFd;
+    pollFds[5] = JTermios.POLLIN;
+    while (LibC.poll(pollFds, wakeUpFd == -1 ? 2 : 3, -1) <= 0) {
+      int errno = PtyHelpers.errno();
+      if (errno != JTermios.EAGAIN && errno != JTermios.EINTR) {
+        throw new UnixPtyException("Failed to poll pty: fd=" + fd + ", errno=" + errno, errno);
+      }
+    }
+    checkMasterOpenForWrite();
+    if ((pollFds[1] >> 16) != 0) return true;
+    if (wakeUpFd != -1 && (pollFds[5] >> 16) != 0) return false;
+    // broken by breakRead(), e.g. as the process has exited and nothing is going to read the input anymore
+    throw new IOException("Pty write is interrupted");
+  }
+
+  private int checkMasterOpenForWrite() throws IOException {
+    int fd = myMaster;
+    if (fd == -1) {
+      throw new IOException("Pty is closed");
+    }
+    return fd;
+  }
 }
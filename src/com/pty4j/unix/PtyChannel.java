@@ -0,0 +1,121 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.spi.AbstractInterruptibleChannel;
+import java.util.Objects;
+
+/**
+ * A blocking NIO channel over the master side of a {@link Pty}: reads return the output of the child process, writes go
+ * to its input. Direct buffers are passed to the kernel as is, without intermediate copying.
+ * <p>
+ * Like any {@link java.nio.channels.InterruptibleChannel}, closing the channel wakes up a thread blocked in a read, or
+ * in a write to a full tty input buffer, which then gets {@link java.nio.channels.AsynchronousCloseException}, and
+ * interrupting such a thread closes the channel and throws {@link java.nio.channels.ClosedByInterruptException}.
+ * Closing the channel closes the underlying pty, the same way as closing {@link Pty#getInputStream()} does.
+ */
+public final class PtyChannel extends AbstractInterruptibleChannel
+  implements ByteChannel, ScatteringByteChannel, GatheringByteChannel {
+
+  private final Pty myPty;
+
+  PtyChannel(@NotNull Pty pty) {
+    myPty = pty;
+  }
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    Objects.requireNonNull(dst);
+    ensureOpen();
+    int result = 0;
+    try {
+      begin();
+      result = myPty.read(dst);
+      return result > 0 || dst.remaining() == 0 ? result : -1;
+    }
+    finally {
+      end(result > 0);
+    }
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+    Objects.checkFromIndexSize(offset, length, dsts.length);
+    ensureOpen();
+    long result = 0;
+    try {
+      begin();
+      result = myPty.read(dsts, offset, length);
+      return result > 0 || !hasRemaining(dsts, offset, length) ? result : -1;
+    }
+    finally {
+      end(result > 0);
+    }
+  }
+
+  @Override
+  public long read(ByteBuffer[] dsts) throws IOException {
+    return read(dsts, 0, dsts.length);
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    Objects.requireNonNull(src);
+    ensureOpen();
+    boolean completed = false;
+    try {
+      begin();
+      int result = myPty.write(src);
+      completed = true;
+      return result;
+    }
+    finally {
+      end(completed);
+    }
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+    Objects.checkFromIndexSize(offset, length, srcs.length);
+    ensureOpen();
+    boolean completed = false;
+    try {
+      begin();
+      long result = myPty.write(srcs, offset, length);
+      completed = true;
+      return result;
+    }
+    finally {
+      end(completed);
+    }
+  }
+
+  @Override
+  public long write(ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  protected void implCloseChannel() throws IOException {
+    myPty.close();
+  }
+
+  private void ensureOpen() throws ClosedChannelException {
+    if (!isOpen()) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  private static boolean hasRemaining(@NotNull ByteBuffer[] buffers, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (buffers[i].hasRemaining()) return true;
+    }
+    return false;
+  }
+}
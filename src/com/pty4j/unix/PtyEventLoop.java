@@ -0,0 +1,282 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Reads the output of many {@link Pty} masters with a small fixed number of threads, instead of a dedicated thread
+ * blocked in {@link PTYInputStream#read(byte[], int, int)} per pty. Linux only.
+ * <p>
+ * All the registered master fds are watched by a single epoll instance. The loop threads wait on it concurrently,
+ * and every master fd is registered with {@code EPOLLONESHOT}, so the output of one pty is always dispatched
+ * by one thread at a time and in order. A registered pty must not be read by other means. The output is passed to
+ * the recorder and the scrollback of the pty, if any, before the handler gets it.
+ */
+public final class PtyEventLoop implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(PtyEventLoop.class);
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_EVENTS = 64;
+  private static final long WAKE_UP_DATA = -1;
+  private static final int MASTER_EVENTS = Epoll.EPOLLIN | Epoll.EPOLLONESHOT;
+
+  /**
+   * Receives the output of a registered pty. All the calls for the same pty are serialized.
+   */
+  public interface Handler {
+    /**
+     * Called on an event loop thread with the next chunk of the pty output.
+     * The buffer is owned by the event loop, and it's valid only until the method returns.
+     * A slow handler delays the other ptys served by the same thread.
+     */
+    void onOutput(@NotNull ByteBuffer chunk);
+
+    /**
+     * Called once when no more output is available, e.g. when all the slave fds of the pty are closed.
+     * The registration is already cancelled at this point.
+     */
+    default void onEof() {
+    }
+  }
+
+  private final int myEpollFD;
+  private final int[] myWakeUpPipe = new int[2];
+  private final Thread[] myThreads;
+  private final Object myRegistrationLock = new Object();
+  // indexed by master fd; grows under myRegistrationLock, so that the loop threads can look up without locking
+  private volatile AtomicReferenceArray<Registration> myRegistrations = new AtomicReferenceArray<>(256);
+  private volatile boolean myClosed;
+
+  public PtyEventLoop() throws IOException {
+    this(Math.min(4, Runtime.getRuntime().availableProcessors()));
+  }
+
+  public PtyEventLoop(int threadCount) throws IOException {
+    if (!Platform.isLinux()) {
+      throw new UnsupportedOperationException("PtyEventLoop requires epoll, which is available only on Linux");
+    }
+    if (threadCount <= 0) {
+      throw new IllegalArgumentException("threadCount should be positive: " + threadCount);
+    }
+    myEpollFD = Epoll.epoll_create1(Epoll.EPOLL_CLOEXEC);
+    if (myEpollFD < 0) {
+      throw new UnixPtyException("epoll_create1 failed, " + getErrorInfo(), PtyHelpers.errno());
+    }
+    if (JTermios.pipe(myWakeUpPipe) != 0) {
+      int errno = PtyHelpers.errno();
+      JTermios.close(myEpollFD);
+      throw new UnixPtyException("Cannot create wake up pipe, errno=" + errno, errno);
+    }
+    // level-triggered without EPOLLONESHOT: once written, the pipe wakes up all the loop threads
+    Memory event = new Memory(Epoll.EVENT_SIZE);
+    Epoll.setEvent(event, 0, Epoll.EPOLLIN, WAKE_UP_DATA);
+    if (Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_ADD, myWakeUpPipe[0], event) != 0) {
+      int errno = PtyHelpers.errno();
+      String message = "Cannot register wake up pipe, " + getErrorInfo();
+      closeFDs();
+      throw new UnixPtyException(message, errno);
+    }
+    myThreads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(this::run, "PtyEventLoop-" + i);
+      thread.setDaemon(true);
+      myThreads[i] = thread;
+      thread.start();
+    }
+  }
+
+  /**
+   * Starts dispatching the output of {@code pty} to {@code handler}.
+   * The registration should be {@link Registration#close() closed} before the pty is closed.
+   */
+  public @NotNull Registration register(@NotNull Pty pty, @NotNull Handler handler) throws IOException {
+    if (myClosed) {
+      throw new IOException("Event loop is closed");
+    }
+    int fd = pty.getMasterFD();
+    if (fd < 0) {
+      throw new IOException("Pty is closed");
+    }
+    Registration registration = new Registration(pty, fd, handler);
+    synchronized (myRegistrationLock) {
+      AtomicReferenceArray<Registration> registrations = myRegistrations;
+      if (fd >= registrations.length()) {
+        AtomicReferenceArray<Registration> grown = new AtomicReferenceArray<>(Math.max(fd + 1, registrations.length() * 2));
+        for (int i = 0; i < registrations.length(); i++) {
+          grown.set(i, registrations.get(i));
+        }
+        registrations = grown;
+        myRegistrations = grown;
+      }
+      if (registrations.get(fd) != null) {
+        throw new IllegalStateException("Pty " + pty.getSlaveName() + " is already registered");
+      }
+      registrations.set(fd, registration);
+    }
+    Memory event = new Memory(Epoll.EVENT_SIZE);
+    Epoll.setEvent(event, 0, MASTER_EVENTS, fd);
+    if (Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_ADD, fd, event) != 0) {
+      int errno = PtyHelpers.errno();
+      String message = "Cannot register fd=" + fd + " in epoll, " + getErrorInfo();
+      unregister(registration);
+      throw new UnixPtyException(message, errno);
+    }
+    return registration;
+  }
+
+  public int getRegistrationCount() {
+    AtomicReferenceArray<Registration> registrations = myRegistrations;
+    int count = 0;
+    for (int i = 0; i < registrations.length(); i++) {
+      if (registrations.get(i) != null) count++;
+    }
+    return count;
+  }
+
+  /**
+   * Stops the loop threads. The registered ptys are neither closed nor notified.
+   */
+  @Override
+  public void close() {
+    if (myClosed) return;
+    myClosed = true;
+    JTermios.write(myWakeUpPipe[1], new byte[1], 1);
+    for (Thread thread : myThreads) {
+      if (thread != Thread.currentThread()) {
+        try {
+          thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    closeFDs();
+  }
+
+  private void closeFDs() {
+    JTermios.close(myWakeUpPipe[0]);
+    JTermios.close(myWakeUpPipe[1]);
+    JTermios.close(myEpollFD);
+  }
+
+  private boolean unregister(@NotNull Registration registration) {
+    synchronized (myRegistrationLock) {
+      AtomicReferenceArray<Registration> registrations = myRegistrations;
+      int fd = registration.myFD;
+      if (fd >= registrations.length() || registrations.get(fd) != registration) {
+        return false;
+      }
+      registrations.set(fd, null);
+    }
+    Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_DEL, registration.myFD, null);
+    return true;
+  }
+
+  private void run() {
+    Memory events = new Memory((long)MAX_EVENTS * Epoll.EVENT_SIZE);
+    Memory rearmEvent = new Memory(Epoll.EVENT_SIZE);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    Pointer bufferPointer = Native.getDirectBufferPointer(buffer);
+    while (!myClosed) {
+      int count = Epoll.epoll_wait(myEpollFD, events, MAX_EVENTS, -1);
+      if (count < 0) {
+        if (PtyHelpers.errno() == JTermios.EINTR) continue;
+        LOG.error("epoll_wait failed, " + getErrorInfo());
+        return;
+      }
+      for (int i = 0; i < count; i++) {
+        long data = Epoll.getEventData(events, i);
+        if (data == WAKE_UP_DATA) {
+          return;
+        }
+        AtomicReferenceArray<Registration> registrations = myRegistrations;
+        int fd = (int)data;
+        Registration registration = fd < registrations.length() ? registrations.get(fd) : null;
+        if (registration != null) {
+          dispatch(registration, buffer, bufferPointer, rearmEvent);
+        }
+      }
+    }
+  }
+
+  private void dispatch(@NotNull Registration registration, @NotNull ByteBuffer buffer, @NotNull Pointer bufferPointer,
+                        @NotNull Memory rearmEvent) {
+    int fd = registration.myFD;
+    int count = LibC.read(fd, bufferPointer, READ_BUFFER_SIZE);
+    if (count > 0) {
+      buffer.clear().limit(count);
+      registration.myPty.capture(buffer, count);
+      try {
+        registration.myHandler.onOutput(buffer);
+      }
+      catch (Throwable t) {
+        LOG.error("Pty output handler failed for " + registration.myPty.getSlaveName(), t);
+      }
+    }
+    else if (count < 0 && (PtyHelpers.errno() == JTermios.EINTR || PtyHelpers.errno() == JTermios.EAGAIN)) {
+      // spurious wake up, wait for the next event
+    }
+    else {
+      // EOF, or EIO when all the slave fds have been closed
+      if (unregister(registration)) {
+        try {
+          registration.myHandler.onEof();
+        }
+        catch (Throwable t) {
+          LOG.error("Pty EOF handler failed for " + registration.myPty.getSlaveName(), t);
+        }
+      }
+      return;
+    }
+    Epoll.setEvent(rearmEvent, 0, MASTER_EVENTS, fd);
+    // fails with ENOENT if the registration has been cancelled meanwhile
+    Epoll.epoll_ctl(myEpollFD, Epoll.EPOLL_CTL_MOD, fd, rearmEvent);
+  }
+
+  private static @NotNull String getErrorInfo() {
+    int errno = PtyHelpers.errno();
+    return "errno=" + errno + "(" + PtyHelpers.getInstance().strerror(errno) + ")";
+  }
+
+  /**
+   * A pty registered in the event loop.
+   */
+  public final class Registration implements Closeable {
+    private final Pty myPty;
+    private final int myFD;
+    private final Handler myHandler;
+
+    private Registration(@NotNull Pty pty, int fd, @NotNull Handler handler) {
+      myPty = pty;
+      myFD = fd;
+      myHandler = handler;
+    }
+
+    public @NotNull Pty getPty() {
+      return myPty;
+    }
+
+    /**
+     * Stops dispatching the output of the pty. A chunk being dispatched at the moment is still delivered.
+     * The pty itself is left open.
+     */
+    @Override
+    public void close() {
+      unregister(this);
+    }
+  }
+}
@@ -2,6 +2,7 @@ package com.pty4j.unix;
 
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
+import com.sun.jna.Pointer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -12,6 +13,40 @@ public interface PtyExecutor {
   int execPty(String full_path, String[] argv, String[] envp,
               String dirpath, String pts_name, int fdm, String err_pts_name, int err_fdm, boolean console, /*BashSupport Pro*/String add_pts_name, int add_pty_fdm);
 
+  /**
+   * Same as {@link #execPty(String, String[], String[], String, String, int, String, int, boolean, String, int)}
+   * with the given way to create the child process.
+   *
+   * @param initialSize the window size to set on all the slaves in the child before the program
+   *                    starts, or {@code null} to leave it as is; ignored unless {@link #isInitialWindowSizeSupported()}
+   */
+  default int execPty(String full_path, String[] argv, String[] envp,
+                      String dirpath, String pts_name, int fdm, String err_pts_name, int err_fdm, boolean console, /*BashSupport Pro*/String add_pts_name, int add_pty_fdm,
+                      @NotNull SpawnMode spawnMode, @Nullable WinSize initialSize) {
+    return execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm);
+  }
+
+  /**
+   * Same as {@link #execPty(String, String[], String[], String, String, int, String, int, boolean, String, int, SpawnMode, WinSize)}
+   * with {@code argv} and {@code envp} already encoded as NULL-terminated native arrays of C strings,
+   * e.g. by {@link com.sun.jna.StringArray}, and {@code dirpath} as a C string. By default decodes them back to Java
+   * strings.
+   */
+  default int execPty(String full_path, Pointer argv, Pointer envp,
+                      Pointer dirpath, String pts_name, int fdm, String err_pts_name, int err_fdm, boolean console, /*BashSupport Pro*/String add_pts_name, int add_pty_fdm,
+                      @NotNull SpawnMode spawnMode, @Nullable WinSize initialSize) {
+    return execPty(full_path, argv.getStringArray(0), envp.getStringArray(0), dirpath.getString(0), pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm,
+                   spawnMode, initialSize);
+  }
+
+  /**
+   * @return true if the initial window size passed to {@code execPty} is set in the child, otherwise the caller
+   *         has to set it after the spawn
+   */
+  default boolean isInitialWindowSizeSupported() {
+    return false;
+  }
+
   int waitForProcessExitAndGetExitCode(int pid);
 
   @NotNull WinSize getWindowSize(int fd, @Nullable PtyProcess process) throws UnixPtyException;
@@ -0,0 +1,120 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.ExpectMatcher;
+import com.pty4j.util.ExpectPatterns;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for patterns in the output of a pty, e.g. for prompts of an interactive program, the way {@code expect} does.
+ * <p>
+ * The output is matched by an {@link ExpectMatcher} chunk by chunk as it's published by a {@link PtyOutputBroadcaster},
+ * so waiting costs the same however much output precedes the match, and the output isn't accumulated beyond the
+ * matcher window. The methods should be called by one thread at a time.
+ *
+ * @see UnixPtyProcess#newExpect(int)
+ */
+public final class PtyExpect implements Closeable {
+  private final PtyOutputBroadcaster.Subscription mySubscription;
+  private final @Nullable PtyOutputBroadcaster myBroadcaster;
+  private final ExpectMatcher myMatcher;
+  private final PtyOutputBroadcaster.Handler myAppender;
+  // the patterns and the match of the wait in progress, set for the appender
+  private ExpectPatterns myPatterns;
+  private ExpectMatcher.Match myMatch;
+  // the output following a match in its chunk, which is appended by the next wait
+  private @Nullable ByteBuffer myPending;
+
+  /**
+   * @param subscription the output to match, consumed only by this instance
+   * @param windowSize   the number of the latest bytes of the output which are kept for matching
+   */
+  public PtyExpect(@NotNull PtyOutputBroadcaster.Subscription subscription, int windowSize) {
+    this(subscription, null, windowSize);
+  }
+
+  PtyExpect(@NotNull PtyOutputBroadcaster.Subscription subscription,
+            @Nullable PtyOutputBroadcaster broadcaster,
+            int windowSize) {
+    mySubscription = subscription;
+    myBroadcaster = broadcaster;
+    myMatcher = new ExpectMatcher(windowSize);
+    myAppender = chunk -> {
+      myMatch = myMatcher.appendAndFind(chunk, myPatterns);
+      if (chunk.hasRemaining()) {
+        // appending it now could push the output matched by the next wait out of the window
+        myPending = ByteBuffer.allocate(chunk.remaining()).put(chunk).flip();
+      }
+    };
+  }
+
+  /**
+   * Waits for the first match of {@code patterns} in the output following the previous match.
+   *
+   * @return the match, or {@code null} if there has been none within the timeout
+   * @throws EOFException if the output has ended without a match
+   */
+  public @Nullable ExpectMatcher.Match expect(@NotNull ExpectPatterns patterns, long timeout, @NotNull TimeUnit unit)
+    throws IOException, InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    myPatterns = patterns;
+    if (myPending != null) {
+      ByteBuffer pending = myPending;
+      myPending = null;
+      myMatch = myMatcher.appendAndFind(pending, patterns);
+      if (pending.hasRemaining()) {
+        myPending = pending;
+      }
+    }
+    else {
+      myMatch = myMatcher.find(patterns);
+    }
+    try {
+      while (myMatch == null) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return null;
+        if (!mySubscription.consume(myAppender, remaining, TimeUnit.NANOSECONDS) && mySubscription.isEnded()) {
+          IOException error = myBroadcaster != null ? myBroadcaster.getError() : null;
+          throw error != null ? error : new EOFException("The output has ended without a match");
+        }
+      }
+      return myMatch;
+    }
+    finally {
+      myPatterns = null;
+      myMatch = null;
+    }
+  }
+
+  /**
+   * @see #expect(ExpectPatterns, long, TimeUnit)
+   */
+  public @Nullable ExpectMatcher.Match expect(@NotNull String literal, long timeout, @NotNull TimeUnit unit)
+    throws IOException, InterruptedException {
+    return expect(ExpectPatterns.literals(literal), timeout, unit);
+  }
+
+  /**
+   * @return the number of bytes of output received so far
+   */
+  public long getPosition() {
+    return myMatcher.getPosition() + (myPending != null ? myPending.remaining() : 0);
+  }
+
+  /**
+   * Closes the subscription, and the broadcaster if it was created for this instance.
+   */
+  @Override
+  public void close() {
+    mySubscription.close();
+    if (myBroadcaster != null) {
+      myBroadcaster.close();
+    }
+  }
+}
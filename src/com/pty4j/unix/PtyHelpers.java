@@ -26,6 +26,7 @@ import com.pty4j.util.LazyValue;
 import com.pty4j.util.PtyUtil;
 import com.sun.jna.Native;
 import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
 import jtermios.JTermios;
 import jtermios.Termios;
 import org.jetbrains.annotations.NotNull;
@@ -83,6 +84,14 @@ public class PtyHelpers {
 
     String ptsname(int fdm);
 
+    /**
+     * @return true if {@link #ptsname(int)} is thread-safe, e.g. implemented with ptsname_r(3),
+     *         so that it may be called without the global lock
+     */
+    default boolean isPtsnameThreadSafe() {
+      return false;
+    }
+
     int killpg(int pid, int sig);
 
     int fork();
@@ -393,7 +402,45 @@ public class PtyHelpers {
                             /*BashSupport Pro*/
                             String add_pts_name,
                             int add_pty_fdm) {
+    return execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm,
+                   SpawnMode.FORK, null);
+  }
+
+  public static int execPty(String full_path,
+                            String[] argv,
+                            String[] envp,
+                            String dirpath,
+                            String pts_name,
+                            int fdm,
+                            String err_pts_name,
+                            int err_fdm,
+                            boolean console,
+                            /*BashSupport Pro*/
+                            String add_pts_name,
+                            int add_pty_fdm,
+                            @NotNull SpawnMode spawnMode,
+                            @Nullable WinSize initialSize) {
+    PtyExecutor executor = getPtyExecutor();
+    return executor.execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm,
+                            spawnMode, initialSize);
+  }
+
+  public static int execPty(String full_path,
+                            Pointer argv,
+                            Pointer envp,
+                            Pointer dirpath,
+                            String pts_name,
+                            int fdm,
+                            String err_pts_name,
+                            int err_fdm,
+                            boolean console,
+                            /*BashSupport Pro*/
+                            String add_pts_name,
+                            int add_pty_fdm,
+                            @NotNull SpawnMode spawnMode,
+                            @Nullable WinSize initialSize) {
     PtyExecutor executor = getPtyExecutor();
-    return executor.execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm);
+    return executor.execPty(full_path, argv, envp, dirpath, pts_name, fdm, err_pts_name, err_fdm, console, /*BashSupport Pro*/add_pts_name, add_pty_fdm,
+                            spawnMode, initialSize);
   }
 }
@@ -0,0 +1,353 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Writes the input of a pty asynchronously, so that a child which doesn't read its input blocks neither the caller
+ * nor any thread while there's nothing to write.
+ * <p>
+ * The data waits in a queue bounded by a byte budget: a write that doesn't fit fails at once. The queue is drained
+ * by a thread of the executor only while it's not empty. Bulk data is written in small slices, and the data of the
+ * priority lane, e.g. Ctrl-C, is written before the rest of the queue, at the next slice boundary. Nothing can
+ * get past an input buffer of the tty that is full, though: the child has to read some input first. Meanwhile the
+ * thread waits in poll, until the child reads, or the writer or the pty is closed.
+ * <p>
+ * The writer takes over the buffers passed to it until the returned futures complete, and must not be mixed with
+ * other ways of writing to the same pty. The futures are completed on the writing thread.
+ *
+ * @see UnixPtyProcess#newInputWriter(long)
+ */
+public final class PtyInputWriter implements Closeable {
+  /**
+   * The default VINTR character of a tty, Ctrl-C.
+   */
+  public static final byte INTR = 0x03;
+
+  private static final int SLICE_SIZE = 1024;
+
+  private static final class ExecutorHolder {
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "PtyInputWriter");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private final Pty myPty;
+  private final long myByteBudget;
+  private final Executor myExecutor;
+  private final Object myLock = new Object();
+  // guarded by myLock
+  private final ArrayDeque<Item> myPriorityQueue = new ArrayDeque<>();
+  // guarded by myLock
+  private final ArrayDeque<Item> myBulkQueue = new ArrayDeque<>();
+  // guarded by myLock
+  private long myQueuedBytes;
+  // guarded by myLock
+  private long myQueuedPriorityBytes;
+  // guarded by myLock
+  private boolean myDraining;
+  // guarded by myLock
+  private boolean myClosed;
+  // guarded by myLock
+  private long myWrittenBytes;
+  // the time spent draining a non-empty queue; guarded by myLock
+  private long myDrainingNanos;
+  // guarded by myLock
+  private long myDrainStartNanos;
+  // the write end of the pipe waking up the drain loop in progress, or -1; guarded by myLock
+  private int myWakeUpFD = -1;
+
+  public PtyInputWriter(@NotNull Pty pty, long byteBudget) {
+    this(pty, byteBudget, ExecutorHolder.EXECUTOR);
+  }
+
+  /**
+   * @param byteBudget the maximum number of bytes waiting in the bulk queue
+   * @param executor   runs the drain loop while there's something to write
+   */
+  public PtyInputWriter(@NotNull Pty pty, long byteBudget, @NotNull Executor executor) {
+    if (byteBudget <= 0) {
+      throw new IllegalArgumentException("byteBudget should be positive: " + byteBudget);
+    }
+    myPty = pty;
+    myByteBudget = byteBudget;
+    myExecutor = executor;
+  }
+
+  /**
+   * Queues the remaining bytes of {@code data}, which must not be modified until the returned future completes.
+   *
+   * @return a future completed when all the bytes have been written to the pty, or failed with {@link IOException}
+   *         if they don't fit into the byte budget, or the pty can't be written
+   */
+  public @NotNull CompletableFuture<Void> write(@NotNull ByteBuffer data) {
+    return enqueue(data, false);
+  }
+
+  public @NotNull CompletableFuture<Void> write(@NotNull byte[] data) {
+    return enqueue(ByteBuffer.wrap(data), false);
+  }
+
+  /**
+   * Queues {@code data} in the priority lane, which isn't limited by the byte budget. Meant for a few control bytes.
+   */
+  public @NotNull CompletableFuture<Void> writePriority(@NotNull byte... data) {
+    return enqueue(ByteBuffer.wrap(data), true);
+  }
+
+  /**
+   * Writes {@link #INTR} ahead of the queued data.
+   */
+  public @NotNull CompletableFuture<Void> interrupt() {
+    return writePriority(INTR);
+  }
+
+  /**
+   * @return the number of bytes waiting to be written, including the priority lane
+   */
+  public long getQueuedBytes() {
+    synchronized (myLock) {
+      return myQueuedBytes;
+    }
+  }
+
+  /**
+   * @return the number of writes not completed yet
+   */
+  public int getQueuedCount() {
+    synchronized (myLock) {
+      return myPriorityQueue.size() + myBulkQueue.size();
+    }
+  }
+
+  public long getWrittenBytes() {
+    synchronized (myLock) {
+      return myWrittenBytes;
+    }
+  }
+
+  /**
+   * @return the average number of bytes per second written while the queue was not empty, i.e. how fast the child
+   *         consumes its input when there's a backlog; 0 if nothing has been written yet
+   */
+  public double getDrainRate() {
+    synchronized (myLock) {
+      long nanos = myDrainingNanos + (myDraining ? System.nanoTime() - myDrainStartNanos : 0);
+      return nanos > 0 ? myWrittenBytes * 1e9 / nanos : 0;
+    }
+  }
+
+  /**
+   * Fails all the queued writes. The pty is left open.
+   */
+  @Override
+  public void close() {
+    List<Item> pending;
+    synchronized (myLock) {
+      if (myClosed) return;
+      myClosed = true;
+      pending = removeAll();
+      if (myWakeUpFD != -1) {
+        JTermios.write(myWakeUpFD, new byte[1], 1);
+      }
+    }
+    fail(pending, new IOException("Pty input writer is closed"));
+  }
+
+  private @NotNull CompletableFuture<Void> enqueue(@NotNull ByteBuffer data, boolean priority) {
+    Item item = new Item(data, priority);
+    boolean startDraining;
+    synchronized (myLock) {
+      if (myClosed) {
+        return CompletableFuture.failedFuture(new IOException("Pty input writer is closed"));
+      }
+      long size = data.remaining();
+      long bulkBytes = myQueuedBytes - myQueuedPriorityBytes;
+      if (!priority && bulkBytes + size > myByteBudget) {
+        return CompletableFuture.failedFuture(new IOException(
+          "Pty input queue is full: " + bulkBytes + " bytes queued, " + size + " more would exceed the budget of " +
+          myByteBudget));
+      }
+      (priority ? myPriorityQueue : myBulkQueue).addLast(item);
+      myQueuedBytes += size;
+      if (priority) {
+        myQueuedPriorityBytes += size;
+      }
+      startDraining = !myDraining;
+      if (startDraining) {
+        myDraining = true;
+        myDrainStartNanos = System.nanoTime();
+      }
+    }
+    if (startDraining) {
+      try {
+        myExecutor.execute(this::drain);
+      }
+      catch (RejectedExecutionException e) {
+        List<Item> pending;
+        synchronized (myLock) {
+          stopDraining();
+          pending = removeAll();
+        }
+        fail(pending, new IOException("Cannot start writing to pty", e));
+      }
+    }
+    return item.myFuture;
+  }
+
+  private void drain() {
+    int[] wakeUpPipe = new int[2];
+    if (JTermios.pipe(wakeUpPipe) != 0) {
+      failAll(new IOException("Cannot create a pipe: errno=" + PtyHelpers.errno()));
+      return;
+    }
+    synchronized (myLock) {
+      myWakeUpFD = wakeUpPipe[1];
+    }
+    try {
+      drain(wakeUpPipe[0]);
+    }
+    finally {
+      synchronized (myLock) {
+        // unless the next drain loop has started already
+        if (myWakeUpFD == wakeUpPipe[1]) {
+          myWakeUpFD = -1;
+        }
+      }
+      JTermios.close(wakeUpPipe[0]);
+      JTermios.close(wakeUpPipe[1]);
+    }
+  }
+
+  private void drain(int wakeUpFD) {
+    Memory staging = null;
+    while (true) {
+      Item item;
+      synchronized (myLock) {
+        item = myPriorityQueue.isEmpty() ? myBulkQueue.peekFirst() : myPriorityQueue.peekFirst();
+        if (item == null || myClosed) {
+          stopDraining();
+          return;
+        }
+      }
+      ByteBuffer data = item.myData;
+      int count = Math.min(data.remaining(), SLICE_SIZE);
+      Pointer pointer;
+      if (data.isDirect()) {
+        pointer = Native.getDirectBufferPointer(data).share(data.position());
+      }
+      else {
+        if (staging == null) {
+          staging = new Memory(SLICE_SIZE);
+        }
+        ByteBuffer slice = data.duplicate();
+        slice.limit(slice.position() + count);
+        staging.getByteBuffer(0, count).put(slice);
+        pointer = staging;
+      }
+      int result;
+      try {
+        // doesn't block in the kernel, only in poll while the tty input buffer is full
+        result = myPty.writeSome(pointer, count, wakeUpFD);
+      }
+      catch (IOException e) {
+        failAll(e);
+        return;
+      }
+      if (result == 0) {
+        continue; // woken up by close()
+      }
+      SessionRecorder recorder = myPty.getRecorder();
+      if (recorder != null) {
+        ByteBuffer written = data.duplicate();
+        written.limit(written.position() + result);
+        recorder.recordInput(written);
+      }
+      data.position(data.position() + result);
+      boolean done = !data.hasRemaining();
+      synchronized (myLock) {
+        myWrittenBytes += result;
+        ArrayDeque<Item> queue = item.myPriority ? myPriorityQueue : myBulkQueue;
+        // unless failed by close() meanwhile
+        if (queue.peekFirst() == item) {
+          myQueuedBytes -= result;
+          if (item.myPriority) {
+            myQueuedPriorityBytes -= result;
+          }
+          if (done) {
+            queue.removeFirst();
+          }
+        }
+      }
+      if (done) {
+        item.myFuture.complete(null);
+      }
+    }
+  }
+
+  private void failAll(@NotNull IOException e) {
+    List<Item> pending;
+    synchronized (myLock) {
+      stopDraining();
+      pending = removeAll();
+    }
+    fail(pending, e);
+  }
+
+  /**
+   * Should be called with {@code myLock} held.
+   */
+  private void stopDraining() {
+    if (myDraining) {
+      myDraining = false;
+      myDrainingNanos += System.nanoTime() - myDrainStartNanos;
+    }
+  }
+
+  /**
+   * Should be called with {@code myLock} held.
+   */
+  private @NotNull List<Item> removeAll() {
+    List<Item> pending = new ArrayList<>(myPriorityQueue);
+    pending.addAll(myBulkQueue);
+    myPriorityQueue.clear();
+    myBulkQueue.clear();
+    myQueuedBytes = 0;
+    myQueuedPriorityBytes = 0;
+    return pending;
+  }
+
+  private static void fail(@NotNull List<Item> items, @NotNull IOException e) {
+    for (Item item : items) {
+      item.myFuture.completeExceptionally(e);
+    }
+  }
+
+  private static final class Item {
+    private final ByteBuffer myData;
+    private final boolean myPriority;
+    private final CompletableFuture<Void> myFuture = new CompletableFuture<>();
+
+    private Item(@NotNull ByteBuffer data, boolean priority) {
+      myData = data;
+      myPriority = priority;
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the output of a pty between several consumers, e.g. a renderer, a logger and a pattern matcher, without
+ * copying it for each of them and without a thread per consumer.
+ * <p>
+ * A single thread reads the output into a ring of direct buffers, the slots, allocated once. Each chunk gets the next
+ * sequence number and is published in its slot, and every {@link Subscription} consumes the chunks in order at its own
+ * pace, through read-only views of the slots. A slot is reused when all the subscriptions have consumed the chunk in
+ * it, or dropped it: with {@link OverflowPolicy#BLOCK} a lagging subscription stops the reading, and thereby the child
+ * once the tty buffer is full, while with {@link OverflowPolicy#DROP} it loses its oldest unconsumed chunks instead.
+ * A chunk being consumed is never overwritten, so the reading waits for the handler to return in any case.
+ * <p>
+ * A subscription sees the chunks published after it's created, so the subscriptions should be created before
+ * {@link #start()}. The channel must not be read by other means.
+ *
+ * @see UnixPtyProcess#newOutputBroadcaster(int, int)
+ */
+public final class PtyOutputBroadcaster implements Closeable {
+
+  public enum OverflowPolicy {
+    /**
+     * Reading waits until the subscription consumes its oldest chunk.
+     */
+    BLOCK,
+    /**
+     * The oldest chunks not consumed by the subscription are skipped.
+     */
+    DROP
+  }
+
+  /**
+   * Receives the chunks of a {@link Subscription}.
+   */
+  public interface Handler {
+    /**
+     * Called with a read-only view of the next chunk, which is valid only until the method returns.
+     */
+    void onChunk(@NotNull ByteBuffer chunk);
+  }
+
+  private final PtyChannel myChannel;
+  private final @Nullable Executor myExecutor;
+  private final ByteBuffer[] mySlots;
+  private final Object myLock = new Object();
+  // the chunk length in each slot; guarded by myLock
+  private final int[] myLengths;
+  // guarded by myLock
+  private final List<Subscription> mySubscriptions = new ArrayList<>();
+  // the number of chunks published; guarded by myLock
+  private long myPublished;
+  // guarded by myLock
+  private boolean myStarted;
+  // guarded by myLock
+  private boolean myEnded;
+  // guarded by myLock
+  private @Nullable IOException myError;
+
+  /**
+   * @param slotCount the number of chunks a subscription can lag behind before it blocks the reading or loses chunks
+   * @param slotSize  the maximum size of a chunk
+   * @param executor  runs the read loop, which occupies a thread until the output ends or the broadcaster is closed;
+   *                  {@code null} to start a dedicated daemon thread
+   */
+  public PtyOutputBroadcaster(@NotNull PtyChannel channel, int slotCount, int slotSize, @Nullable Executor executor) {
+    if (slotCount <= 0) {
+      throw new IllegalArgumentException("slotCount should be positive: " + slotCount);
+    }
+    if (slotSize <= 0) {
+      throw new IllegalArgumentException("slotSize should be positive: " + slotSize);
+    }
+    myChannel = channel;
+    myExecutor = executor;
+    mySlots = new ByteBuffer[slotCount];
+    for (int i = 0; i < slotCount; i++) {
+      mySlots[i] = ByteBuffer.allocateDirect(slotSize);
+    }
+    myLengths = new int[slotCount];
+  }
+
+  /**
+   * Creates a subscription which sees the chunks published from now on.
+   */
+  public @NotNull Subscription subscribe(@NotNull OverflowPolicy policy) {
+    Subscription subscription = new Subscription(policy);
+    synchronized (myLock) {
+      subscription.myCursor = myPublished;
+      if (!myEnded) {
+        mySubscriptions.add(subscription);
+      }
+    }
+    return subscription;
+  }
+
+  /**
+   * Starts reading the output.
+   */
+  public void start() {
+    synchronized (myLock) {
+      if (myStarted) {
+        throw new IllegalStateException("Already started");
+      }
+      myStarted = true;
+    }
+    if (myExecutor == null) {
+      Thread thread = new Thread(this::run, "PtyOutputBroadcaster");
+      thread.setDaemon(true);
+      thread.start();
+      return;
+    }
+    try {
+      myExecutor.execute(this::run);
+    }
+    catch (RejectedExecutionException e) {
+      end(new IOException("Cannot start reading pty output", e));
+    }
+  }
+
+  /**
+   * Stops reading once the pending read returns. The subscriptions get the chunks published so far.
+   * The channel is left open.
+   */
+  @Override
+  public void close() {
+    end(null);
+  }
+
+  /**
+   * @return the error that ended the output, or {@code null} if it ended normally or hasn't ended yet
+   */
+  public @Nullable IOException getError() {
+    synchronized (myLock) {
+      return myError;
+    }
+  }
+
+  public long getPublishedCount() {
+    synchronized (myLock) {
+      return myPublished;
+    }
+  }
+
+  private void run() {
+    long sequence = 0;
+    while (true) {
+      try {
+        if (!awaitFreeSlot(sequence)) return;
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        end(new IOException("Interrupted", e));
+        return;
+      }
+      int slot = (int)(sequence % mySlots.length);
+      ByteBuffer buffer = mySlots[slot];
+      buffer.clear();
+      int count;
+      try {
+        count = myChannel.read(buffer);
+      }
+      catch (IOException e) {
+        end(e);
+        return;
+      }
+      if (count < 0) {
+        end(null);
+        return;
+      }
+      if (count == 0) continue;
+      synchronized (myLock) {
+        myLengths[slot] = count;
+        myPublished = ++sequence;
+        myLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Waits until the chunk in the slot of {@code sequence} is consumed or dropped by all the subscriptions.
+   *
+   * @return false if the broadcaster has ended
+   */
+  private boolean awaitFreeSlot(long sequence) throws InterruptedException {
+    long previous = sequence - mySlots.length;
+    synchronized (myLock) {
+      while (!myEnded && previous >= 0 && isInUse(previous)) {
+        myLock.wait();
+      }
+      return !myEnded;
+    }
+  }
+
+  /**
+   * Should be called with {@code myLock} held. Drops {@code sequence} and the older chunks for the subscriptions
+   * which allow it.
+   */
+  private boolean isInUse(long sequence) {
+    boolean inUse = false;
+    for (Subscription subscription : mySubscriptions) {
+      if (subscription.myCursor > sequence) continue;
+      if (subscription.myPolicy == OverflowPolicy.BLOCK || subscription.myConsuming == sequence) {
+        inUse = true;
+      }
+      else {
+        subscription.myDropped += sequence + 1 - subscription.myCursor;
+        subscription.myCursor = sequence + 1;
+      }
+    }
+    return inUse;
+  }
+
+  private void end(@Nullable IOException error) {
+    synchronized (myLock) {
+      if (myEnded) return;
+      myEnded = true;
+      myError = error;
+      myLock.notifyAll();
+    }
+  }
+
+  /**
+   * The position of a consumer in the output. A subscription should be consumed by one thread at a time.
+   */
+  public final class Subscription implements Closeable {
+    private final OverflowPolicy myPolicy;
+    private final ByteBuffer[] myViews;
+    // the sequence of the next chunk to consume; guarded by myLock
+    private long myCursor;
+    // the sequence of the chunk passed to the handler, or -1; guarded by myLock
+    private long myConsuming = -1;
+    // guarded by myLock
+    private long myDropped;
+
+    private Subscription(@NotNull OverflowPolicy policy) {
+      myPolicy = policy;
+      myViews = new ByteBuffer[mySlots.length];
+      for (int i = 0; i < mySlots.length; i++) {
+        myViews[i] = mySlots[i].asReadOnlyBuffer();
+      }
+    }
+
+    /**
+     * Passes the next chunk to {@code handler}, waiting up to {@code timeout} for it to be published.
+     *
+     * @return false if no chunk has been published within the timeout, or the output has ended and all the chunks
+     *         have been consumed, see {@link #isEnded()}
+     */
+    public boolean consume(@NotNull Handler handler, long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+      long sequence;
+      int length;
+      synchronized (myLock) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (myCursor >= myPublished && !myEnded) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) break;
+          TimeUnit.NANOSECONDS.timedWait(myLock, remaining);
+        }
+        if (myCursor >= myPublished) return false;
+        sequence = myCursor;
+        length = myLengths[(int)(sequence % mySlots.length)];
+        myConsuming = sequence;
+      }
+      try {
+        ByteBuffer view = myViews[(int)(sequence % mySlots.length)];
+        view.clear().limit(length);
+        handler.onChunk(view);
+      }
+      finally {
+        synchronized (myLock) {
+          myConsuming = -1;
+          if (myCursor == sequence) {
+            myCursor = sequence + 1;
+          }
+          myLock.notifyAll();
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the output has ended and all the chunks have been consumed or dropped
+     */
+    public boolean isEnded() {
+      synchronized (myLock) {
+        return myEnded && myCursor >= myPublished;
+      }
+    }
+
+    /**
+     * @return the number of published chunks not consumed yet
+     */
+    public long getLag() {
+      synchronized (myLock) {
+        return myPublished - myCursor;
+      }
+    }
+
+    /**
+     * @return the number of chunks skipped because of {@link OverflowPolicy#DROP}
+     */
+    public long getDroppedCount() {
+      synchronized (myLock) {
+        return myDropped;
+      }
+    }
+
+    /**
+     * Stops holding up the reading. The subscription must not be consumed afterwards.
+     */
+    @Override
+    public void close() {
+      synchronized (myLock) {
+        mySubscriptions.remove(this);
+        myLock.notifyAll();
+      }
+    }
+  }
+}
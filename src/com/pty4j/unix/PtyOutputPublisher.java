@@ -0,0 +1,198 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.ByteBufferPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link Flow.Publisher} of the output of a pty, which is read only as fast as the subscriber requests it.
+ * <p>
+ * Nothing is read while the subscriber has no outstanding demand. The output stays in the tty buffer meanwhile, and
+ * once it's full, the child blocks in write: a slow subscriber throttles the child instead of its output being buffered
+ * in memory without a bound.
+ * <p>
+ * Every chunk is read into a buffer taken from a {@link ByteBufferPool} and released back to the pool right after
+ * {@link Flow.Subscriber#onNext} returns, so a subscriber has to consume or copy the chunk in {@code onNext} and must
+ * not keep the buffer.
+ * <p>
+ * The output can be read only once, so a publisher accepts a single subscriber, and the channel must not be read by
+ * other means while subscribed. The chunks are read and delivered by one thread, which blocks in the read while the
+ * child is silent. A cancellation takes effect once the pending read returns, and the chunk it returned is discarded.
+ * Interrupting the thread closes the channel, see {@link PtyChannel}.
+ *
+ * @see UnixPtyProcess#getOutputPublisher()
+ */
+public final class PtyOutputPublisher implements Flow.Publisher<ByteBuffer> {
+  private static final Logger LOG = LoggerFactory.getLogger(PtyOutputPublisher.class);
+
+  private final PtyChannel myChannel;
+  private final ByteBufferPool myBufferPool;
+  private final @Nullable Executor myExecutor;
+  private final AtomicBoolean mySubscribed = new AtomicBoolean();
+
+  public PtyOutputPublisher(@NotNull PtyChannel channel) {
+    this(channel, ByteBufferPool.getDefault(), null);
+  }
+
+  /**
+   * @param executor runs the read loop of the subscription, which occupies a thread until the output ends or the
+   *                 subscription is cancelled; {@code null} to start a dedicated daemon thread
+   */
+  public PtyOutputPublisher(@NotNull PtyChannel channel, @NotNull ByteBufferPool bufferPool, @Nullable Executor executor) {
+    myChannel = channel;
+    myBufferPool = bufferPool;
+    myExecutor = executor;
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    Objects.requireNonNull(subscriber);
+    if (!mySubscribed.compareAndSet(false, true)) {
+      Subscription rejected = new Subscription(subscriber);
+      rejected.markDone();
+      subscriber.onSubscribe(rejected);
+      subscriber.onError(new IllegalStateException("Pty output can be published to a single subscriber only"));
+      return;
+    }
+    Subscription subscription = new Subscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    if (myExecutor == null) {
+      Thread thread = new Thread(subscription::run, "PtyOutputPublisher");
+      thread.setDaemon(true);
+      thread.start();
+      return;
+    }
+    try {
+      myExecutor.execute(subscription::run);
+    }
+    catch (RejectedExecutionException e) {
+      if (subscription.markDone()) {
+        subscriber.onError(e);
+      }
+    }
+  }
+
+  private final class Subscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super ByteBuffer> mySubscriber;
+    private final Object myLock = new Object();
+    // guarded by myLock
+    private long myDemand;
+    // guarded by myLock
+    private boolean myCancelled;
+    // guarded by myLock
+    private @Nullable Throwable myRequestError;
+
+    private Subscription(@NotNull Flow.Subscriber<? super ByteBuffer> subscriber) {
+      mySubscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      synchronized (myLock) {
+        if (myCancelled) return;
+        if (n <= 0) {
+          myRequestError = new IllegalArgumentException("Requested a non-positive number of chunks: " + n);
+        }
+        else {
+          myDemand += n;
+          if (myDemand < 0) {
+            myDemand = Long.MAX_VALUE; // unbounded
+          }
+        }
+        myLock.notifyAll();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      markDone();
+    }
+
+    /**
+     * @return true if this call has ended the subscription, so it's the one to signal the subscriber
+     */
+    private boolean markDone() {
+      synchronized (myLock) {
+        if (myCancelled) return false;
+        myCancelled = true;
+        myLock.notifyAll();
+        return true;
+      }
+    }
+
+    private void run() {
+      while (true) {
+        Throwable requestError;
+        synchronized (myLock) {
+          try {
+            while (myDemand == 0 && !myCancelled && myRequestError == null) {
+              myLock.wait();
+            }
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            myRequestError = e;
+          }
+          if (myCancelled) return;
+          requestError = myRequestError;
+          if (requestError != null) {
+            myCancelled = true;
+          }
+        }
+        if (requestError != null) {
+          mySubscriber.onError(requestError);
+          return;
+        }
+
+        ByteBuffer buffer = myBufferPool.acquire();
+        try {
+          int count;
+          try {
+            count = myChannel.read(buffer);
+          }
+          catch (IOException e) {
+            if (markDone()) {
+              mySubscriber.onError(e);
+            }
+            return;
+          }
+          if (count < 0) {
+            if (markDone()) {
+              mySubscriber.onComplete();
+            }
+            return;
+          }
+          synchronized (myLock) {
+            if (myCancelled) return;
+            if (myDemand != Long.MAX_VALUE) {
+              myDemand--;
+            }
+          }
+          buffer.flip();
+          try {
+            mySubscriber.onNext(buffer);
+          }
+          catch (Throwable t) {
+            // the subscriber violated the contract, see rule 2.13 of the Reactive Streams specification
+            LOG.error("Pty output subscriber failed in onNext, cancelling the subscription", t);
+            markDone();
+            return;
+          }
+        }
+        finally {
+          myBufferPool.release(buffer);
+        }
+      }
+    }
+  }
+}
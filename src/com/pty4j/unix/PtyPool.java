@@ -0,0 +1,194 @@
+package com.pty4j.unix;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a bounded number of ready {@link Pty} instances, so that opening the master, granting and unlocking the slave,
+ * looking up its name and creating the wake up pipe are off the critical path of a spawn.
+ * <p>
+ * The pool is refilled by a background thread up to its size. When no pty has been acquired for the idle timeout,
+ * all the idle ptys are closed and refilling stops until the next {@link #acquire()}, so an unused pool doesn't pin
+ * kernel ptys. An acquire from an empty pool creates a pty on the calling thread.
+ *
+ * @see com.pty4j.PtyProcessBuilder#setUnixPtyPool(PtyPool)
+ */
+public final class PtyPool implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(PtyPool.class);
+
+  private static final long REFILL_RETRY_DELAY_MILLIS = 1000;
+
+  private final int mySize;
+  private final long myIdleTimeoutNanos;
+  private final Object myLock = new Object();
+  // guarded by myLock
+  private final ArrayDeque<Pty> myIdle = new ArrayDeque<>();
+  // guarded by myLock
+  private long myLastAcquireNanos;
+  // guarded by myLock
+  private boolean myClosed;
+  private final AtomicLong myHitCount = new AtomicLong();
+  private final AtomicLong myMissCount = new AtomicLong();
+
+  public PtyPool(int size) {
+    this(size, 5, TimeUnit.MINUTES);
+  }
+
+  /**
+   * @param size        the maximum number of idle ptys
+   * @param idleTimeout the time without {@link #acquire()} after which the idle ptys are closed
+   */
+  public PtyPool(int size, long idleTimeout, @NotNull TimeUnit unit) {
+    if (size <= 0) {
+      throw new IllegalArgumentException("size should be positive: " + size);
+    }
+    mySize = size;
+    myIdleTimeoutNanos = unit.toNanos(idleTimeout);
+    myLastAcquireNanos = System.nanoTime();
+    Thread refillThread = new Thread(this::refill, "PtyPool refill");
+    refillThread.setDaemon(true);
+    refillThread.start();
+  }
+
+  /**
+   * Takes a ready pty from the pool, or creates a new one if the pool is empty. The caller owns the returned pty.
+   */
+  public @NotNull Pty acquire() throws IOException {
+    Pty pty;
+    synchronized (myLock) {
+      if (myClosed) {
+        throw new IOException("Pty pool is closed");
+      }
+      myLastAcquireNanos = System.nanoTime();
+      pty = myIdle.pollFirst();
+      myLock.notifyAll();
+    }
+    if (pty != null) {
+      myHitCount.incrementAndGet();
+      return pty;
+    }
+    myMissCount.incrementAndGet();
+    return new Pty();
+  }
+
+  public int getIdleCount() {
+    synchronized (myLock) {
+      return myIdle.size();
+    }
+  }
+
+  /**
+   * @return the number of {@link #acquire()} calls served by a ready pty
+   */
+  public long getHitCount() {
+    return myHitCount.get();
+  }
+
+  /**
+   * @return the number of {@link #acquire()} calls that had to create a pty
+   */
+  public long getMissCount() {
+    return myMissCount.get();
+  }
+
+  /**
+   * Stops refilling and closes all the idle ptys. The acquired ptys are left open.
+   */
+  @Override
+  public void close() {
+    List<Pty> idle;
+    synchronized (myLock) {
+      if (myClosed) return;
+      myClosed = true;
+      idle = evictIdle();
+      myLock.notifyAll();
+    }
+    closeAll(idle);
+  }
+
+  private void refill() {
+    while (true) {
+      List<Pty> evicted = null;
+      synchronized (myLock) {
+        while (!myClosed) {
+          long idleNanos = System.nanoTime() - myLastAcquireNanos;
+          if (idleNanos >= myIdleTimeoutNanos) {
+            if (!myIdle.isEmpty()) {
+              evicted = evictIdle();
+              break;
+            }
+            waitQuietly(0); // until the next acquire
+          }
+          else if (myIdle.size() < mySize) {
+            break;
+          }
+          else {
+            waitQuietly(Math.max(1, TimeUnit.NANOSECONDS.toMillis(myIdleTimeoutNanos - idleNanos)));
+          }
+        }
+        if (myClosed) return;
+      }
+      if (evicted != null) {
+        closeAll(evicted);
+        continue;
+      }
+
+      Pty pty;
+      try {
+        pty = new Pty();
+      }
+      catch (IOException e) {
+        LOG.warn("Cannot create a pty for the pool", e);
+        synchronized (myLock) {
+          waitQuietly(REFILL_RETRY_DELAY_MILLIS);
+        }
+        continue;
+      }
+      boolean added;
+      synchronized (myLock) {
+        added = !myClosed && myIdle.size() < mySize;
+        if (added) {
+          myIdle.addLast(pty);
+        }
+      }
+      if (!added) {
+        closeAll(List.of(pty));
+      }
+    }
+  }
+
+  private @NotNull List<Pty> evictIdle() {
+    List<Pty> idle = new ArrayList<>(myIdle);
+    myIdle.clear();
+    return idle;
+  }
+
+  private void waitQuietly(long millis) {
+    try {
+      myLock.wait(millis);
+    }
+    catch (InterruptedException e) {
+      // the refill thread is never interrupted by the pool, keep serving
+    }
+  }
+
+  private static void closeAll(@NotNull List<Pty> ptys) {
+    for (Pty pty : ptys) {
+      try {
+        pty.close();
+      }
+      catch (IOException e) {
+        LOG.warn("Cannot close pooled pty " + pty.getSlaveName(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.Utf8Decoder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Reads the output of a pty as text, decoded from UTF-8 by a {@link Utf8Decoder} straight from the buffer the output is
+ * read into. Unlike an {@link java.io.InputStreamReader} over {@link PTYInputStream}, it allocates nothing per read: the
+ * text of each read is returned in the same {@link CharBuffer}.
+ * <p>
+ * The reader isn't thread-safe, and the channel must not be read by other means.
+ *
+ * @see UnixPtyProcess#newTextReader(int)
+ */
+public final class PtyTextReader {
+  private final PtyChannel myChannel;
+  private final Utf8Decoder myDecoder = new Utf8Decoder();
+  private final ByteBuffer myBytes;
+  private final CharBuffer myChars;
+  private boolean myEof;
+
+  /**
+   * @param bufferSize the maximum number of bytes read at once
+   */
+  public PtyTextReader(@NotNull PtyChannel channel, int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize should be positive: " + bufferSize);
+    }
+    myChannel = channel;
+    myBytes = ByteBuffer.allocateDirect(bufferSize);
+    // a byte completing a supplementary character kept in the decoder gives two chars
+    myChars = CharBuffer.allocate(bufferSize + 1);
+  }
+
+  /**
+   * Blocks until some output is available, and decodes it. A sequence split between reads is returned with the read
+   * that completes it.
+   *
+   * @return the text, owned by the reader and valid until the next call, which may be empty if the output read so far
+   *         ends with an incomplete sequence; or {@code null} once the output has ended
+   */
+  public @Nullable CharBuffer read() throws IOException {
+    myChars.clear();
+    if (myEof) return null;
+    myBytes.clear();
+    int count = myChannel.read(myBytes);
+    if (count < 0) {
+      myEof = true;
+      myDecoder.flush(myChars);
+      return myChars.position() > 0 ? myChars.flip() : null;
+    }
+    myBytes.flip();
+    myDecoder.decode(myBytes, myChars);
+    return myChars.flip();
+  }
+}
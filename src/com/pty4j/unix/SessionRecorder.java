@@ -0,0 +1,396 @@
+package com.pty4j.unix;
+
+import com.pty4j.WinSize;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records a terminal session in the <a href="https://docs.asciinema.org/manual/asciicast/v2/">asciicast v2</a> format:
+ * the output, input and resize events, each with the time elapsed since the start of the recording, taken from
+ * {@link System#nanoTime()}.
+ * <p>
+ * The events are written to memory-mapped segment files of a fixed size, so that recording a chunk takes a single pass
+ * over its bytes, which JSON-escapes them straight into the mapping, without any intermediate buffer or system call.
+ * When a segment is full, the recording goes on in the next one, see {@link #getSegmentPath(int)}. Every segment starts
+ * with its own header, and the times in all of them are counted from the start of the recording, so the events of
+ * the segments can be concatenated. A segment is truncated to its length when it's complete, until then it's padded
+ * with zero bytes.
+ * <p>
+ * The output is expected to be UTF-8: the sequences split between chunks are joined, and the invalid bytes are recorded
+ * as U+FFFD. A failure to write a segment is logged and stops the recording, without failing the session.
+ *
+ * @see UnixPtyProcess#setRecorder(SessionRecorder)
+ */
+public final class SessionRecorder implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SessionRecorder.class);
+
+  private static final int MIN_SEGMENT_SIZE = 4096;
+  // '[', up to 19 digits of seconds, '.', 6 digits of microseconds, ", \"o\", \""
+  private static final int MAX_EVENT_HEAD_SIZE = 1 + 19 + 1 + 6 + 7;
+  // "\"]\n"
+  private static final int EVENT_TAIL_SIZE = 3;
+  private static final byte[] REPLACEMENT_CHARACTER = {(byte)0xEF, (byte)0xBF, (byte)0xBD};
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private final Path myPath;
+  private final int mySegmentSize;
+  private final long myStartNanos = System.nanoTime();
+  private final long myStartEpochSeconds = System.currentTimeMillis() / 1000;
+  private final Object myLock = new Object();
+  // the bytes of an incomplete UTF-8 sequence at the end of the last chunk of each kind; guarded by myLock
+  private final Carry myOutputCarry = new Carry();
+  private final Carry myInputCarry = new Carry();
+  // guarded by myLock
+  private @Nullable FileChannel myChannel;
+  // guarded by myLock
+  private @Nullable MappedByteBuffer mySegment;
+  // guarded by myLock
+  private int mySegmentIndex = -1;
+  // guarded by myLock
+  private WinSize mySize;
+  // guarded by myLock
+  private boolean myEventOpen;
+  // guarded by myLock
+  private boolean myClosed;
+  // guarded by myLock
+  private @Nullable IOException myError;
+
+  /**
+   * Starts a recording in {@code path} and, once it's full, in the next segments.
+   *
+   * @param size        the terminal size written to the header
+   * @param segmentSize the size of a segment file, at least 4 KB
+   */
+  public SessionRecorder(@NotNull Path path, @NotNull WinSize size, int segmentSize) throws IOException {
+    if (segmentSize < MIN_SEGMENT_SIZE) {
+      throw new IllegalArgumentException("segmentSize should be at least " + MIN_SEGMENT_SIZE + ": " + segmentSize);
+    }
+    myPath = path;
+    mySegmentSize = segmentSize;
+    mySize = size;
+    synchronized (myLock) {
+      startSegment();
+    }
+  }
+
+  /**
+   * @return the path of the segment {@code index}: the path of the recording for the first one, and the same path with
+   *         {@code .<index>} inserted before the extension for the next ones, e.g. {@code session.1.cast}
+   */
+  public @NotNull Path getSegmentPath(int index) {
+    return getSegmentPath(myPath, index);
+  }
+
+  static @NotNull Path getSegmentPath(@NotNull Path path, int index) {
+    if (index == 0) return path;
+    String name = path.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    String segmentName = dot > 0 ? name.substring(0, dot) + "." + index + name.substring(dot) : name + "." + index;
+    return path.resolveSibling(segmentName);
+  }
+
+  public int getSegmentCount() {
+    synchronized (myLock) {
+      return mySegmentIndex + 1;
+    }
+  }
+
+  /**
+   * @return the failure that stopped the recording, or {@code null}
+   */
+  public @Nullable IOException getError() {
+    synchronized (myLock) {
+      return myError;
+    }
+  }
+
+  public void recordOutput(@NotNull byte[] buf, int off, int len) {
+    recordOutput(ByteBuffer.wrap(buf, off, len));
+  }
+
+  /**
+   * Records the remaining bytes of {@code src} as an output event. The position of {@code src} is not changed.
+   */
+  public void recordOutput(@NotNull ByteBuffer src) {
+    record('o', myOutputCarry, src);
+  }
+
+  public void recordInput(@NotNull byte[] buf, int off, int len) {
+    recordInput(ByteBuffer.wrap(buf, off, len));
+  }
+
+  /**
+   * Records the remaining bytes of {@code src} as an input event. The position of {@code src} is not changed.
+   */
+  public void recordInput(@NotNull ByteBuffer src) {
+    record('i', myInputCarry, src);
+  }
+
+  public void recordResize(@NotNull WinSize size) {
+    synchronized (myLock) {
+      if (myClosed || myError != null) return;
+      mySize = size;
+      try {
+        byte[] data = (size.getColumns() + "x" + size.getRows()).getBytes(StandardCharsets.US_ASCII);
+        long nanos = System.nanoTime();
+        for (byte b : data) {
+          ensureSpace('r', nanos, 1);
+          mySegment.put(b);
+        }
+        endEvent();
+      }
+      catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Completes the current segment. Nothing is recorded afterwards.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (myLock) {
+      if (myClosed) return;
+      myClosed = true;
+      if (myError == null) {
+        finishSegment();
+      }
+    }
+  }
+
+  private void record(char type, @NotNull Carry carry, @NotNull ByteBuffer src) {
+    synchronized (myLock) {
+      if (myClosed || myError != null || !src.hasRemaining()) return;
+      try {
+        encode(type, carry, System.nanoTime(), src);
+        if (myEventOpen) {
+          endEvent();
+        }
+      }
+      catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Should be called with {@code myLock} held. Writes the remaining bytes of {@code src} to the data of an event,
+   * starting one lazily, and keeps an incomplete UTF-8 sequence at the end in {@code carry}.
+   */
+  private void encode(char type, @NotNull Carry carry, long nanos, @NotNull ByteBuffer src) throws IOException {
+    int index = src.position();
+    int end = src.limit();
+    if (carry.myLength > 0) {
+      int length = getSequenceLength(carry.myBytes[0]);
+      int missing = length - carry.myLength;
+      int available = Math.min(missing, end - index);
+      if (!canContinue(carry.myBytes[0], carry.myLength, src, index, available)) {
+        putReplacementCharacter(type, nanos);
+      }
+      else if (available < missing) {
+        for (int i = 0; i < available; i++) {
+          carry.myBytes[carry.myLength++] = src.get(index + i);
+        }
+        return;
+      }
+      else {
+        ensureSpace(type, nanos, length);
+        mySegment.put(carry.myBytes, 0, carry.myLength);
+        for (int i = 0; i < missing; i++) {
+          mySegment.put(src.get(index + i));
+        }
+        index += missing;
+      }
+      carry.myLength = 0;
+    }
+    while (index < end) {
+      byte b = src.get(index);
+      if (b >= 0) {
+        putAscii(type, nanos, b);
+        index++;
+        continue;
+      }
+      int length = getSequenceLength(b);
+      int available = Math.min(length, end - index);
+      if (length == 0 || !canContinue(b, 1, src, index + 1, available - 1)) {
+        putReplacementCharacter(type, nanos);
+        index++;
+        continue;
+      }
+      if (available < length) {
+        for (int i = 0; i < available; i++) {
+          carry.myBytes[i] = src.get(index + i);
+        }
+        carry.myLength = available;
+        return;
+      }
+      ensureSpace(type, nanos, length);
+      for (int i = 0; i < length; i++) {
+        mySegment.put(src.get(index + i));
+      }
+      index += length;
+    }
+  }
+
+  private void putAscii(char type, long nanos, byte b) throws IOException {
+    byte escape;
+    switch (b) {
+      case '"': escape = '"'; break;
+      case '\\': escape = '\\'; break;
+      case '\n': escape = 'n'; break;
+      case '\r': escape = 'r'; break;
+      case '\t': escape = 't'; break;
+      case '\b': escape = 'b'; break;
+      case '\f': escape = 'f'; break;
+      default:
+        if (b >= 0x20) {
+          ensureSpace(type, nanos, 1);
+          mySegment.put(b);
+          return;
+        }
+        ensureSpace(type, nanos, 6);
+        mySegment.put((byte)'\\').put((byte)'u').put((byte)'0').put((byte)'0')
+          .put(HEX_DIGITS[b >> 4]).put(HEX_DIGITS[b & 0xF]);
+        return;
+    }
+    ensureSpace(type, nanos, 2);
+    mySegment.put((byte)'\\').put(escape);
+  }
+
+  private void putReplacementCharacter(char type, long nanos) throws IOException {
+    ensureSpace(type, nanos, REPLACEMENT_CHARACTER.length);
+    mySegment.put(REPLACEMENT_CHARACTER);
+  }
+
+  /**
+   * Should be called with {@code myLock} held. Makes sure an event of {@code type} is open and has room for
+   * {@code size} more bytes of data, continuing it in the next segment if needed.
+   */
+  private void ensureSpace(char type, long nanos, int size) throws IOException {
+    if (myEventOpen) {
+      if (mySegment.remaining() >= size + EVENT_TAIL_SIZE) return;
+      endEvent();
+    }
+    if (mySegment.remaining() < MAX_EVENT_HEAD_SIZE + size + EVENT_TAIL_SIZE) {
+      finishSegment();
+      startSegment();
+    }
+    MappedByteBuffer segment = mySegment;
+    long micros = (nanos - myStartNanos) / 1000;
+    segment.put((byte)'[');
+    putDecimal(segment, micros / 1_000_000);
+    segment.put((byte)'.');
+    long fraction = micros % 1_000_000;
+    for (long divisor = 100_000; divisor > 0; divisor /= 10) {
+      segment.put((byte)('0' + fraction / divisor % 10));
+    }
+    segment.put((byte)',').put((byte)' ').put((byte)'"').put((byte)type).put((byte)'"').put((byte)',').put((byte)' ')
+      .put((byte)'"');
+    myEventOpen = true;
+  }
+
+  private void endEvent() {
+    mySegment.put((byte)'"').put((byte)']').put((byte)'\n');
+    myEventOpen = false;
+  }
+
+  private void startSegment() throws IOException {
+    int index = mySegmentIndex + 1;
+    FileChannel channel = FileChannel.open(getSegmentPath(index), StandardOpenOption.CREATE,
+                                           StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                                           StandardOpenOption.WRITE);
+    try {
+      MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, mySegmentSize);
+      segment.put(("{\"version\": 2, \"width\": " + mySize.getColumns() + ", \"height\": " + mySize.getRows() +
+                   ", \"timestamp\": " + myStartEpochSeconds + "}\n").getBytes(StandardCharsets.US_ASCII));
+      myChannel = channel;
+      mySegment = segment;
+      mySegmentIndex = index;
+    }
+    catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void finishSegment() throws IOException {
+    FileChannel channel = myChannel;
+    if (channel == null) return;
+    myChannel = null;
+    try (channel) {
+      channel.truncate(mySegment.position());
+    }
+  }
+
+  private void fail(@NotNull IOException e) {
+    LOG.warn("Cannot record session to " + myPath + ", recording stopped", e);
+    myError = e;
+    try {
+      finishSegment();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static void putDecimal(@NotNull ByteBuffer buffer, long value) {
+    long divisor = 1;
+    while (value / divisor >= 10) {
+      divisor *= 10;
+    }
+    for (; divisor > 0; divisor /= 10) {
+      buffer.put((byte)('0' + value / divisor % 10));
+    }
+  }
+
+  /**
+   * @return the length of the UTF-8 sequence starting with {@code lead}, or 0 if it's not a lead byte
+   */
+  private static int getSequenceLength(byte lead) {
+    int b = lead & 0xFF;
+    if (b < 0x80) return 1;
+    if (b >= 0xC2 && b <= 0xDF) return 2;
+    if (b >= 0xE0 && b <= 0xEF) return 3;
+    if (b >= 0xF0 && b <= 0xF4) return 4;
+    return 0;
+  }
+
+  /**
+   * Checks that {@code count} bytes of {@code src} at {@code index} can be the bytes of the sequence of {@code lead}
+   * from its byte {@code sequenceIndex} on: they should be continuation bytes, and the second byte of the sequence
+   * should be in the range which excludes overlong encodings, surrogates and code points above U+10FFFF.
+   */
+  private static boolean canContinue(byte lead, int sequenceIndex, @NotNull ByteBuffer src, int index, int count) {
+    for (int i = 0; i < count; i++) {
+      int b = src.get(index + i) & 0xFF;
+      int min = 0x80;
+      int max = 0xBF;
+      if (sequenceIndex + i == 1) {
+        switch (lead & 0xFF) {
+          case 0xE0: min = 0xA0; break;
+          case 0xED: max = 0x9F; break;
+          case 0xF0: min = 0x90; break;
+          case 0xF4: max = 0x8F; break;
+        }
+      }
+      if (b < min || b > max) return false;
+    }
+    return true;
+  }
+
+  private static final class Carry {
+    private final byte[] myBytes = new byte[3];
+    private int myLength;
+  }
+}
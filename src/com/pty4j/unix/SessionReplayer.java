@@ -0,0 +1,478 @@
+package com.pty4j.unix;
+
+import com.pty4j.WinSize;
+import com.sun.jna.Native;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the output of a recorded session, see {@link SessionRecorder}, through a pty without a child process, so that
+ * the consumers of real output, e.g. parsers and renderers, can be benchmarked on it.
+ * <p>
+ * A recording is loaded into memory up front. Then a thread writes its output events to the slave side of a new pty,
+ * either at the recorded times or as fast as possible, and applies the resize events, while the calling thread reads
+ * the master side and passes the output to the consumer, as it would be read from a session. The {@link Report} tells
+ * the throughput, and the latency of each output event: from the start of its write until the consumer has returned
+ * from handling its last byte. At full speed, the latency includes the time spent waiting for the tty buffer to be
+ * drained by a slow consumer.
+ */
+public final class SessionReplayer {
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final String OUTPUT_EVENT = "o";
+  private static final String RESIZE_EVENT = "r";
+
+  /**
+   * Receives the replayed output.
+   */
+  public interface Handler {
+    /**
+     * Called on the replaying thread with the next chunk read from the pty, which is valid only until the method
+     * returns. The chunks don't match the recorded events: the tty can split and join them.
+     */
+    void onOutput(@NotNull ByteBuffer chunk);
+  }
+
+  private final @Nullable WinSize myInitialSize;
+  // the output of all the events, back to back
+  private final ByteBuffer myOutput;
+  // for each event: the time since the start of the recording, and either the end of its output in myOutput,
+  // or the new size for a resize event
+  private final long[] myEventNanos;
+  private final int[] myOutputEnds;
+  private final WinSize[] mySizes;
+  private final int myOutputEventCount;
+
+  private SessionReplayer(@Nullable WinSize initialSize, @NotNull ByteBuffer output, @NotNull long[] eventNanos,
+                          @NotNull int[] outputEnds, @NotNull WinSize[] sizes, int outputEventCount) {
+    myInitialSize = initialSize;
+    myOutput = output;
+    myEventNanos = eventNanos;
+    myOutputEnds = outputEnds;
+    mySizes = sizes;
+    myOutputEventCount = outputEventCount;
+  }
+
+  /**
+   * Loads the recording from {@code path} and from the next segments, as named by
+   * {@link SessionRecorder#getSegmentPath(int)}, if there are any.
+   */
+  public static @NotNull SessionReplayer load(@NotNull Path path) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    segments.add(path);
+    for (int i = 1; Files.exists(SessionRecorder.getSegmentPath(path, i)); i++) {
+      segments.add(SessionRecorder.getSegmentPath(path, i));
+    }
+    return load(segments);
+  }
+
+  /**
+   * Loads the recording from the asciicast v2 files {@code segments}, which are concatenated. The input events and
+   * the headers, except the terminal size in the first one, are ignored.
+   */
+  public static @NotNull SessionReplayer load(@NotNull List<Path> segments) throws IOException {
+    WinSize initialSize = null;
+    List<Event> events = new ArrayList<>();
+    int outputSize = 0;
+    for (Path segment : segments) {
+      List<String> lines = Files.readAllLines(segment, StandardCharsets.UTF_8);
+      for (int i = 0; i < lines.size(); i++) {
+        String line = lines.get(i).trim();
+        if (line.isEmpty()) continue;
+        if (line.startsWith("{")) {
+          if (initialSize == null && events.isEmpty()) {
+            initialSize = parseHeaderSize(line);
+          }
+          continue;
+        }
+        Event event;
+        try {
+          event = new EventParser(line).parse();
+        }
+        catch (IllegalArgumentException e) {
+          throw new IOException("Malformed event at " + segment + ":" + (i + 1) + ": " + e.getMessage(), e);
+        }
+        if (event != null) {
+          events.add(event);
+          if (event.myOutput != null) {
+            outputSize += event.myOutput.length;
+          }
+        }
+      }
+    }
+
+    ByteBuffer output = ByteBuffer.allocateDirect(outputSize);
+    long[] eventNanos = new long[events.size()];
+    int[] outputEnds = new int[events.size()];
+    WinSize[] sizes = new WinSize[events.size()];
+    int outputEventCount = 0;
+    for (int i = 0; i < events.size(); i++) {
+      Event event = events.get(i);
+      eventNanos[i] = event.myNanos;
+      if (event.myOutput != null) {
+        output.put(event.myOutput);
+        outputEventCount++;
+      }
+      else {
+        sizes[i] = event.mySize;
+      }
+      outputEnds[i] = output.position();
+    }
+    return new SessionReplayer(initialSize, output, eventNanos, outputEnds, sizes, outputEventCount);
+  }
+
+  /**
+   * @return the number of output bytes in the recording
+   */
+  public int getOutputSize() {
+    return myOutput.capacity();
+  }
+
+  public int getOutputEventCount() {
+    return myOutputEventCount;
+  }
+
+  /**
+   * Replays the recording to {@code handler}, returning when it has handled all the output.
+   *
+   * @param originalTiming true to write the events at the recorded times, false to write them as fast as the handler
+   *                       consumes the output
+   */
+  public @NotNull Report replay(@NotNull Handler handler, boolean originalTiming) throws IOException, InterruptedException {
+    Pty pty = new Pty();
+    int slaveFD = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    try {
+      if (slaveFD < 0) {
+        int errno = PtyHelpers.errno();
+        throw new UnixPtyException("Cannot open " + pty.getSlaveName() + ", errno=" + errno, errno);
+      }
+      disableOutputProcessing(slaveFD);
+      if (myInitialSize != null) {
+        pty.setWindowSize(myInitialSize, null);
+      }
+      return replay(pty, slaveFD, handler, originalTiming);
+    }
+    finally {
+      if (slaveFD >= 0) {
+        JTermios.close(slaveFD);
+      }
+      pty.close();
+    }
+  }
+
+  private @NotNull Report replay(@NotNull Pty pty, int slaveFD, @NotNull Handler handler, boolean originalTiming)
+    throws IOException, InterruptedException {
+    // the end of the output and the write start time of each output event, in order
+    BlockingQueue<long[]> written = new ArrayBlockingQueue<>(Math.max(1, myOutputEventCount));
+    long[] latencies = new long[myOutputEventCount];
+    Writer writer = new Writer(pty, slaveFD, written, originalTiming);
+    Thread writerThread = new Thread(writer, "SessionReplayer");
+    writerThread.setDaemon(true);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    int total = myOutput.capacity();
+    long read = 0;
+    int handled = 0;
+    long start = System.nanoTime();
+    writerThread.start();
+    try {
+      while (read < total) {
+        buffer.clear();
+        int count = pty.read(buffer);
+        if (count <= 0) {
+          throw new IOException("Cannot read replayed output", writer.myError);
+        }
+        read += count;
+        buffer.flip();
+        handler.onOutput(buffer);
+        long now = System.nanoTime();
+        while (handled < myOutputEventCount) {
+          long[] event = written.peek();
+          if (event == null || event[0] > read) break;
+          written.poll();
+          latencies[handled++] = now - event[1];
+        }
+      }
+    }
+    finally {
+      writer.myStopped = true;
+      writerThread.interrupt();
+      if (read < total) {
+        // the writer may be blocked in a write to the full slave, which only fails once the master is closed
+        pty.close();
+      }
+      writerThread.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    Arrays.sort(latencies, 0, handled);
+    return new Report(total, elapsed, Arrays.copyOf(latencies, handled));
+  }
+
+  private static void disableOutputProcessing(int slaveFD) throws UnixPtyException {
+    PtyHelpers.OSFacade facade = PtyHelpers.getInstance();
+    PtyHelpers.TerminalSettings settings = new PtyHelpers.TerminalSettings();
+    // the recorded output has already been processed, e.g. "\n" translated to "\r\n"
+    if (facade.tcgetattr(slaveFD, settings) != 0) {
+      int errno = PtyHelpers.errno();
+      throw new UnixPtyException("tcgetattr failed, errno=" + errno, errno);
+    }
+    settings.c_oflag &= ~JTermios.OPOST;
+    if (facade.tcsetattr(slaveFD, JTermios.TCSANOW, settings) != 0) {
+      int errno = PtyHelpers.errno();
+      throw new UnixPtyException("tcsetattr failed, errno=" + errno, errno);
+    }
+  }
+
+  private final class Writer implements Runnable {
+    private final Pty myPty;
+    private final int mySlaveFD;
+    private final BlockingQueue<long[]> myWritten;
+    private final boolean myOriginalTiming;
+    private volatile boolean myStopped;
+    private volatile @Nullable IOException myError;
+
+    private Writer(@NotNull Pty pty, int slaveFD, @NotNull BlockingQueue<long[]> written, boolean originalTiming) {
+      myPty = pty;
+      mySlaveFD = slaveFD;
+      myWritten = written;
+      myOriginalTiming = originalTiming;
+    }
+
+    @Override
+    public void run() {
+      long start = System.nanoTime();
+      int offset = 0;
+      try {
+        for (int i = 0; i < myEventNanos.length && !myStopped; i++) {
+          if (myOriginalTiming) {
+            long delay;
+            while ((delay = start + myEventNanos[i] - System.nanoTime()) > 0 && !myStopped) {
+              LockSupport.parkNanos(delay);
+            }
+          }
+          WinSize size = mySizes[i];
+          if (size != null) {
+            myPty.setWindowSize(size, null);
+            continue;
+          }
+          int end = myOutputEnds[i];
+          // before the write, so that the reader never gets the bytes first
+          myWritten.add(new long[]{end, System.nanoTime()});
+          while (offset < end && !myStopped) {
+            int result = LibC.write(mySlaveFD, Native.getDirectBufferPointer(myOutput).share(offset), end - offset);
+            if (result < 0) {
+              int errno = PtyHelpers.errno();
+              if (errno == JTermios.EINTR || errno == JTermios.EAGAIN) continue;
+              throw new UnixPtyException("Failed to write replayed output, errno=" + errno, errno);
+            }
+            offset += result;
+          }
+        }
+      }
+      catch (IOException e) {
+        if (myStopped) return;
+        myError = e;
+        // wake up the reader
+        myPty.breakRead();
+      }
+    }
+  }
+
+  /**
+   * The results of a replay.
+   */
+  public static final class Report {
+    private final long myBytes;
+    private final long myElapsedNanos;
+    private final long[] mySortedLatencies;
+
+    private Report(long bytes, long elapsedNanos, @NotNull long[] sortedLatencies) {
+      myBytes = bytes;
+      myElapsedNanos = elapsedNanos;
+      mySortedLatencies = sortedLatencies;
+    }
+
+    public long getBytes() {
+      return myBytes;
+    }
+
+    public long getElapsedNanos() {
+      return myElapsedNanos;
+    }
+
+    /**
+     * @return the output bytes handled per second, in millions
+     */
+    public double getThroughputMBps() {
+      return myElapsedNanos > 0 ? myBytes * 1e3 / myElapsedNanos : 0;
+    }
+
+    public int getChunkCount() {
+      return mySortedLatencies.length;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the latency of the output events at the percentile, in nanoseconds
+     */
+    public long getLatencyNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("percentile should be in [0, 100]: " + percentile);
+      }
+      if (mySortedLatencies.length == 0) return 0;
+      int index = (int)Math.ceil(percentile / 100 * mySortedLatencies.length) - 1;
+      return mySortedLatencies[Math.max(0, index)];
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d bytes in %.1f ms, %.1f MB/s, %d chunks, latency p50 %.1f us, p99 %.1f us, max %.1f us",
+                           myBytes, myElapsedNanos / 1e6, getThroughputMBps(), getChunkCount(),
+                           getLatencyNanos(50) / 1e3, getLatencyNanos(99) / 1e3, getLatencyNanos(100) / 1e3);
+    }
+  }
+
+  private static @Nullable WinSize parseHeaderSize(@NotNull String header) {
+    Integer width = parseHeaderInt(header, "\"width\"");
+    Integer height = parseHeaderInt(header, "\"height\"");
+    return width != null && height != null ? new WinSize(width, height) : null;
+  }
+
+  private static @Nullable Integer parseHeaderInt(@NotNull String header, @NotNull String key) {
+    int index = header.indexOf(key);
+    if (index < 0) return null;
+    index = header.indexOf(':', index + key.length());
+    if (index < 0) return null;
+    int start = index + 1;
+    while (start < header.length() && header.charAt(start) == ' ') start++;
+    int end = start;
+    while (end < header.length() && Character.isDigit(header.charAt(end))) end++;
+    return end > start ? Integer.parseInt(header.substring(start, end)) : null;
+  }
+
+  private static @NotNull WinSize parseSize(@NotNull String size) {
+    int x = size.indexOf('x');
+    try {
+      return new WinSize(Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1)));
+    }
+    catch (RuntimeException e) {
+      throw new IllegalArgumentException("Malformed size: " + size, e);
+    }
+  }
+
+  private static final class Event {
+    private final long myNanos;
+    private final @Nullable byte[] myOutput;
+    private final @Nullable WinSize mySize;
+
+    private Event(long nanos, @Nullable byte[] output, @Nullable WinSize size) {
+      myNanos = nanos;
+      myOutput = output;
+      mySize = size;
+    }
+  }
+
+  /**
+   * Parses an event line {@code [time, "type", "data"]}.
+   */
+  private static final class EventParser {
+    private final String myLine;
+    private int myIndex;
+
+    private EventParser(@NotNull String line) {
+      myLine = line;
+    }
+
+    /**
+     * @return the event, or {@code null} if it's neither an output nor a resize one
+     */
+    private @Nullable Event parse() {
+      expect('[');
+      long nanos = parseTime();
+      expect(',');
+      String type = parseString();
+      expect(',');
+      String data = parseString();
+      expect(']');
+      if (OUTPUT_EVENT.equals(type)) {
+        return new Event(nanos, data.getBytes(StandardCharsets.UTF_8), null);
+      }
+      if (RESIZE_EVENT.equals(type)) {
+        return new Event(nanos, null, parseSize(data));
+      }
+      return null;
+    }
+
+    private long parseTime() {
+      skipSpaces();
+      int start = myIndex;
+      while (myIndex < myLine.length() && "0123456789.eE+-".indexOf(myLine.charAt(myIndex)) >= 0) myIndex++;
+      try {
+        return Math.round(Double.parseDouble(myLine.substring(start, myIndex)) * 1e9);
+      }
+      catch (NumberFormatException e) {
+        throw new IllegalArgumentException("time expected at " + start);
+      }
+    }
+
+    private @NotNull String parseString() {
+      expect('"');
+      StringBuilder result = new StringBuilder();
+      while (true) {
+        char c = charAt(myIndex++);
+        if (c == '"') return result.toString();
+        if (c != '\\') {
+          result.append(c);
+          continue;
+        }
+        c = charAt(myIndex++);
+        switch (c) {
+          case 'n': result.append('\n'); break;
+          case 'r': result.append('\r'); break;
+          case 't': result.append('\t'); break;
+          case 'b': result.append('\b'); break;
+          case 'f': result.append('\f'); break;
+          case 'u':
+            if (myIndex + 4 > myLine.length()) {
+              throw new IllegalArgumentException("truncated escape at " + myIndex);
+            }
+            result.append((char)Integer.parseInt(myLine.substring(myIndex, myIndex + 4), 16));
+            myIndex += 4;
+            break;
+          default: result.append(c);
+        }
+      }
+    }
+
+    private void expect(char expected) {
+      skipSpaces();
+      if (charAt(myIndex) != expected) {
+        throw new IllegalArgumentException("'" + expected + "' expected at " + myIndex);
+      }
+      myIndex++;
+    }
+
+    private void skipSpaces() {
+      while (myIndex < myLine.length() && Character.isWhitespace(myLine.charAt(myIndex))) myIndex++;
+    }
+
+    private char charAt(int index) {
+      if (index >= myLine.length()) {
+        throw new IllegalArgumentException("unexpected end of line");
+      }
+      return myLine.charAt(index);
+    }
+  }
+}
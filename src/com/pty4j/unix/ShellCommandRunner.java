@@ -0,0 +1,355 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs commands one after another in a long-lived shell, instead of spawning a process per command.
+ * <p>
+ * Each command is evaluated by the shell with stdin redirected from {@code /dev/null}, followed by a marker: an OSC
+ * sequence with a random per-runner key, the command id and its exit status. The output up to the marker is the
+ * output of the command, stdout and stderr merged, as written by it: the tty is switched to no echo and no output
+ * processing first. As the commands share the shell, changes of its state, e.g. by {@code cd} or {@code export},
+ * apply to the following commands; a command exiting the shell fails it and all the pending ones.
+ * <p>
+ * The results are completed by the thread reading the output, so dependent actions should be quick or run
+ * asynchronously.
+ */
+public final class ShellCommandRunner implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ShellCommandRunner.class);
+
+  private static final int START_TIMEOUT_SECONDS = 30;
+  private static final int INPUT_BUDGET = 1024 * 1024;
+  private static final byte ESC = 0x1B;
+  private static final byte BEL = 0x07;
+  private static final int INCOMPLETE = 0;
+  private static final int COMPLETE = 1;
+  private static final int INVALID = 2;
+
+  private final UnixPtyProcess myProcess;
+  private final PtyInputWriter myWriter;
+  // ESC ] 6973 ; key ; which starts every marker, followed by id ; status BEL
+  private final byte[] myMarkerPrefix;
+  private final String myMarkerFormat;
+
+  private final Object myLock = new Object();
+  private final ArrayDeque<Command> myPending = new ArrayDeque<>(); // guarded by myLock
+  private long myNextId; // guarded by myLock
+  private IOException myError; // guarded by myLock
+
+  // the state of the reader thread: the output of the current command, and the bytes which may start a marker
+  private final ByteArrayOutputStream myOutput = new ByteArrayOutputStream();
+  private final byte[] myHeld;
+  private int myHeldLength;
+  private boolean myHeldStatus;
+  private int myHeldDigits;
+  private long myHeldId;
+  private int myHeldExitCode;
+
+  private ShellCommandRunner(@NotNull UnixPtyProcess process) {
+    myProcess = process;
+    myWriter = process.newInputWriter(INPUT_BUDGET);
+    byte[] key = new byte[8];
+    new SecureRandom().nextBytes(key);
+    StringBuilder hexKey = new StringBuilder();
+    for (byte b : key) {
+      hexKey.append(String.format("%02x", b));
+    }
+    myMarkerPrefix = ("\u001b]6973;" + hexKey + ";").getBytes(StandardCharsets.US_ASCII);
+    // the shell prints ESC itself, so the marker doesn't appear in the command line
+    myMarkerFormat = "\\033]6973;" + hexKey + ";%s;%s\\007";
+    myHeld = new byte[myMarkerPrefix.length + 48];
+  }
+
+  /**
+   * Starts the shell, e.g. {@code /bin/sh}, and waits until it's ready to run commands.
+   *
+   * @param builder the shell command, and its environment and directory
+   */
+  public static @NotNull ShellCommandRunner start(@NotNull PtyProcessBuilder builder)
+    throws IOException, InterruptedException {
+    UnixPtyProcess process = (UnixPtyProcess)builder.start();
+    ShellCommandRunner runner = new ShellCommandRunner(process);
+    runner.startReading();
+    // the output up to the end of this command, including the echo of the command lines typed ahead, is dropped
+    CompletableFuture<Result> setup = runner.write("PS1=''; PS2=''; unset PROMPT_COMMAND; stty -echo -icanon -onlcr; " +
+                                                   "printf '" + runner.myMarkerFormat + "' 0 \"$?\"\n");
+    try {
+      Result result = setup.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      if (result.getExitCode() != 0) {
+        throw new IOException("Cannot set up the shell: " + result.getText());
+      }
+    }
+    catch (ExecutionException e) {
+      runner.close();
+      throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+    }
+    catch (TimeoutException e) {
+      runner.close();
+      throw new IOException("The shell hasn't started in " + START_TIMEOUT_SECONDS + " seconds");
+    }
+    catch (IOException | InterruptedException e) {
+      runner.close();
+      throw e;
+    }
+    return runner;
+  }
+
+  /**
+   * Queues {@code command} to be run by the shell after the commands queued before it.
+   *
+   * @return the result, or a failure with an {@link IOException} if the shell has exited or the runner is closed
+   */
+  public @NotNull CompletableFuture<Result> run(@NotNull String command) {
+    // a single-quoted string can contain anything but a single quote, which is closed, escaped and reopened
+    String quoted = "'" + command.replace("'", "'\\''") + "'";
+    synchronized (myLock) {
+      // with 'command', a syntax error in the command fails only eval, instead of the whole line with the marker
+      return write("command eval " + quoted + " </dev/null; " +
+                   "printf '" + myMarkerFormat + "' " + myNextId + " \"$?\"\n");
+    }
+  }
+
+  /**
+   * @return the number of commands queued and not completed yet
+   */
+  public int getPendingCount() {
+    synchronized (myLock) {
+      return myPending.size();
+    }
+  }
+
+  /**
+   * @return the process id of the shell
+   */
+  public long pid() {
+    return myProcess.pid();
+  }
+
+  /**
+   * Terminates the shell, failing the pending commands.
+   */
+  @Override
+  public void close() {
+    fail(new IOException("The runner is closed"));
+    myWriter.close();
+    myProcess.destroy();
+  }
+
+  private @NotNull CompletableFuture<Result> write(@NotNull String line) {
+    synchronized (myLock) {
+      Command command = new Command(myNextId++);
+      if (myError != null) {
+        command.myResult.completeExceptionally(myError);
+        return command.myResult;
+      }
+      myPending.add(command);
+      // writes are queued in the order of the ids, as they're made under the lock
+      myWriter.write(line.getBytes(StandardCharsets.UTF_8)).whenComplete((ignored, error) -> {
+        if (error != null) {
+          // the command isn't run, its id is skipped by the next marker
+          command.myResult.completeExceptionally(error);
+        }
+      });
+      return command.myResult;
+    }
+  }
+
+  private void startReading() {
+    Thread thread = new Thread(this::read, "ShellCommandRunner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void read() {
+    PtyChannel channel = myProcess.getInputChannel();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(16 * 1024);
+    byte[] bytes = new byte[buffer.capacity()];
+    IOException error;
+    try {
+      while (true) {
+        buffer.clear();
+        if (channel.read(buffer) < 0) {
+          error = new IOException("The shell has exited");
+          break;
+        }
+        int length = buffer.flip().remaining();
+        buffer.get(bytes, 0, length);
+        scan(bytes, length);
+      }
+    }
+    catch (IOException e) {
+      error = e;
+    }
+    LOG.debug("Shell output has ended", error);
+    fail(error);
+  }
+
+  /**
+   * Splits the output into the outputs of the commands at the markers.
+   */
+  private void scan(@NotNull byte[] bytes, int length) {
+    int plainStart = 0;
+    for (int i = 0; i < length; i++) {
+      byte b = bytes[i];
+      if (myHeldLength == 0) {
+        if (b != ESC) continue;
+        myOutput.write(bytes, plainStart, i - plainStart);
+      }
+      myHeld[myHeldLength++] = b;
+      int verdict = checkHeld(b);
+      if (verdict == COMPLETE) {
+        long id = myHeldId;
+        int exitCode = myHeldExitCode;
+        resetHeld();
+        complete(id, exitCode);
+      }
+      else if (verdict == INVALID) {
+        // not a marker after all: the held bytes are output, except for an ESC which may start a marker
+        if (b == ESC && myHeldLength > 1) {
+          myOutput.write(myHeld, 0, myHeldLength - 1);
+          resetHeld();
+          myHeld[myHeldLength++] = ESC;
+        }
+        else {
+          myOutput.write(myHeld, 0, myHeldLength);
+          resetHeld();
+        }
+      }
+      plainStart = i + 1;
+    }
+    if (myHeldLength == 0) {
+      myOutput.write(bytes, plainStart, length - plainStart);
+    }
+  }
+
+  /**
+   * Checks the byte just added to the held ones, which are a valid beginning of a marker so far.
+   */
+  private int checkHeld(byte b) {
+    int index = myHeldLength - 1;
+    if (index < myMarkerPrefix.length) {
+      return b == myMarkerPrefix[index] ? INCOMPLETE : INVALID;
+    }
+    if (b >= '0' && b <= '9') {
+      if (++myHeldDigits > 18) return INVALID;
+      if (myHeldStatus) {
+        myHeldExitCode = myHeldExitCode * 10 + (b - '0');
+      }
+      else {
+        myHeldId = myHeldId * 10 + (b - '0');
+      }
+      return INCOMPLETE;
+    }
+    if (b == ';' && !myHeldStatus && myHeldDigits > 0) {
+      myHeldStatus = true;
+      myHeldDigits = 0;
+      return INCOMPLETE;
+    }
+    return b == BEL && myHeldStatus && myHeldDigits > 0 ? COMPLETE : INVALID;
+  }
+
+  private void resetHeld() {
+    myHeldLength = 0;
+    myHeldStatus = false;
+    myHeldDigits = 0;
+    myHeldId = 0;
+    myHeldExitCode = 0;
+  }
+
+  private void complete(long id, int exitCode) {
+    byte[] output = myOutput.toByteArray();
+    myOutput.reset();
+    Command command;
+    synchronized (myLock) {
+      // the commands which failed to be written have no markers
+      while ((command = myPending.peek()) != null && command.myId < id) {
+        myPending.poll().myResult.completeExceptionally(new IOException("The command hasn't been run"));
+      }
+      if (command != null && command.myId == id) {
+        myPending.poll();
+      }
+      else {
+        command = null;
+      }
+    }
+    if (command == null) {
+      LOG.warn("Unexpected marker of command " + id);
+      return;
+    }
+    command.myResult.complete(new Result(exitCode, output));
+  }
+
+  private void fail(@NotNull IOException error) {
+    ArrayDeque<Command> pending;
+    synchronized (myLock) {
+      if (myError == null) {
+        myError = error;
+      }
+      pending = new ArrayDeque<>(myPending);
+      myPending.clear();
+    }
+    for (Command command : pending) {
+      command.myResult.completeExceptionally(error);
+    }
+  }
+
+  private static final class Command {
+    private final long myId;
+    private final CompletableFuture<Result> myResult = new CompletableFuture<>();
+
+    private Command(long id) {
+      myId = id;
+    }
+  }
+
+  /**
+   * The exit status and the output of a command.
+   */
+  public static final class Result {
+    private final int myExitCode;
+    private final byte[] myOutput;
+
+    private Result(int exitCode, @NotNull byte[] output) {
+      myExitCode = exitCode;
+      myOutput = output;
+    }
+
+    public int getExitCode() {
+      return myExitCode;
+    }
+
+    /**
+     * @return the output, stdout and stderr merged
+     */
+    public @NotNull byte[] getOutput() {
+      return myOutput.clone();
+    }
+
+    /**
+     * @return the output decoded from UTF-8
+     */
+    public @NotNull String getText() {
+      return new String(myOutput, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+      return "Result{exitCode=" + myExitCode + ", output=" + getText() + "}";
+    }
+  }
+}
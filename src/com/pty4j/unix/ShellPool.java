@@ -0,0 +1,410 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A pool of started shells, each driven by a {@link ShellCommandRunner}, so that commands don't pay for the shell
+ * start-up, e.g. reading its rc files.
+ * <p>
+ * Every shell has a worker thread with its own queue of commands. A batch is split into contiguous parts, one per
+ * queue; a worker which has run out of commands takes them from the end of the longest queue, so that a shell which
+ * is slow, or is being replaced, doesn't hold the batch back. A shell is replaced after it has run the configured
+ * number of commands, when its resident memory exceeds the limit, when it fails a health check run while idle, and
+ * when it exits. A shell which fails to start is retried with a growing delay; its commands are taken by the other
+ * workers, or failed if all the shells have failed to start. As the commands share the state of their shell, they should be
+ * independent of it.
+ *
+ * @see Builder
+ */
+public final class ShellPool implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ShellPool.class);
+
+  private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 10;
+  private static final long MIN_RETRY_DELAY_MILLIS = 100;
+  private static final long MAX_RETRY_DELAY_MILLIS = 5000;
+  // returned by take() when a worker has been idle for the health check interval
+  private static final Task IDLE = new Task("");
+
+  private final PtyProcessBuilder myShell;
+  private final int myMaxCommandsPerShell;
+  private final long myMaxShellMemory;
+  private final long myHealthCheckIntervalNanos;
+  private final Worker[] myWorkers;
+
+  private final Object myLock = new Object();
+  private boolean myClosed; // guarded by myLock
+  private int myNextWorker; // guarded by myLock
+
+  private ShellPool(@NotNull Builder builder) {
+    myShell = builder.myShell;
+    myMaxCommandsPerShell = builder.myMaxCommandsPerShell;
+    myMaxShellMemory = builder.myMaxShellMemory;
+    myHealthCheckIntervalNanos = builder.myHealthCheckIntervalNanos;
+    myWorkers = new Worker[builder.mySize];
+    for (int i = 0; i < myWorkers.length; i++) {
+      myWorkers[i] = new Worker();
+    }
+    for (int i = 0; i < myWorkers.length; i++) {
+      Worker worker = myWorkers[i];
+      Thread thread = new Thread(() -> work(worker), "ShellPool worker " + (i + 1));
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * @return the number of shells
+   */
+  public int getSize() {
+    return myWorkers.length;
+  }
+
+  /**
+   * Queues {@code command} to be run by one of the shells.
+   *
+   * @return the result, or a failure with an {@link IOException} if the shell has exited or failed to start,
+   * or the pool is closed
+   */
+  public @NotNull CompletableFuture<ShellCommandRunner.Result> run(@NotNull String command) {
+    Task task = new Task(command);
+    synchronized (myLock) {
+      if (myClosed) {
+        task.myResult.completeExceptionally(new IOException("The pool is closed"));
+        return task.myResult;
+      }
+      myWorkers[myNextWorker].myTasks.add(task);
+      myNextWorker = (myNextWorker + 1) % myWorkers.length;
+      myLock.notifyAll();
+    }
+    return task.myResult;
+  }
+
+  /**
+   * Queues independent commands to be run in parallel by the shells.
+   *
+   * @return the results in the order of {@code commands}, or the first failure as in {@link #run(String)}
+   */
+  public @NotNull CompletableFuture<List<ShellCommandRunner.Result>> runAll(@NotNull List<String> commands) {
+    List<Task> tasks = new ArrayList<>(commands.size());
+    for (String command : commands) {
+      tasks.add(new Task(command));
+    }
+    synchronized (myLock) {
+      if (myClosed) {
+        return CompletableFuture.failedFuture(new IOException("The pool is closed"));
+      }
+      int from = 0;
+      for (int i = 0; i < myWorkers.length; i++) {
+        int to = (int)((long)tasks.size() * (i + 1) / myWorkers.length);
+        myWorkers[(myNextWorker + i) % myWorkers.length].myTasks.addAll(tasks.subList(from, to));
+        from = to;
+      }
+      myLock.notifyAll();
+    }
+    CompletableFuture<?>[] results = new CompletableFuture<?>[tasks.size()];
+    for (int i = 0; i < results.length; i++) {
+      results[i] = tasks.get(i).myResult;
+    }
+    return CompletableFuture.allOf(results).thenApply(ignored -> {
+      List<ShellCommandRunner.Result> list = new ArrayList<>(tasks.size());
+      for (Task task : tasks) {
+        list.add(task.myResult.join());
+      }
+      return list;
+    });
+  }
+
+  /**
+   * Terminates the shells, failing the queued and running commands.
+   */
+  @Override
+  public void close() {
+    List<Task> tasks = new ArrayList<>();
+    List<ShellCommandRunner> runners = new ArrayList<>();
+    synchronized (myLock) {
+      if (myClosed) return;
+      myClosed = true;
+      for (Worker worker : myWorkers) {
+        tasks.addAll(worker.myTasks);
+        worker.myTasks.clear();
+        if (worker.myRunner != null) {
+          runners.add(worker.myRunner);
+        }
+      }
+      myLock.notifyAll();
+    }
+    IOException error = new IOException("The pool is closed");
+    for (Task task : tasks) {
+      task.myResult.completeExceptionally(error);
+    }
+    for (ShellCommandRunner runner : runners) {
+      runner.close();
+    }
+  }
+
+  private void work(@NotNull Worker worker) {
+    ShellCommandRunner runner = null;
+    int commands = 0;
+    long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+    try {
+      while (true) {
+        if (runner == null) {
+          try {
+            runner = startShell(worker);
+            commands = 0;
+            retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+          }
+          catch (IOException e) {
+            LOG.warn("Cannot start a shell, retrying in " + retryDelayMillis + " ms", e);
+            startFailed(worker, e);
+            if (!backOff(retryDelayMillis)) return;
+            retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            continue;
+          }
+          if (runner == null) return;
+        }
+        Task task = take(worker, myHealthCheckIntervalNanos);
+        if (task == null) return;
+        if (task == IDLE) {
+          if (!isHealthy(runner)) {
+            LOG.warn("Shell " + runner.pid() + " has failed the health check, replacing it");
+            runner = retire(worker, runner);
+          }
+          continue;
+        }
+        try {
+          task.myResult.complete(runner.run(task.myCommand).get());
+        }
+        catch (ExecutionException e) {
+          task.myResult.completeExceptionally(e.getCause());
+          runner = retire(worker, runner);
+          continue;
+        }
+        if (++commands >= myMaxCommandsPerShell) {
+          runner = retire(worker, runner);
+        }
+        else if (myMaxShellMemory > 0 && readResidentMemory(runner.pid()) > myMaxShellMemory) {
+          LOG.debug("Shell " + runner.pid() + " has exceeded the memory limit, replacing it");
+          runner = retire(worker, runner);
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      LOG.debug("Shell pool worker is interrupted", e);
+    }
+    finally {
+      if (runner != null) {
+        retire(worker, runner);
+      }
+    }
+  }
+
+  /**
+   * @return the started shell, or {@code null} if the pool is closed
+   */
+  private @Nullable ShellCommandRunner startShell(@NotNull Worker worker) throws IOException, InterruptedException {
+    synchronized (myLock) {
+      if (myClosed) return null;
+    }
+    ShellCommandRunner runner = ShellCommandRunner.start(myShell);
+    synchronized (myLock) {
+      if (!myClosed) {
+        worker.myRunner = runner;
+        worker.myStartFailed = false;
+        return runner;
+      }
+    }
+    runner.close();
+    return null;
+  }
+
+  /**
+   * Leaves the commands queued for {@code worker}, whose shell has failed to start, to the other workers, unless all
+   * their shells have failed to start as well: then the commands are failed, so that the callers learn about the error
+   * instead of waiting for a shell.
+   */
+  private void startFailed(@NotNull Worker worker, @NotNull IOException error) {
+    List<Task> tasks;
+    synchronized (myLock) {
+      worker.myStartFailed = true;
+      for (Worker other : myWorkers) {
+        if (!other.myStartFailed) return;
+      }
+      tasks = new ArrayList<>(worker.myTasks);
+      worker.myTasks.clear();
+    }
+    for (Task task : tasks) {
+      task.myResult.completeExceptionally(error);
+    }
+  }
+
+  /**
+   * @return false if the pool has been closed meanwhile
+   */
+  private boolean backOff(long millis) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    synchronized (myLock) {
+      long remaining;
+      while (!myClosed && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(myLock, remaining);
+      }
+      return !myClosed;
+    }
+  }
+
+  private @Nullable ShellCommandRunner retire(@NotNull Worker worker, @NotNull ShellCommandRunner runner) {
+    synchronized (myLock) {
+      worker.myRunner = null;
+    }
+    runner.close();
+    return null;
+  }
+
+  /**
+   * Takes a command from the queue of {@code worker}, or from the end of the longest queue if it's empty.
+   *
+   * @param idleTimeoutNanos the time to wait for a command before returning {@link #IDLE}
+   * @return the command, {@link #IDLE}, or {@code null} if the pool is closed
+   */
+  private @Nullable Task take(@NotNull Worker worker, long idleTimeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + idleTimeoutNanos;
+    synchronized (myLock) {
+      while (!myClosed) {
+        Task task = worker.myTasks.pollFirst();
+        if (task != null) return task;
+        Worker victim = null;
+        for (Worker other : myWorkers) {
+          if (victim == null || other.myTasks.size() > victim.myTasks.size()) {
+            victim = other;
+          }
+        }
+        if (victim != null && !victim.myTasks.isEmpty()) {
+          return victim.myTasks.pollLast();
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) return IDLE;
+        TimeUnit.NANOSECONDS.timedWait(myLock, remaining);
+      }
+      return null;
+    }
+  }
+
+  private static boolean isHealthy(@NotNull ShellCommandRunner runner) throws InterruptedException {
+    try {
+      return runner.run(":").get(HEALTH_CHECK_TIMEOUT_SECONDS, TimeUnit.SECONDS).getExitCode() == 0;
+    }
+    catch (ExecutionException | TimeoutException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the resident set size of the process in bytes, or -1 if it's unknown, e.g. there is no {@code /proc}
+   */
+  private static long readResidentMemory(long pid) {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc", Long.toString(pid), "status"))) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+        }
+      }
+    }
+    catch (IOException | NumberFormatException e) {
+      LOG.debug("Cannot read the memory usage of " + pid, e);
+    }
+    return -1;
+  }
+
+  private static final class Worker {
+    private final ArrayDeque<Task> myTasks = new ArrayDeque<>(); // guarded by myLock
+    private ShellCommandRunner myRunner; // guarded by myLock
+    private boolean myStartFailed; // guarded by myLock
+  }
+
+  private static final class Task {
+    private final String myCommand;
+    private final CompletableFuture<ShellCommandRunner.Result> myResult = new CompletableFuture<>();
+
+    private Task(@NotNull String command) {
+      myCommand = command;
+    }
+  }
+
+  /**
+   * Configures and starts a {@link ShellPool}.
+   */
+  public static final class Builder {
+    private final PtyProcessBuilder myShell;
+    private int mySize = Runtime.getRuntime().availableProcessors();
+    private int myMaxCommandsPerShell = Integer.MAX_VALUE;
+    private long myMaxShellMemory;
+    private long myHealthCheckIntervalNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * @param shell the shell command, e.g. {@code /bin/sh}, and its environment and directory
+     */
+    public Builder(@NotNull PtyProcessBuilder shell) {
+      myShell = shell;
+    }
+
+    /**
+     * @param size the number of shells, the number of available processors by default
+     */
+    public @NotNull Builder setSize(int size) {
+      if (size <= 0) throw new IllegalArgumentException("Non-positive size: " + size);
+      mySize = size;
+      return this;
+    }
+
+    /**
+     * @param maxCommands the number of commands after which a shell is replaced, no limit by default
+     */
+    public @NotNull Builder setMaxCommandsPerShell(int maxCommands) {
+      if (maxCommands <= 0) throw new IllegalArgumentException("Non-positive command limit: " + maxCommands);
+      myMaxCommandsPerShell = maxCommands;
+      return this;
+    }
+
+    /**
+     * @param maxBytes the resident memory of a shell after which it's replaced, or 0 for no limit, the default.
+     *                 Only checked where {@code /proc} is available.
+     */
+    public @NotNull Builder setMaxShellMemory(long maxBytes) {
+      if (maxBytes < 0) throw new IllegalArgumentException("Negative memory limit: " + maxBytes);
+      myMaxShellMemory = maxBytes;
+      return this;
+    }
+
+    /**
+     * @param interval the time a shell may be idle before it's checked to respond, 30 seconds by default
+     */
+    public @NotNull Builder setHealthCheckInterval(long interval, @NotNull TimeUnit unit) {
+      if (interval <= 0) throw new IllegalArgumentException("Non-positive interval: " + interval);
+      myHealthCheckIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /**
+     * Starts the pool; the shells are started in the background.
+     */
+    public @NotNull ShellPool build() {
+      return new ShellPool(this);
+    }
+  }
+}
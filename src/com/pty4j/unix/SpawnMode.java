@@ -0,0 +1,31 @@
+package com.pty4j.unix;
+
+/**
+ * How the native library creates the child process of a {@link UnixPtyProcess}.
+ */
+public enum SpawnMode {
+  /**
+   * Plain fork(). Copies the page tables of the whole JVM, so it gets slower as the heap grows, and it may fail
+   * under strict memory overcommit limits.
+   */
+  FORK(0),
+
+  /**
+   * clone(CLONE_VM | CLONE_VFORK) on Linux: the child borrows the JVM memory until execve, so the spawn cost doesn't
+   * depend on the heap size. Falls back to {@link #FORK} on other OSes and with a native library without support.
+   */
+  VFORK(1);
+
+  private final int myNativeValue;
+
+  SpawnMode(int nativeValue) {
+    myNativeValue = nativeValue;
+  }
+
+  /**
+   * @return the SPAWN_MODE_* constant from "exec_pty.h"
+   */
+  int getNativeValue() {
+    return myNativeValue;
+  }
+}
@@ -0,0 +1,167 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessOptions;
+import com.pty4j.util.PtyUtil;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.StringArray;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable template for spawning the same command many times. The command line, the environment and the working
+ * directory are encoded into native memory once, instead of converting the environment map and marshalling every
+ * string on each spawn.
+ * <p>
+ * A spawn may override a few environment variables and the working directory: only the overrides are encoded, and
+ * the pointers to the rest of the environment are copied from the encoded array, natively. A spec is safe to use from
+ * several threads at once.
+ *
+ * @see com.pty4j.PtyProcessBuilder#buildUnixSpawnSpec()
+ */
+public final class SpawnSpec {
+  private static final String PATH_VARIABLE = "PATH";
+
+  private final PtyProcessOptions myOptions;
+  private final boolean myConsoleMode;
+  private final String[] myCommand;
+  private final StringArray myArgv;
+  private final StringArray myEnvp;
+  private final int myEnvironmentSize;
+  private final String myDirectory;
+  private final Memory myEncodedDirectory;
+  // index of every variable in myEnvp by name
+  private final Map<String, Integer> myVariableIndex;
+  private final @Nullable String myPath;
+
+  private SpawnSpec(@NotNull PtyProcessOptions options, boolean consoleMode) {
+    myOptions = options;
+    myConsoleMode = consoleMode;
+    myCommand = options.getCommand().clone();
+    myArgv = new StringArray(myCommand);
+    String[] environment = PtyUtil.toStringArray(options.getEnvironment());
+    myEnvp = new StringArray(environment);
+    myEnvironmentSize = environment.length;
+    myDirectory = Objects.requireNonNullElse(options.getDirectory(), ".");
+    myEncodedDirectory = encode(myDirectory);
+    myVariableIndex = new HashMap<>();
+    for (int i = 0; i < environment.length; i++) {
+      int separator = environment[i].indexOf('=');
+      myVariableIndex.put(environment[i].substring(0, separator), i);
+    }
+    Map<String, String> variables = options.getEnvironment();
+    // the same lookup as ExecutablePathCache#resolve: an empty environment means the one of this process
+    myPath = variables.isEmpty() ? System.getenv(PATH_VARIABLE) : variables.get(PATH_VARIABLE);
+  }
+
+  public static @NotNull SpawnSpec compile(@NotNull PtyProcessOptions options, boolean consoleMode) {
+    return new SpawnSpec(options, consoleMode);
+  }
+
+  public @NotNull PtyProcessOptions getOptions() {
+    return myOptions;
+  }
+
+  public @NotNull UnixPtyProcess start() throws IOException {
+    return start(Map.of(), null);
+  }
+
+  /**
+   * Spawns the command with some of the environment variables added or replaced, and optionally in another directory.
+   *
+   * @param extraEnvironment the variables to set on top of the environment of this spec
+   * @param directory        the working directory, or {@code null} to use the one of this spec
+   */
+  public @NotNull UnixPtyProcess start(@NotNull Map<String, String> extraEnvironment,
+                                       @Nullable String directory) throws IOException {
+    if (directory == null && extraEnvironment.isEmpty()) {
+      return new UnixPtyProcess(myOptions, myConsoleMode,
+                                new Invocation(myCommand, myArgv, myEnvp, myPath, myDirectory, myEncodedDirectory,
+                                               List.of()));
+    }
+    List<Memory> natives = new ArrayList<>(extraEnvironment.size() + 2);
+    Memory encodedDirectory = myEncodedDirectory;
+    if (directory == null) {
+      directory = myDirectory;
+    }
+    else {
+      encodedDirectory = encode(directory);
+      natives.add(encodedDirectory);
+    }
+    if (extraEnvironment.isEmpty()) {
+      return new UnixPtyProcess(myOptions, myConsoleMode,
+                                new Invocation(myCommand, myArgv, myEnvp, myPath, directory, encodedDirectory, natives));
+    }
+
+    // the base strings are referenced by the new array, so it keeps them reachable as well
+    natives.add(myEnvp);
+    int appended = 0;
+    for (String name : extraEnvironment.keySet()) {
+      if (!myVariableIndex.containsKey(name)) appended++;
+    }
+    long pointerSize = Native.POINTER_SIZE;
+    Memory envp = new Memory((myEnvironmentSize + appended + 1) * pointerSize);
+    // copy the pointers to the already encoded strings from one native block to the other, the last one is NULL
+    long baseSize = myEnvironmentSize * pointerSize;
+    envp.getByteBuffer(0, baseSize).put(myEnvp.getByteBuffer(0, baseSize));
+    envp.setPointer((myEnvironmentSize + appended) * pointerSize, null);
+    String path = myPath;
+    int next = myEnvironmentSize;
+    for (Map.Entry<String, String> entry : extraEnvironment.entrySet()) {
+      Memory variable = encode(entry.getKey() + "=" + entry.getValue());
+      natives.add(variable);
+      Integer index = myVariableIndex.get(entry.getKey());
+      envp.setPointer((index != null ? index : next++) * pointerSize, variable);
+      if (PATH_VARIABLE.equals(entry.getKey())) {
+        path = entry.getValue();
+      }
+    }
+    return new UnixPtyProcess(myOptions, myConsoleMode,
+                              new Invocation(myCommand, myArgv, envp, path, directory, encodedDirectory, natives));
+  }
+
+  /**
+   * Encodes a string the same way as {@link StringArray} and JNA string arguments do.
+   */
+  private static @NotNull Memory encode(@NotNull String value) {
+    byte[] bytes = value.getBytes(Charset.forName(Native.getDefaultStringEncoding()));
+    Memory memory = new Memory(bytes.length + 1);
+    memory.write(0, bytes, 0, bytes.length);
+    memory.setByte(bytes.length, (byte)0);
+    return memory;
+  }
+
+  /**
+   * The native arguments of a single spawn. Keeps the native memory reachable until the child is created.
+   */
+  static final class Invocation {
+    final String[] myCommand;
+    final Pointer myArgv;
+    final Pointer myEnvp;
+    final @Nullable String myPath;
+    final String myDirectory;
+    final Pointer myEncodedDirectory;
+    @SuppressWarnings({"unused", "FieldCanBeLocal"})
+    private final List<Memory> myNatives;
+
+    private Invocation(@NotNull String[] command, @NotNull Pointer argv, @NotNull Pointer envp, @Nullable String path,
+                       @NotNull String directory, @NotNull Pointer encodedDirectory, @NotNull List<Memory> natives) {
+      myCommand = command;
+      myArgv = argv;
+      myEnvp = envp;
+      myPath = path;
+      myDirectory = directory;
+      myEncodedDirectory = encodedDirectory;
+      myNatives = natives;
+    }
+  }
+}
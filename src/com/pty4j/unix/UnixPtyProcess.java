@@ -12,14 +12,17 @@ import com.pty4j.PtyProcess;
 import com.pty4j.PtyProcessOptions;
 import com.pty4j.WinSize;
 import com.pty4j.util.PtyUtil;
+import com.pty4j.util.Scrollback;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.lang.ref.Reference;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements AdditionalPtyProcess {
   private static final int NOOP = 0;
@@ -35,11 +38,13 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
   private int pid = 0;
   private int myExitCode;
   private boolean isDone;
+  private final CompletableFuture<Process> myExitFuture = new CompletableFuture<>();
   private OutputStream out;
   private InputStream in;
   private InputStream err;
   private final Pty myPty;
   private final Pty myErrPty;
+  private final WinSizeCoalescer myWinSizeCoalescer;
 
   // BashSupport Pro
   private final Pty myAdditionalPty;
@@ -49,6 +54,7 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
   @Deprecated
   public UnixPtyProcess(String[] cmdarray, String[] envp, String dir, Pty pty, Pty errPty, boolean consoleMode) throws IOException {
     myConsoleMode = consoleMode;
+    myWinSizeCoalescer = new WinSizeCoalescer(this::applyWinSize, 0, TimeUnit.MILLISECONDS);
     if (dir == null) {
       dir = ".";
     }
@@ -61,20 +67,43 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     // BashSupport Pro
     myAdditionalPty = null;
 
-    execInPty(cmdarray, envp, dir, pty, errPty, /*BashSupport Pro*/null, null, null);
+    execInPty(cmdarray, envp, null, dir, pty, errPty, /*BashSupport Pro*/null, null, null, SpawnMode.FORK);
   }
 
   public UnixPtyProcess(@NotNull PtyProcessOptions options, boolean consoleMode) throws IOException {
+    this(options, consoleMode, null);
+  }
+
+  /**
+   * @param invocation the command line and environment already encoded by a {@link SpawnSpec}, which take precedence
+   *                   over the ones of {@code options}
+   */
+  UnixPtyProcess(@NotNull PtyProcessOptions options, boolean consoleMode,
+                 @Nullable SpawnSpec.Invocation invocation) throws IOException {
     myConsoleMode = consoleMode;
-    myPty = new Pty(consoleMode, options.isUnixOpenTtyToPreserveOutputAfterTermination());
-    myErrPty = options.isRedirectErrorStream() || !consoleMode ? null : new Pty();
+    myWinSizeCoalescer = new WinSizeCoalescer(this::applyWinSize, options.getUnixResizeCoalescingMillis(),
+                                              TimeUnit.MILLISECONDS);
+    PtyPool pool = options.getUnixPtyPool();
+    myPty = pool != null && !options.isUnixOpenTtyToPreserveOutputAfterTermination()
+            ? pool.acquire()
+            : new Pty(consoleMode, options.isUnixOpenTtyToPreserveOutputAfterTermination());
+    myErrPty = options.isRedirectErrorStream() || !consoleMode ? null : newPty(pool);
 
       //BashSupport Pro
-      myAdditionalPty = options.isPassAdditionalPtyFD() ? new Pty() : null;
+      myAdditionalPty = options.isPassAdditionalPtyFD() ? newPty(pool) : null;
+
+      String dir = Objects.requireNonNullElse(invocation != null ? invocation.myDirectory : options.getDirectory(), ".");
+    if (invocation != null) {
+      execInPty(invocation.myCommand, null, invocation, dir, myPty, myErrPty, /*BashSupport Pro*/myAdditionalPty,
+        options.getInitialColumns(), options.getInitialRows(), options.getUnixSpawnMode());
+      return;
+    }
+    execInPty(options.getCommand(), PtyUtil.toStringArray(options.getEnvironment()), null, dir, myPty, myErrPty, /*BashSupport Pro*/myAdditionalPty,
+      options.getInitialColumns(), options.getInitialRows(), options.getUnixSpawnMode());
+  }
 
-      String dir = Objects.requireNonNullElse(options.getDirectory(), ".");
-    execInPty(options.getCommand(), PtyUtil.toStringArray(options.getEnvironment()), dir, myPty, myErrPty, /*BashSupport Pro*/myAdditionalPty,
-      options.getInitialColumns(), options.getInitialRows());
+  private static @NotNull Pty newPty(@Nullable PtyPool pool) throws IOException {
+    return pool != null ? pool.acquire() : new Pty();
   }
 
   public Pty getPty() {
@@ -132,6 +161,120 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     return err;
   }
 
+  /**
+   * NIO counterpart of {@link #getInputStream()}. The client is responsible for closing the channel explicitly.
+   */
+  public @NotNull PtyChannel getInputChannel() {
+    return myPty.getChannel();
+  }
+
+  /**
+   * NIO counterpart of {@link #getOutputStream()}. As the process stdin and stdout share the same pty, it's the same
+   * channel as {@link #getInputChannel()}. The client is responsible for closing the channel explicitly.
+   */
+  public @NotNull PtyChannel getOutputChannel() {
+    return myPty.getChannel();
+  }
+
+  /**
+   * NIO counterpart of {@link #getErrorStream()}. The client is responsible for closing the channel explicitly.
+   *
+   * @return the channel, or {@code null} if stderr is redirected to stdout
+   */
+  public @Nullable PtyChannel getErrorChannel() {
+    return myErrPty != null ? myErrPty.getChannel() : null;
+  }
+
+  /**
+   * Reactive counterpart of {@link #getInputStream()}: the output is read only when the subscriber requests it,
+   * see {@link PtyOutputPublisher}. The same publisher is returned on each call, so it rejects a second subscriber.
+   */
+  public @NotNull PtyOutputPublisher getOutputPublisher() {
+    return myPty.getOutputPublisher();
+  }
+
+  /**
+   * Reactive counterpart of {@link #getErrorStream()}, see {@link #getOutputPublisher()}.
+   *
+   * @return the publisher, or {@code null} if stderr is redirected to stdout
+   */
+  public @Nullable PtyOutputPublisher getErrorPublisher() {
+    return myErrPty != null ? myErrPty.getOutputPublisher() : null;
+  }
+
+  /**
+   * Creates a broadcaster sharing the output between several consumers, see {@link PtyOutputBroadcaster}.
+   * It should be started once the consumers have subscribed.
+   *
+   * @param slotCount the number of chunks a subscription can lag behind
+   * @param slotSize  the maximum size of a chunk
+   */
+  public @NotNull PtyOutputBroadcaster newOutputBroadcaster(int slotCount, int slotSize) {
+    return new PtyOutputBroadcaster(getInputChannel(), slotCount, slotSize, null);
+  }
+
+  /**
+   * Creates an expect-style matcher of the output, see {@link PtyExpect}. It reads the output through a broadcaster of
+   * its own, started right away, so the output must not be read by other means until it's closed.
+   *
+   * @param windowSize the number of the latest bytes of the output which are kept for matching
+   */
+  public @NotNull PtyExpect newExpect(int windowSize) {
+    PtyOutputBroadcaster broadcaster = newOutputBroadcaster(16, 16 * 1024);
+    PtyOutputBroadcaster.Subscription subscription = broadcaster.subscribe(PtyOutputBroadcaster.OverflowPolicy.BLOCK);
+    broadcaster.start();
+    return new PtyExpect(subscription, broadcaster, windowSize);
+  }
+
+  /**
+   * Text counterpart of {@link #getInputChannel()}, decoding the output from UTF-8 without allocating per read,
+   * see {@link PtyTextReader}.
+   *
+   * @param bufferSize the maximum number of bytes read at once
+   */
+  public @NotNull PtyTextReader newTextReader(int bufferSize) {
+    return new PtyTextReader(getInputChannel(), bufferSize);
+  }
+
+  /**
+   * Asynchronous counterpart of {@link #getOutputStream()}, with a priority lane for control bytes,
+   * see {@link PtyInputWriter}. It must not be mixed with writes to the output stream.
+   *
+   * @param byteBudget the maximum number of bytes waiting to be written
+   */
+  public @NotNull PtyInputWriter newInputWriter(long byteBudget) {
+    return new PtyInputWriter(myPty, byteBudget);
+  }
+
+  /**
+   * Makes the output read from {@link #getInputStream()}, {@link #getInputChannel()}, {@link #getOutputPublisher()} or
+   * a {@link PtyEventLoop} be appended to {@code scrollback} as well, so that the consumers don't have to keep copies
+   * of it. Should be called before the output is read, otherwise the output read so far is missing in the scrollback.
+   *
+   * @param scrollback the scrollback, or {@code null} to stop appending the output
+   */
+  public void setScrollback(@Nullable Scrollback scrollback) {
+    myPty.setScrollback(scrollback);
+  }
+
+  public @Nullable Scrollback getScrollback() {
+    return myPty.getScrollback();
+  }
+
+  /**
+   * Records the output read and the input written by any means, including a {@link PtyEventLoop}, and the window
+   * size changes made by {@link #setWinSize(WinSize)}, to {@code recorder}. Should be called before the output is read.
+   *
+   * @param recorder the recorder, or {@code null} to stop recording; it's not closed by the process
+   */
+  public void setRecorder(@Nullable SessionRecorder recorder) {
+    myPty.setRecorder(recorder);
+  }
+
+  public @Nullable SessionRecorder getRecorder() {
+    return myPty.getRecorder();
+  }
+
   @Override
   public synchronized int waitFor() throws InterruptedException {
     while (!isDone) {
@@ -140,6 +283,45 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     return myExitCode;
   }
 
+  /**
+   * See java.lang.Process#waitFor (long, TimeUnit); waits on the monitor until the deadline instead of polling.
+   */
+  @Override
+  public synchronized boolean waitFor(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+    if (isDone) return true;
+    long remaining = unit.toNanos(timeout);
+    long deadline = System.nanoTime() + remaining;
+    while (!isDone) {
+      if (remaining <= 0) {
+        return false;
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      remaining = deadline - System.nanoTime();
+    }
+    return true;
+  }
+
+  /**
+   * See java.lang.Process#onExit (); completed by the shared process reaper without a waiting thread per process.
+   * Dependent actions run on the {@link CompletableFuture#defaultExecutor() default executor}, never on the reaper thread.
+   * <p>
+   * A future requested after {@link #isAlive()} has returned {@code false} is already completed. A future requested
+   * earlier is completed on the default executor, so it may be still incomplete for a moment after the exit is seen
+   * by {@link #isAlive()}, {@link #exitValue()} and {@link #waitFor()}.
+   */
+  @Override
+  public @NotNull CompletableFuture<Process> onExit() {
+    if (myExitFuture.isDone()) {
+      return CompletableFuture.completedFuture(this);
+    }
+    return myExitFuture.thenApplyAsync(process -> process);
+  }
+
+  @Override
+  public synchronized boolean isAlive() {
+    return !isDone;
+  }
+
   /**
    * See java.lang.Process#exitValue ();
    */
@@ -179,9 +361,10 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     return myConsoleMode;
   }
 
-  private void execInPty(String[] command, String[] environment, String workingDirectory, Pty pty, Pty errPty, /*BashSupport Pro*/Pty additionalPty,
+  private void execInPty(String[] command, String[] environment, @Nullable SpawnSpec.Invocation invocation, String workingDirectory, Pty pty, Pty errPty, /*BashSupport Pro*/Pty additionalPty,
                          @Nullable Integer initialColumns,
-                         @Nullable Integer initialRows) throws IOException {
+                         @Nullable Integer initialRows,
+                         @NotNull SpawnMode spawnMode) throws IOException {
     String cmd = command[0];
     SecurityManager s = System.getSecurityManager();
     if (s != null) {
@@ -199,61 +382,79 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
       final String addPtySlaveName = additionalPty == null ? null : additionalPty.getSlaveName();
       final int addPtyMasterFD = additionalPty == null ? -1 : additionalPty.getMasterFD();
 
-    // int fdm = pty.get
-    Reaper reaper = new Reaper(command, environment, workingDirectory, slaveName, masterFD, errSlaveName, errMasterFD,  myConsoleMode, /*BashSupport Pro*/ addPtySlaveName, addPtyMasterFD);
+    WinSize initialSize = null;
+    if (Boolean.getBoolean("unix.pty.init") || initialColumns != null || initialRows != null) {
+      int cols = initialColumns != null ? initialColumns : Integer.getInteger("unix.pty.cols", 80);
+      int rows = initialRows != null ? initialRows : Integer.getInteger("unix.pty.rows", 25);
+      initialSize = new WinSize(cols, rows);
+    }
 
-    reaper.setDaemon(true);
-    reaper.start();
-    // Wait until the subprocess is started or error.
+    int pid;
+    try {
+      pid = exec(command, environment, invocation, workingDirectory, slaveName, masterFD, errSlaveName, errMasterFD, myConsoleMode, /*BashSupport Pro*/ addPtySlaveName, addPtyMasterFD, spawnMode,
+                 initialSize);
+    }
+    catch (Exception e) {
+      throw new IOException("Exec_tty error:" + e.getMessage(), e);
+    }
+    if (pid == -1) {
+      throw new IOException("Exec_tty error:Unknown reason");
+    }
     synchronized (this) {
-      while (pid == 0) {
-        try {
-          wait();
-        }
-        catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-        }
-      }
-
-      boolean init = Boolean.getBoolean("unix.pty.init") || initialColumns != null || initialRows != null;
-      if (init) {
-        int cols = initialColumns != null ? initialColumns : Integer.getInteger("unix.pty.cols", 80);
-        int rows = initialRows != null ? initialRows : Integer.getInteger("unix.pty.rows", 25);
-        WinSize size = new WinSize(cols, rows);
-
-        // On OSX, there is a race condition with pty initialization
-        // If we call com.pty4j.unix.Pty.setTerminalSize(com.pty4j.WinSize) too early, we can get ENOTTY
-        for (int attempt = 0; attempt < 1000; attempt++) {
-          try {
-            myPty.setWindowSize(size, this);
-            break;
+      this.pid = pid;
+    }
+    ProcessReaper.getInstance().watch(pid, this::processExited);
+
+    if (initialSize != null) {
+      if (!PtyHelpers.getPtyExecutor().isInitialWindowSizeSupported()) {
+        synchronized (this) {
+          setInitialWindowSizeAfterSpawn(myPty, initialSize);
+          if (myErrPty != null) {
+            setInitialWindowSizeAfterSpawn(myErrPty, initialSize);
           }
-          catch (UnixPtyException e) {
-            if (e.getErrno() != ENOTTY) {
-              break;
-            }
+          // BashSupport Pro
+          if (myAdditionalPty != null) {
+            setInitialWindowSizeAfterSpawn(myAdditionalPty, initialSize);
           }
         }
+      }
+      myWinSizeCoalescer.setCurrentSize(initialSize);
+    }
+  }
 
-        // BashSupport Pro
-        if (myAdditionalPty != null) {
-          for (int attempt = 0; attempt < 1000; attempt++) {
-            try {
-              myAdditionalPty.setWindowSize(size, this);
-              break;
-            }
-            catch (UnixPtyException e) {
-              if (e.getErrno() != ENOTTY) {
-                break;
-              }
-            }
-          }
+  /**
+   * Fallback for native libraries which can't set the size in the child before the program starts.
+   */
+  private void setInitialWindowSizeAfterSpawn(@NotNull Pty pty, @NotNull WinSize size) {
+    // On OSX, there is a race condition with pty initialization
+    // If we call com.pty4j.unix.Pty.setTerminalSize(com.pty4j.WinSize) too early, we can get ENOTTY
+    for (int attempt = 0; attempt < 1000; attempt++) {
+      try {
+        pty.setWindowSize(size, this);
+        break;
+      }
+      catch (UnixPtyException e) {
+        if (e.getErrno() != ENOTTY) {
+          break;
         }
       }
     }
-    if (pid == -1) {
-      throw new IOException("Exec_tty error:" + reaper.getErrorMessage(), reaper.getException());
+  }
+
+  private void processExited(int exitCode) {
+    synchronized (this) {
+      myExitCode = exitCode;
+      // only async dependents are registered, so nothing runs on the reaper thread; completed before isDone is set,
+      // so onExit() called after isAlive() has returned false is completed already
+      myExitFuture.complete(this);
+      isDone = true;
+      notifyAll();
     }
+    myPty.breakRead();
+    if (myErrPty != null) myErrPty.breakRead();
+
+    // BashSupport Pro
+    if (myAdditionalPty != null) myAdditionalPty.breakRead();
   }
 
   /**
@@ -279,21 +480,21 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
    */
   private synchronized void closeUnusedStreams() {
     try {
-      if (null == err) {
+      if (null == err && (myErrPty == null || !myErrPty.hasChannel())) {
         getErrorStream().close();
       }
     }
     catch (IOException e) {
     }
     try {
-      if (null == in) {
+      if (null == in && !myPty.hasChannel()) {
         getInputStream().close();
       }
     }
     catch (IOException e) {
     }
     try {
-      if (null == out) {
+      if (null == out && !myPty.hasChannel()) {
         getOutputStream().close();
       }
     }
@@ -301,9 +502,10 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     }
   }
 
-  int exec(String[] cmd, String[] envp, String dirname, String slaveName, int masterFD,
+  int exec(String[] cmd, String[] envp, @Nullable SpawnSpec.Invocation invocation, String dirname, String slaveName, int masterFD,
            String errSlaveName, int errMasterFD, boolean console,
-           /*BashSupport Pro*/ String additionalPtyName, int additionalPtyMasterFD) throws IOException {
+           /*BashSupport Pro*/ String additionalPtyName, int additionalPtyMasterFD,
+           @NotNull SpawnMode spawnMode, @Nullable WinSize initialSize) throws IOException {
     int pid = -1;
 
     if (cmd == null) {
@@ -314,40 +516,70 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
       return pid;
     }
 
-    return PtyHelpers.execPty(cmd[0], cmd, envp, dirname, slaveName, masterFD, errSlaveName, errMasterFD, console, /*BashSupport Pro*/ additionalPtyName, additionalPtyMasterFD);
+    if (invocation != null) {
+      String fullPath = ExecutablePathCache.getInstance().resolveInPath(cmd[0], invocation.myPath);
+      try {
+        return PtyHelpers.execPty(fullPath, invocation.myArgv, invocation.myEnvp, invocation.myEncodedDirectory, slaveName, masterFD, errSlaveName, errMasterFD, console, /*BashSupport Pro*/ additionalPtyName, additionalPtyMasterFD, spawnMode,
+                                  initialSize);
+      }
+      finally {
+        Reference.reachabilityFence(invocation);
+      }
+    }
+
+    String fullPath = ExecutablePathCache.getInstance().resolve(cmd[0], envp);
+    return PtyHelpers.execPty(fullPath, cmd, envp, dirname, slaveName, masterFD, errSlaveName, errMasterFD, console, /*BashSupport Pro*/ additionalPtyName, additionalPtyMasterFD, spawnMode,
+                                  initialSize);
   }
 
+  /**
+   * Resizes all the ptys of the process. Sizes equal to the current one are skipped, and a burst of resizes is
+   * coalesced if the process was started with {@link com.pty4j.PtyProcessBuilder#setUnixResizeCoalescingMillis(long)}.
+   */
   @Override
   public void setWinSize(@NotNull WinSize winSize) {
     try {
-      myPty.setWindowSize(winSize, this);
+      if (myPty.isClosed()) {
+        // nothing to coalesce, fail with the ioctl error
+        applyWinSize(winSize);
+      }
+      else {
+        myWinSizeCoalescer.resize(winSize);
+      }
     }
     catch (UnixPtyException e) {
       throw new IllegalStateException(e);
     }
+  }
+
+  private void applyWinSize(@NotNull WinSize winSize) throws UnixPtyException {
+    myPty.setWindowSize(winSize, this);
     if (myErrPty != null) {
-      try {
-        myErrPty.setWindowSize(winSize, this);
-      }
-      catch (UnixPtyException e) {
-        throw new IllegalStateException(e);
-      }
+      myErrPty.setWindowSize(winSize, this);
     }
 
     // BashSupport Pro
     if (myAdditionalPty != null) {
-      try {
-        myAdditionalPty.setWindowSize(winSize, this);
-      }
-      catch (UnixPtyException e) {
-        throw new IllegalStateException(e);
-      }
+      myAdditionalPty.setWindowSize(winSize, this);
+    }
+    SessionRecorder recorder = myPty.getRecorder();
+    if (recorder != null) {
+      recorder.recordResize(winSize);
     }
   }
 
+  /**
+   * Returns the size last set by this process object, including the initial one, without an ioctl call.
+   * Changes made by others, e.g. by {@code stty} in the child, aren't seen.
+   */
   @Override
   public @NotNull WinSize getWinSize() throws IOException {
-    return myPty.getWinSize(this);
+    WinSize size = myPty.isClosed() ? null : myWinSizeCoalescer.getSize();
+    if (size == null) {
+      size = myPty.getWinSize(this);
+      myWinSizeCoalescer.setCurrentSize(size);
+    }
+    return size;
   }
 
   @Override
@@ -360,6 +592,13 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     return myAdditionalPty;
   }
 
+  /**
+   * Reactive counterpart of {@link #getAdditionalPtyInputStream()}, see {@link #getOutputPublisher()}.
+   */
+  public synchronized @Nullable PtyOutputPublisher getAdditionalPtyOutputPublisher() {
+    return myAdditionalPty != null ? myAdditionalPty.getOutputPublisher() : null;
+  }
+
   public synchronized InputStream getAdditionalPtyInputStream() {
     if (null == myAdditionalPtyIn && myAdditionalPty != null) {
       myAdditionalPtyIn = myAdditionalPty.getInputStream();
@@ -374,80 +613,7 @@ public class UnixPtyProcess extends PtyProcess /*BashSupport Pro*/implements Add
     return myAdditionalPtyOut;
   }
 
-  // Spawn a thread to handle the forking and waiting.
-  // We do it this way because on linux the SIGCHLD is send to the one thread. So do the forking and then wait in the
-  // same thread.
-  class Reaper extends Thread {
-    private String[] myCommand;
-    private String[] myEnv;
-    private String myDir;
-    private String mySlaveName;
-    private int myMasterFD;
-    private String myErrSlaveName;
-    private int myErrMasterFD;
-    private boolean myConsole;
-    volatile Throwable myException;
-
-    // BashSupport Pro
-    private int myAdditionalPtyMasterFD;
-    private String myAdditionalPtySlaveName;
-
-    public Reaper(String[] command, String[] environment, String workingDirectory, String slaveName, int masterFD, String errSlaveName,
-                  int errMasterFD, boolean console, /*BashSupport Pro*/ String additionalPtySlaveName, int additionalPtyMasterFD) {
-      super("PtyProcess Reaper for " + Arrays.toString(command));
-      myCommand = command;
-      myEnv = environment;
-      myDir = workingDirectory;
-      mySlaveName = slaveName;
-      myMasterFD = masterFD;
-      myErrSlaveName = errSlaveName;
-      myErrMasterFD = errMasterFD;
-      myConsole = console;
-      myException = null;
-      // BashSupport Pro
-      myAdditionalPtySlaveName = additionalPtySlaveName;
-      myAdditionalPtyMasterFD = additionalPtyMasterFD;
-    }
-
-    int execute(String[] cmd, String[] env, String dir) throws IOException {
-      return exec(cmd, env, dir, mySlaveName, myMasterFD, myErrSlaveName, myErrMasterFD, myConsole, /*BashSupport Pro*/myAdditionalPtySlaveName, myAdditionalPtyMasterFD);
-    }
-
-    @Override
-    public void run() {
-      try {
-        pid = execute(myCommand, myEnv, myDir);
-      }
-      catch (Exception e) {
-        pid = -1;
-        myException = e;
-      }
-      // Tell spawner that the process started.
-      synchronized (UnixPtyProcess.this) {
-        UnixPtyProcess.this.notifyAll();
-      }
-      if (pid != -1) {
-        // Sync with spawner and notify when done.
-        myExitCode = PtyHelpers.getPtyExecutor().waitForProcessExitAndGetExitCode(pid);
-        synchronized (UnixPtyProcess.this) {
-          isDone = true;
-          UnixPtyProcess.this.notifyAll();
-        }
-        myPty.breakRead();
-        if (myErrPty != null) myErrPty.breakRead();
-
-        // BashSupport Pro
-        if (myAdditionalPty != null) myAdditionalPty.breakRead();
-      }
-    }
-
-    public String getErrorMessage() {
-      return myException != null ? myException.getMessage() : "Unknown reason";
-    }
-
-    @Nullable
-    public Throwable getException() {
-      return myException;
-    }
+  public @Nullable PtyChannel getAdditionalPtyChannel() {
+    return myAdditionalPty != null ? myAdditionalPty.getChannel() : null;
   }
 }
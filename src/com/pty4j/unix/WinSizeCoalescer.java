@@ -0,0 +1,171 @@
+package com.pty4j.unix;
+
+import com.pty4j.WinSize;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses bursts of window size changes, e.g. while a window is being dragged, into few ioctl calls, and so into few
+ * SIGWINCH signals making the child redraw.
+ * <p>
+ * A size is applied at once if the previous one was applied at least the coalescing window ago. Otherwise it's
+ * postponed to the end of the window, and only the latest size requested by then is applied: the intermediate ones
+ * are dropped. A size equal to the applied one is skipped. With a zero window every changed size is applied at once.
+ * <p>
+ * Keeps the latest requested size, so that it can be reported without an ioctl call.
+ */
+final class WinSizeCoalescer {
+  private static final Logger LOG = LoggerFactory.getLogger(WinSizeCoalescer.class);
+
+  interface Target {
+    void apply(@NotNull WinSize size) throws UnixPtyException;
+  }
+
+  private static final class SchedulerHolder {
+    private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+    private static @NotNull ScheduledExecutorService createScheduler() {
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "PtyProcess WinSize coalescer");
+        thread.setDaemon(true);
+        return thread;
+      });
+      scheduler.setKeepAliveTime(10, TimeUnit.SECONDS);
+      scheduler.allowCoreThreadTimeOut(true);
+      return scheduler;
+    }
+  }
+
+  private final Target myTarget;
+  private final long myWindowNanos;
+  private final Object myLock = new Object();
+  // guarded by myLock
+  private @Nullable WinSize myRequested;
+  // guarded by myLock
+  private @Nullable WinSize myApplied;
+  // guarded by myLock
+  private long myLastApplyNanos;
+  // guarded by myLock
+  private boolean myFlushScheduled;
+  // guarded by myLock
+  private long myAppliedCount;
+  // guarded by myLock
+  private long myDroppedCount;
+  // guarded by myLock
+  private long mySkippedCount;
+
+  WinSizeCoalescer(@NotNull Target target, long window, @NotNull TimeUnit unit) {
+    myTarget = target;
+    myWindowNanos = unit.toNanos(window);
+    myLastApplyNanos = System.nanoTime() - myWindowNanos;
+  }
+
+  /**
+   * Applies the size now or at the end of the coalescing window.
+   *
+   * @throws UnixPtyException if the size was applied at once and that failed
+   */
+  void resize(@NotNull WinSize size) throws UnixPtyException {
+    synchronized (myLock) {
+      if (myFlushScheduled) {
+        // the scheduled flush applies the latest requested size
+        myDroppedCount++;
+        myRequested = size;
+        return;
+      }
+      if (size.equals(myApplied)) {
+        mySkippedCount++;
+        myRequested = size;
+        return;
+      }
+      long now = System.nanoTime();
+      long elapsed = now - myLastApplyNanos;
+      if (elapsed < myWindowNanos) {
+        myRequested = size;
+        myFlushScheduled = true;
+        SchedulerHolder.SCHEDULER.schedule(this::flush, myWindowNanos - elapsed, TimeUnit.NANOSECONDS);
+        return;
+      }
+      try {
+        applyLocked(size, now);
+      }
+      catch (UnixPtyException e) {
+        myRequested = myApplied;
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * @return the latest requested size, applied or pending, or {@code null} if none is known yet
+   */
+  @Nullable WinSize getSize() {
+    synchronized (myLock) {
+      return myRequested;
+    }
+  }
+
+  /**
+   * Remembers the size the ptys already have, e.g. set on spawn or read by an ioctl call, unless a size has been
+   * requested since.
+   */
+  void setCurrentSize(@NotNull WinSize size) {
+    synchronized (myLock) {
+      if (myRequested == null) {
+        myRequested = size;
+        myApplied = size;
+      }
+    }
+  }
+
+  long getAppliedCount() {
+    synchronized (myLock) {
+      return myAppliedCount;
+    }
+  }
+
+  long getDroppedCount() {
+    synchronized (myLock) {
+      return myDroppedCount;
+    }
+  }
+
+  long getSkippedCount() {
+    synchronized (myLock) {
+      return mySkippedCount;
+    }
+  }
+
+  private void flush() {
+    synchronized (myLock) {
+      myFlushScheduled = false;
+      WinSize size = myRequested;
+      if (size == null || size.equals(myApplied)) {
+        mySkippedCount++;
+        return;
+      }
+      try {
+        applyLocked(size, System.nanoTime());
+      }
+      catch (UnixPtyException e) {
+        // e.g. the process has terminated and its pty is closed
+        LOG.debug("Cannot apply coalesced window size " + size, e);
+        myRequested = myApplied;
+      }
+    }
+  }
+
+  private void applyLocked(@NotNull WinSize size, long now) throws UnixPtyException {
+    myTarget.apply(size);
+    myRequested = size;
+    myApplied = size;
+    myLastApplyNanos = now;
+    myAppliedCount++;
+  }
+}
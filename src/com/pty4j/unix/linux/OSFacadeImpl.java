@@ -47,7 +47,9 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
 
     int close(int fd);
 
-    String ptsname(int fd);
+    int posix_openpt(int flags);
+
+    int ptsname_r(int fd, byte[] buf, int buflen);
 
     int open(String pts_name, int o_rdwr);
 
@@ -74,6 +76,10 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
     int login_tty(int fd);
   }
 
+  private static final int O_CLOEXEC = 0x80000;
+  // "/dev/pts/" + unsigned int
+  private static final int PTSNAME_MAX = 32;
+
   private static final C_lib m_Clib = Native.loadLibrary("c", C_lib.class);
 
   private static final Linux_Util_lib m_Utillib = Native.loadLibrary("util", Linux_Util_lib.class);
@@ -122,7 +128,8 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
 
   @Override
   public int getpt() {
-    return JTermios.open("/dev/ptmx", JTermios.O_RDWR | JTermios.O_NOCTTY);
+    // atomically close-on-exec, so that the master never leaks into a process spawned concurrently by other means
+    return m_Clib.posix_openpt(JTermios.O_RDWR | JTermios.O_NOCTTY | O_CLOEXEC);
   }
 
   @Override
@@ -142,7 +149,13 @@ public class OSFacadeImpl implements PtyHelpers.OSFacade {
 
   @Override
   public String ptsname(int fd) {
-    return m_Clib.ptsname(fd);
+    byte[] buf = new byte[PTSNAME_MAX];
+    return m_Clib.ptsname_r(fd, buf, buf.length) == 0 ? Native.toString(buf) : null;
+  }
+
+  @Override
+  public boolean isPtsnameThreadSafe() {
+    return true;
   }
 
   @Override
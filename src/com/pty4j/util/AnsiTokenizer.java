@@ -0,0 +1,523 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An incremental tokenizer of terminal output into text runs, C0 controls, and ESC, CSI, OSC and DCS sequences.
+ * <p>
+ * It's the state machine of a DEC-compatible parser (see <a href="https://vt100.net/emu/dec_ansi_parser">the DEC ANSI
+ * parser</a>) driven by a transition table, adapted to UTF-8 output: bytes 0x80..0xFF are text, not C1 controls.
+ * All the state lives in the tokenizer, so output split at arbitrary byte boundaries is tokenized the same way as
+ * if it came in one chunk, and nothing is allocated after the first call. Events are delivered to a {@link Handler}
+ * and refer to the tokenizer buffers and to the input, so they're valid only until the callback returns.
+ * <p>
+ * {@link #strip} is a faster mode, which only drops the escape sequences. A tokenizer should be used in only one of
+ * the modes, and it isn't thread-safe.
+ */
+public final class AnsiTokenizer {
+  private static final int MAX_PARAMETERS = 32;
+  private static final int MAX_INTERMEDIATES = 2;
+  private static final int DEFAULT_MAX_OSC_LENGTH = 4096;
+  private static final int SCRATCH_SIZE = 8192;
+
+  private static final int GROUND = 0;
+  private static final int ESCAPE = 1;
+  private static final int ESCAPE_INTERMEDIATE = 2;
+  private static final int CSI_ENTRY = 3;
+  private static final int CSI_PARAM = 4;
+  private static final int CSI_INTERMEDIATE = 5;
+  private static final int CSI_IGNORE = 6;
+  private static final int DCS_ENTRY = 7;
+  private static final int DCS_PARAM = 8;
+  private static final int DCS_INTERMEDIATE = 9;
+  private static final int DCS_PASSTHROUGH = 10;
+  private static final int DCS_IGNORE = 11;
+  private static final int OSC_STRING = 12;
+  private static final int SOS_PM_APC_STRING = 13;
+
+  private static final int NONE = 0;
+  private static final int PRINT = 1;
+  private static final int EXECUTE = 2;
+  private static final int CLEAR = 3;
+  private static final int COLLECT = 4;
+  private static final int PARAM = 5;
+  private static final int ESC_DISPATCH = 6;
+  private static final int CSI_DISPATCH = 7;
+  private static final int HOOK = 8;
+  private static final int PUT = 9;
+  private static final int OSC_START = 10;
+  private static final int OSC_PUT = 11;
+  private static final int OSC_END = 12;
+
+  // (action << 4 | next state) for every state and input byte
+  private static final byte[] TRANSITIONS = buildTransitions();
+
+  /**
+   * Receives the events of {@link #tokenize}. All the methods do nothing by default.
+   */
+  public interface Handler {
+    /**
+     * Called with a run of printable bytes, which may end in the middle of a UTF-8 sequence.
+     */
+    default void onText(@NotNull byte[] bytes, int offset, int length) {
+    }
+
+    /**
+     * Called with a C0 control other than ESC, e.g. {@code '\n'}. CAN and SUB also cancel the sequence in progress.
+     */
+    default void onControl(int code) {
+    }
+
+    /**
+     * Called with an escape sequence which isn't a CSI, OSC or DCS one, e.g. {@code ESC ( B}, including the
+     * {@code ESC \} terminating a string.
+     */
+    default void onEscape(@NotNull Sequence sequence) {
+    }
+
+    /**
+     * Called with a control sequence, e.g. {@code ESC [ 1 ; 31 m}.
+     */
+    default void onCsi(@NotNull Sequence sequence) {
+    }
+
+    /**
+     * Called with the payload of an operating system command, e.g. {@code "0;title"} of
+     * {@code ESC ] 0 ; title BEL}, truncated to the maximum length given to the tokenizer.
+     */
+    default void onOsc(@NotNull byte[] bytes, int length, boolean truncated) {
+    }
+
+    /**
+     * Called with the parameters and the final byte of a device control string, before its data.
+     */
+    default void onDcsStart(@NotNull Sequence sequence) {
+    }
+
+    /**
+     * Called with a part of the data of a device control string.
+     */
+    default void onDcsData(@NotNull byte[] bytes, int offset, int length) {
+    }
+
+    /**
+     * Called at the end of a device control string.
+     */
+    default void onDcsEnd() {
+    }
+  }
+
+  /**
+   * The parameters, the intermediate bytes and the final byte of the sequence being dispatched.
+   */
+  public static final class Sequence {
+    private final int[] myParameters = new int[MAX_PARAMETERS];
+    private int myParameterCount;
+    // bit i is set if parameter i follows a ':' rather than a ';'
+    private long mySubParameters;
+    private final byte[] myIntermediates = new byte[MAX_INTERMEDIATES];
+    private int myIntermediateCount;
+    private int myPrivateMarker;
+    private int myFinal;
+    private boolean myOverflow;
+
+    private Sequence() {
+    }
+
+    /**
+     * @return the final byte, e.g. {@code 'm'} for SGR
+     */
+    public int getFinal() {
+      return myFinal;
+    }
+
+    /**
+     * @return one of {@code '<' '=' '>' '?'} introducing the parameters of a private sequence, or 0
+     */
+    public int getPrivateMarker() {
+      return myPrivateMarker;
+    }
+
+    public int getIntermediateCount() {
+      return myIntermediateCount;
+    }
+
+    public int getIntermediate(int index) {
+      if (index >= myIntermediateCount) {
+        throw new IndexOutOfBoundsException(index + " >= " + myIntermediateCount);
+      }
+      return myIntermediates[index];
+    }
+
+    /**
+     * @return the number of parameters, including omitted ones: 2 for {@code ESC [ ; 5 H}
+     */
+    public int getParameterCount() {
+      return myParameterCount;
+    }
+
+    /**
+     * @return the value of the parameter, capped at 65535, or {@code defaultValue} if it's omitted
+     */
+    public int getParameter(int index, int defaultValue) {
+      if (index >= myParameterCount) return defaultValue;
+      int value = myParameters[index];
+      return value < 0 ? defaultValue : value;
+    }
+
+    /**
+     * @return true if the parameter is a sub-parameter of the previous one, i.e. follows a ':' as in
+     *         {@code ESC [ 38 : 5 : 196 m}
+     */
+    public boolean isSubParameter(int index) {
+      return index < myParameterCount && (mySubParameters & (1L << index)) != 0;
+    }
+
+    /**
+     * @return true if there were more parameters or intermediate bytes than the tokenizer keeps, so the sequence
+     *         is likely to be misinterpreted
+     */
+    public boolean isOverflow() {
+      return myOverflow;
+    }
+
+    private void clear() {
+      myParameterCount = 0;
+      mySubParameters = 0;
+      myIntermediateCount = 0;
+      myPrivateMarker = 0;
+      myFinal = 0;
+      myOverflow = false;
+    }
+
+    private void collect(int b) {
+      if (b >= '<' && b <= '?') {
+        // only valid right after the introducer, otherwise the table goes to the ignore state
+        myPrivateMarker = b;
+      }
+      else if (myIntermediateCount < MAX_INTERMEDIATES) {
+        myIntermediates[myIntermediateCount++] = (byte)b;
+      }
+      else {
+        myOverflow = true;
+      }
+    }
+
+    private void param(int b) {
+      if (myParameterCount == 0) {
+        myParameters[0] = -1;
+        myParameterCount = 1;
+      }
+      if (b >= '0' && b <= '9') {
+        int value = myParameters[myParameterCount - 1];
+        myParameters[myParameterCount - 1] = Math.min((value < 0 ? 0 : value) * 10 + (b - '0'), 65535);
+      }
+      else if (myParameterCount < MAX_PARAMETERS) {
+        if (b == ':') {
+          mySubParameters |= 1L << myParameterCount;
+        }
+        myParameters[myParameterCount++] = -1;
+      }
+      else {
+        myOverflow = true;
+      }
+    }
+  }
+
+  private final Sequence mySequence = new Sequence();
+  private final byte[] myOsc;
+  private int myOscLength;
+  private boolean myOscTruncated;
+  private int myState = GROUND;
+  // a copy of a chunk of a direct source buffer, allocated on the first use
+  private byte[] myScratch;
+
+  public AnsiTokenizer() {
+    this(DEFAULT_MAX_OSC_LENGTH);
+  }
+
+  /**
+   * @param maxOscLength the maximum length of an OSC payload kept for {@link Handler#onOsc}, longer ones are truncated
+   */
+  public AnsiTokenizer(int maxOscLength) {
+    if (maxOscLength < 0) {
+      throw new IllegalArgumentException("maxOscLength should not be negative: " + maxOscLength);
+    }
+    myOsc = new byte[maxOscLength];
+  }
+
+  /**
+   * Tokenizes the next chunk of output. A sequence incomplete at the end of the chunk is completed by the next call.
+   */
+  public void tokenize(@NotNull byte[] bytes, int offset, int length, @NotNull Handler handler) {
+    int end = offset + length;
+    int state = myState;
+    int index = offset;
+    while (index < end) {
+      int b = bytes[index] & 0xFF;
+      int transition = TRANSITIONS[state << 8 | b];
+      int action = (transition & 0xFF) >>> 4;
+      int next = transition & 0x0F;
+
+      if (action == PRINT || action == PUT || action == OSC_PUT) {
+        // a run of bytes with the same transition is handled at once
+        int start = index++;
+        while (index < end && TRANSITIONS[state << 8 | (bytes[index] & 0xFF)] == transition) {
+          index++;
+        }
+        if (action == PRINT) {
+          handler.onText(bytes, start, index - start);
+        }
+        else if (action == PUT) {
+          handler.onDcsData(bytes, start, index - start);
+        }
+        else {
+          putOsc(bytes, start, index - start);
+        }
+        continue;
+      }
+
+      if (next != state) {
+        // the exit actions
+        if (state == OSC_STRING && action != OSC_END) {
+          handler.onOsc(myOsc, myOscLength, myOscTruncated);
+        }
+        else if (state == DCS_PASSTHROUGH) {
+          handler.onDcsEnd();
+        }
+      }
+      switch (action) {
+        case EXECUTE:
+          handler.onControl(b);
+          break;
+        case CLEAR:
+          mySequence.clear();
+          break;
+        case COLLECT:
+          mySequence.collect(b);
+          break;
+        case PARAM:
+          mySequence.param(b);
+          break;
+        case ESC_DISPATCH:
+          mySequence.myFinal = b;
+          handler.onEscape(mySequence);
+          break;
+        case CSI_DISPATCH:
+          mySequence.myFinal = b;
+          handler.onCsi(mySequence);
+          break;
+        case HOOK:
+          mySequence.myFinal = b;
+          handler.onDcsStart(mySequence);
+          break;
+        case OSC_START:
+          myOscLength = 0;
+          myOscTruncated = false;
+          break;
+        case OSC_END:
+          handler.onOsc(myOsc, myOscLength, myOscTruncated);
+          break;
+        default:
+          break;
+      }
+      state = next;
+      index++;
+    }
+    myState = state;
+  }
+
+  /**
+   * Tokenizes the remaining bytes of {@code src}, see {@link #tokenize(byte[], int, int, Handler)}.
+   */
+  public void tokenize(@NotNull ByteBuffer src, @NotNull Handler handler) {
+    if (src.hasArray()) {
+      tokenize(src.array(), src.arrayOffset() + src.position(), src.remaining(), handler);
+      src.position(src.limit());
+      return;
+    }
+    byte[] scratch = getScratch();
+    while (src.hasRemaining()) {
+      int count = Math.min(src.remaining(), SCRATCH_SIZE);
+      src.get(scratch, 0, count);
+      tokenize(scratch, 0, count, handler);
+    }
+  }
+
+  /**
+   * Copies the next chunk of output to {@code dst} as plain text: the text and the {@code '\t'}, {@code '\n'} and
+   * {@code '\r'} controls are kept, while the other controls and all the escape sequences, including their payload,
+   * are dropped. The text is never longer than the chunk.
+   *
+   * @return the length of the text
+   */
+  public int strip(@NotNull byte[] src, int offset, int length, @NotNull byte[] dst, int dstOffset) {
+    if (dst.length - dstOffset < length) {
+      // checked upfront, so that the state isn't left half-updated
+      throw new BufferOverflowException();
+    }
+    int end = offset + length;
+    int state = myState;
+    int index = offset;
+    int dstIndex = dstOffset;
+    while (index < end) {
+      if (state == GROUND) {
+        // text fast path: everything but the C0 controls and DEL is text
+        int start = index;
+        int b;
+        while (index < end && ((b = src[index]) >= 0x20 && b != 0x7F || b < 0)) {
+          index++;
+        }
+        System.arraycopy(src, start, dst, dstIndex, index - start);
+        dstIndex += index - start;
+        if (index == end) break;
+      }
+      int b = src[index++] & 0xFF;
+      int transition = TRANSITIONS[state << 8 | b];
+      if ((transition & 0xFF) >>> 4 == EXECUTE && (b == '\t' || b == '\n' || b == '\r')) {
+        dst[dstIndex++] = (byte)b;
+      }
+      state = transition & 0x0F;
+    }
+    myState = state;
+    return dstIndex - dstOffset;
+  }
+
+  /**
+   * Copies the remaining bytes of {@code src} to {@code dst} as plain text, see
+   * {@link #strip(byte[], int, int, byte[], int)}.
+   *
+   * @throws BufferOverflowException if {@code dst} has less room than {@code src} has bytes; nothing is consumed then
+   */
+  public void strip(@NotNull ByteBuffer src, @NotNull ByteBuffer dst) {
+    if (dst.remaining() < src.remaining()) {
+      throw new BufferOverflowException();
+    }
+    if (src.hasArray() && dst.hasArray()) {
+      int count = strip(src.array(), src.arrayOffset() + src.position(), src.remaining(),
+                        dst.array(), dst.arrayOffset() + dst.position());
+      src.position(src.limit());
+      dst.position(dst.position() + count);
+      return;
+    }
+    byte[] scratch = getScratch();
+    while (src.hasRemaining()) {
+      int count = Math.min(src.remaining(), SCRATCH_SIZE / 2);
+      src.get(scratch, 0, count);
+      // the text goes to the other half of the scratch buffer
+      dst.put(scratch, SCRATCH_SIZE / 2, strip(scratch, 0, count, scratch, SCRATCH_SIZE / 2));
+    }
+  }
+
+  /**
+   * Returns to the initial state, dropping a sequence incomplete so far.
+   */
+  public void reset() {
+    myState = GROUND;
+    mySequence.clear();
+    myOscLength = 0;
+    myOscTruncated = false;
+  }
+
+  private void putOsc(@NotNull byte[] bytes, int offset, int length) {
+    int count = Math.min(length, myOsc.length - myOscLength);
+    System.arraycopy(bytes, offset, myOsc, myOscLength, count);
+    myOscLength += count;
+    if (count < length) {
+      myOscTruncated = true;
+    }
+  }
+
+  private @NotNull byte[] getScratch() {
+    if (myScratch == null) {
+      myScratch = new byte[SCRATCH_SIZE];
+    }
+    return myScratch;
+  }
+
+  private static @NotNull byte[] buildTransitions() {
+    byte[] table = new byte[14 << 8];
+    for (int state = 0; state < 14; state++) {
+      // by default a byte is ignored
+      set(table, state, 0x00, 0xFF, NONE, state);
+      // the C0 controls are executed in the middle of most sequences
+      set(table, state, 0x00, 0x17, EXECUTE, state);
+      set(table, state, 0x19, 0x19, EXECUTE, state);
+      set(table, state, 0x1C, 0x1F, EXECUTE, state);
+    }
+
+    set(table, GROUND, 0x20, 0x7E, PRINT, GROUND);
+    set(table, GROUND, 0x80, 0xFF, PRINT, GROUND);
+
+    set(table, ESCAPE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+    set(table, ESCAPE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+    set(table, ESCAPE, 'P', 'P', NONE, DCS_ENTRY);
+    set(table, ESCAPE, 'X', 'X', NONE, SOS_PM_APC_STRING);
+    set(table, ESCAPE, '[', '[', NONE, CSI_ENTRY);
+    set(table, ESCAPE, ']', ']', OSC_START, OSC_STRING);
+    set(table, ESCAPE, '^', '_', NONE, SOS_PM_APC_STRING);
+
+    set(table, ESCAPE_INTERMEDIATE, 0x20, 0x2F, COLLECT, ESCAPE_INTERMEDIATE);
+    set(table, ESCAPE_INTERMEDIATE, 0x30, 0x7E, ESC_DISPATCH, GROUND);
+
+    set(table, CSI_ENTRY, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+    set(table, CSI_ENTRY, 0x30, 0x3B, PARAM, CSI_PARAM);
+    set(table, CSI_ENTRY, 0x3C, 0x3F, COLLECT, CSI_PARAM);
+    set(table, CSI_ENTRY, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+    set(table, CSI_PARAM, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+    set(table, CSI_PARAM, 0x30, 0x3B, PARAM, CSI_PARAM);
+    set(table, CSI_PARAM, 0x3C, 0x3F, NONE, CSI_IGNORE);
+    set(table, CSI_PARAM, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+    set(table, CSI_INTERMEDIATE, 0x20, 0x2F, COLLECT, CSI_INTERMEDIATE);
+    set(table, CSI_INTERMEDIATE, 0x30, 0x3F, NONE, CSI_IGNORE);
+    set(table, CSI_INTERMEDIATE, 0x40, 0x7E, CSI_DISPATCH, GROUND);
+
+    set(table, CSI_IGNORE, 0x40, 0x7E, NONE, GROUND);
+
+    // the controls in a device control string are its data
+    for (int state = DCS_ENTRY; state <= DCS_IGNORE; state++) {
+      set(table, state, 0x00, 0x1F, NONE, state);
+    }
+    set(table, DCS_ENTRY, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+    set(table, DCS_ENTRY, 0x30, 0x3B, PARAM, DCS_PARAM);
+    set(table, DCS_ENTRY, 0x3C, 0x3F, COLLECT, DCS_PARAM);
+    set(table, DCS_ENTRY, 0x40, 0x7E, HOOK, DCS_PASSTHROUGH);
+
+    set(table, DCS_PARAM, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+    set(table, DCS_PARAM, 0x30, 0x3B, PARAM, DCS_PARAM);
+    set(table, DCS_PARAM, 0x3C, 0x3F, NONE, DCS_IGNORE);
+    set(table, DCS_PARAM, 0x40, 0x7E, HOOK, DCS_PASSTHROUGH);
+
+    set(table, DCS_INTERMEDIATE, 0x20, 0x2F, COLLECT, DCS_INTERMEDIATE);
+    set(table, DCS_INTERMEDIATE, 0x30, 0x3F, NONE, DCS_IGNORE);
+    set(table, DCS_INTERMEDIATE, 0x40, 0x7E, HOOK, DCS_PASSTHROUGH);
+
+    set(table, DCS_PASSTHROUGH, 0x00, 0x7E, PUT, DCS_PASSTHROUGH);
+    set(table, DCS_PASSTHROUGH, 0x80, 0xFF, PUT, DCS_PASSTHROUGH);
+
+    set(table, OSC_STRING, 0x00, 0x1F, NONE, OSC_STRING);
+    set(table, OSC_STRING, 0x07, 0x07, OSC_END, GROUND);
+    set(table, OSC_STRING, 0x20, 0xFF, OSC_PUT, OSC_STRING);
+
+    set(table, SOS_PM_APC_STRING, 0x00, 0x1F, NONE, SOS_PM_APC_STRING);
+
+    for (int state = 0; state < 14; state++) {
+      // these are recognized anywhere, even in the middle of a string: CAN and SUB cancel a sequence
+      set(table, state, 0x18, 0x18, EXECUTE, GROUND);
+      set(table, state, 0x1A, 0x1A, EXECUTE, GROUND);
+      set(table, state, 0x1B, 0x1B, CLEAR, ESCAPE);
+    }
+    return table;
+  }
+
+  private static void set(@NotNull byte[] table, int state, int first, int last, int action, int next) {
+    for (int b = first; b <= last; b++) {
+      table[state << 8 | b] = (byte)(action << 4 | next);
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of direct buffers of the same size, so that reading the output of many ptys doesn't allocate a buffer per
+ * chunk. A buffer is allocated when the pool is empty, and at most {@code maxPooled} released buffers are kept.
+ */
+public final class ByteBufferPool {
+  private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+  private static final class DefaultHolder {
+    private static final ByteBufferPool INSTANCE = new ByteBufferPool(DEFAULT_BUFFER_SIZE, 256);
+  }
+
+  private final int myBufferSize;
+  private final int myMaxPooled;
+  // guarded by itself
+  private final ArrayDeque<ByteBuffer> myPooled = new ArrayDeque<>();
+  private final AtomicLong myAllocatedCount = new AtomicLong();
+
+  public ByteBufferPool(int bufferSize, int maxPooled) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("bufferSize should be positive: " + bufferSize);
+    }
+    if (maxPooled < 0) {
+      throw new IllegalArgumentException("maxPooled should not be negative: " + maxPooled);
+    }
+    myBufferSize = bufferSize;
+    myMaxPooled = maxPooled;
+  }
+
+  /**
+   * @return the pool shared by default, with 16 KB buffers
+   */
+  public static @NotNull ByteBufferPool getDefault() {
+    return DefaultHolder.INSTANCE;
+  }
+
+  public int getBufferSize() {
+    return myBufferSize;
+  }
+
+  /**
+   * @return a cleared direct buffer of {@link #getBufferSize()} bytes, owned by the caller until it's released
+   */
+  public @NotNull ByteBuffer acquire() {
+    ByteBuffer buffer;
+    synchronized (myPooled) {
+      buffer = myPooled.pollFirst();
+    }
+    if (buffer == null) {
+      myAllocatedCount.incrementAndGet();
+      return ByteBuffer.allocateDirect(myBufferSize);
+    }
+    return buffer.clear();
+  }
+
+  /**
+   * Returns a buffer acquired from this pool. The buffer must not be used by the caller afterwards.
+   */
+  public void release(@NotNull ByteBuffer buffer) {
+    if (buffer.capacity() != myBufferSize || !buffer.isDirect() || buffer.isReadOnly()) {
+      throw new IllegalArgumentException("Buffer doesn't belong to the pool: " + buffer);
+    }
+    synchronized (myPooled) {
+      if (myPooled.size() < myMaxPooled) {
+        myPooled.addFirst(buffer);
+      }
+    }
+  }
+
+  public int getPooledCount() {
+    synchronized (myPooled) {
+      return myPooled.size();
+    }
+  }
+
+  /**
+   * @return the number of buffers allocated because the pool was empty
+   */
+  public long getAllocatedCount() {
+    return myAllocatedCount.get();
+  }
+}
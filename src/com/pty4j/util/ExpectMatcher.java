@@ -0,0 +1,327 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches {@link ExpectPatterns} incrementally over a stream of output, the way {@code expect} waits for a prompt.
+ * <p>
+ * The output is kept in a window of a fixed size, a ring buffer, and each {@link #find} continues from where the
+ * previous one stopped, instead of searching the whole output again: the literals are matched by an automaton whose
+ * state is kept between the calls, and the regexes only see the part of the window after the previous match.
+ * Output older than the window is forgotten, so a match should fit in it.
+ * <p>
+ * The first match to end wins, and of the matches ending at the same byte the one of the lowest pattern index. The
+ * output up to its end is consumed: the next match can start only after it. Empty matches of a regex, e.g. of
+ * {@code \s*}, are skipped, as they would consume nothing. A matcher isn't thread-safe.
+ */
+public final class ExpectMatcher {
+  private final byte[] myWindow;
+  private final WindowText myText = new WindowText();
+  // the number of bytes appended so far
+  private long myWritten;
+  // the end of the last match
+  private long myConsumed;
+
+  // the patterns of the last find, and how far their literals have been scanned
+  private @Nullable ExpectPatterns myPatterns;
+  private @Nullable Matcher[] myMatchers;
+  private long myScanned;
+  private int myState;
+  // the end of the output when the regexes were last tried
+  private long myRegexesTried = -1;
+
+  /**
+   * @param windowSize the number of the latest bytes of the output which are kept for matching
+   */
+  public ExpectMatcher(int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize should be positive: " + windowSize);
+    }
+    myWindow = new byte[windowSize];
+  }
+
+  /**
+   * Appends the remaining bytes of {@code src} to the window.
+   */
+  public void append(@NotNull ByteBuffer src) {
+    int length = src.remaining();
+    if (length > myWindow.length) {
+      // only the end fits
+      src.position(src.position() + length - myWindow.length);
+      myWritten += length - myWindow.length;
+      length = myWindow.length;
+    }
+    int index = (int)(myWritten % myWindow.length);
+    int first = Math.min(length, myWindow.length - index);
+    src.get(myWindow, index, first);
+    src.get(myWindow, 0, length - first);
+    myWritten += length;
+  }
+
+  /**
+   * Looks for the first match of {@code patterns} in the output appended since the previous match.
+   *
+   * @return the match, or {@code null} if there's none yet, so {@link #find} should be called again once more output
+   *         is appended
+   */
+  public @Nullable Match find(@NotNull ExpectPatterns patterns) {
+    if (patterns.getMaxLiteralLength() > myWindow.length) {
+      throw new IllegalArgumentException("A literal is longer than the window: " + patterns.getMaxLiteralLength());
+    }
+    long start = Math.max(myConsumed, getWindowStart());
+    if (patterns != myPatterns || myScanned < start) {
+      // other patterns, or the scanned output has been forgotten: start over
+      myPatterns = patterns;
+      myMatchers = new Matcher[patterns.getRegexes().length];
+      myScanned = start;
+      myState = 0;
+      myRegexesTried = -1;
+    }
+
+    // the literals
+    long matchEnd = Long.MAX_VALUE;
+    int matchIndex = ExpectPatterns.NO_MATCH;
+    int state = myState;
+    while (myScanned < myWritten) {
+      state = patterns.getNextState(state, myWindow[(int)(myScanned++ % myWindow.length)]);
+      int output = patterns.getOutput(state);
+      if (output != ExpectPatterns.NO_MATCH) {
+        if (myScanned - patterns.getLiteralLength(output) < start) {
+          // the state kept from the previous find includes output which has left the window since: rescan the window
+          myScanned = start;
+          state = 0;
+          continue;
+        }
+        matchEnd = myScanned;
+        matchIndex = output;
+        break;
+      }
+    }
+    myState = state;
+
+    // the regexes, which can only match something new if output has been appended since they were last tried
+    Matcher regexMatch = null;
+    Pattern[] regexes = patterns.getRegexes();
+    if (regexes.length > 0 && myRegexesTried != myWritten) {
+      myRegexesTried = myWritten;
+      myText.reset(start, myWritten);
+      for (int i = 0; i < regexes.length; i++) {
+        Matcher matcher = myMatchers[i];
+        if (matcher == null) {
+          matcher = myMatchers[i] = regexes[i].matcher(myText);
+        }
+        else {
+          matcher.reset(myText);
+        }
+        boolean found = matcher.find();
+        while (found && matcher.end() == matcher.start()) {
+          // the next find starts a char further
+          found = matcher.find();
+        }
+        if (!found) continue;
+        long end = start + matcher.end();
+        int index = patterns.getRegexPatternIndex(i);
+        if (end < matchEnd || end == matchEnd && index < matchIndex) {
+          matchEnd = end;
+          matchIndex = index;
+          regexMatch = matcher;
+        }
+      }
+    }
+    if (matchIndex == ExpectPatterns.NO_MATCH) return null;
+
+    long matchStart;
+    String[] groups;
+    if (regexMatch != null) {
+      matchStart = start + regexMatch.start();
+      groups = new String[regexMatch.groupCount() + 1];
+      for (int i = 0; i < groups.length; i++) {
+        int groupStart = regexMatch.start(i);
+        groups[i] = groupStart >= 0 ? copyText(start + groupStart, start + regexMatch.end(i)) : null;
+      }
+    }
+    else {
+      matchStart = matchEnd - patterns.getLiteralLength(matchIndex);
+      groups = null;
+    }
+    Match match = new Match(matchIndex, matchStart, matchEnd, copyBytes(matchStart, matchEnd), groups);
+    myConsumed = matchEnd;
+    myScanned = matchEnd;
+    myState = 0;
+    myRegexesTried = -1;
+    return match;
+  }
+
+  /**
+   * Appends the remaining bytes of {@code src} and looks for a match as {@link #find} does, in steps small enough for
+   * a literal not to be pushed out of the window before it's looked for. Stops at the first match, leaving the bytes
+   * after the step in which it was found in {@code src}.
+   *
+   * @return the match, or {@code null} if there's none in the output appended so far
+   */
+  public @Nullable Match appendAndFind(@NotNull ByteBuffer src, @NotNull ExpectPatterns patterns) {
+    int step = myWindow.length - patterns.getMaxLiteralLength();
+    if (patterns.getRegexes().length > 0) {
+      // the length of a regex match isn't known, so it's given a half of the window
+      step = Math.min(step, myWindow.length / 2);
+    }
+    step = Math.max(1, step);
+    Match match = find(patterns);
+    int limit = src.limit();
+    while (match == null && src.hasRemaining()) {
+      src.limit(Math.min(limit, src.position() + step));
+      append(src);
+      src.limit(limit);
+      match = find(patterns);
+    }
+    return match;
+  }
+
+  /**
+   * Consumes all the output appended so far, as if it had been matched.
+   */
+  public void skip() {
+    myConsumed = myWritten;
+    myScanned = myWritten;
+    myState = 0;
+    myRegexesTried = -1;
+  }
+
+  /**
+   * @return the number of bytes appended so far
+   */
+  public long getPosition() {
+    return myWritten;
+  }
+
+  private long getWindowStart() {
+    return Math.max(0, myWritten - myWindow.length);
+  }
+
+  private @NotNull byte[] copyBytes(long start, long end) {
+    byte[] bytes = new byte[(int)(end - start)];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = myWindow[(int)((start + i) % myWindow.length)];
+    }
+    return bytes;
+  }
+
+  private @NotNull String copyText(long start, long end) {
+    return new String(copyBytes(start, end), StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * A view of a part of the window as ISO-8859-1 chars, for the regexes.
+   */
+  private final class WindowText implements CharSequence {
+    private long myStart;
+    private int myStartIndex;
+    private int myLength;
+
+    void reset(long start, long end) {
+      myStart = start;
+      myStartIndex = (int)(start % myWindow.length);
+      myLength = (int)(end - start);
+    }
+
+    @Override
+    public int length() {
+      return myLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+      if (index < 0 || index >= myLength) {
+        throw new IndexOutOfBoundsException(index + " of " + myLength);
+      }
+      int windowIndex = myStartIndex + index;
+      if (windowIndex >= myWindow.length) {
+        windowIndex -= myWindow.length;
+      }
+      return (char)(myWindow[windowIndex] & 0xFF);
+    }
+
+    @Override
+    public @NotNull CharSequence subSequence(int start, int end) {
+      return copyText(myStart + start, myStart + end);
+    }
+
+    @Override
+    public @NotNull String toString() {
+      return copyText(myStart, myStart + myLength);
+    }
+  }
+
+  /**
+   * The span of the output matched by a pattern.
+   */
+  public static final class Match {
+    private final int myPatternIndex;
+    private final long myStart;
+    private final long myEnd;
+    private final byte[] myBytes;
+    private final @Nullable String[] myGroups;
+
+    private Match(int patternIndex, long start, long end, @NotNull byte[] bytes, @Nullable String[] groups) {
+      myPatternIndex = patternIndex;
+      myStart = start;
+      myEnd = end;
+      myBytes = bytes;
+      myGroups = groups;
+    }
+
+    /**
+     * @return the index of the pattern in the {@link ExpectPatterns}
+     */
+    public int getPatternIndex() {
+      return myPatternIndex;
+    }
+
+    /**
+     * @return the offset of the first matched byte in the output
+     */
+    public long getStart() {
+      return myStart;
+    }
+
+    /**
+     * @return the offset of the byte following the match in the output
+     */
+    public long getEnd() {
+      return myEnd;
+    }
+
+    /**
+     * @return a copy of the matched bytes
+     */
+    public @NotNull byte[] getBytes() {
+      return myBytes.clone();
+    }
+
+    /**
+     * @return the matched bytes decoded from UTF-8
+     */
+    public @NotNull String getText() {
+      return new String(myBytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the text of a capturing group of a regex, as ISO-8859-1 chars, or {@code null} if the group didn't
+     *         match or the pattern is a literal
+     */
+    public @Nullable String getGroup(int group) {
+      return myGroups != null ? myGroups[group] : null;
+    }
+
+    @Override
+    public String toString() {
+      return "Match{pattern=" + myPatternIndex + ", start=" + myStart + ", end=" + myEnd + ", text=" + getText() + "}";
+    }
+  }
+}
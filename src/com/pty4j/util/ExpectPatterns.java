@@ -0,0 +1,201 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * An immutable set of literal and regex patterns for {@link ExpectMatcher}, which can be reused between waits.
+ * <p>
+ * The literals are compiled into a single Aho-Corasick automaton over bytes, so they're all matched in one pass, at
+ * a table lookup per byte. The regexes see the output bytes as ISO-8859-1 chars, which is right for ASCII patterns,
+ * e.g. most prompts; non-ASCII text is better matched with a literal.
+ *
+ * @see Builder
+ */
+public final class ExpectPatterns {
+  static final int NO_MATCH = Integer.MAX_VALUE;
+
+  private final int myPatternCount;
+  private final int[] myLiteralLengths;
+  private final int myMaxLiteralLength;
+  // the next state for every state and input byte
+  private final int[] myTransitions;
+  // the lowest index of a literal ending in a state, or NO_MATCH
+  private final int[] myOutputs;
+  private final Pattern[] myRegexes;
+  private final int[] myRegexIndices;
+
+  private ExpectPatterns(@NotNull List<Object> patterns) {
+    myPatternCount = patterns.size();
+    myLiteralLengths = new int[myPatternCount];
+    List<byte[]> literals = new ArrayList<>();
+    List<Pattern> regexes = new ArrayList<>();
+    List<Integer> regexIndices = new ArrayList<>();
+    int maxLiteralLength = 0;
+    for (int i = 0; i < myPatternCount; i++) {
+      Object pattern = patterns.get(i);
+      if (pattern instanceof byte[]) {
+        byte[] literal = (byte[])pattern;
+        literals.add(literal);
+        myLiteralLengths[i] = literal.length;
+        maxLiteralLength = Math.max(maxLiteralLength, literal.length);
+      }
+      else {
+        literals.add(null);
+        regexes.add((Pattern)pattern);
+        regexIndices.add(i);
+      }
+    }
+    myMaxLiteralLength = maxLiteralLength;
+    myRegexes = regexes.toArray(new Pattern[0]);
+    myRegexIndices = regexIndices.stream().mapToInt(Integer::intValue).toArray();
+
+    // the trie, with -1 for missing edges
+    int stateCount = 1 + literals.stream().mapToInt(literal -> literal != null ? literal.length : 0).sum();
+    int[] transitions = new int[stateCount << 8];
+    Arrays.fill(transitions, -1);
+    int[] outputs = new int[stateCount];
+    Arrays.fill(outputs, NO_MATCH);
+    int nextState = 1;
+    for (int i = 0; i < myPatternCount; i++) {
+      byte[] literal = literals.get(i);
+      if (literal == null) continue;
+      int state = 0;
+      for (byte b : literal) {
+        int index = state << 8 | (b & 0xFF);
+        if (transitions[index] < 0) {
+          transitions[index] = nextState++;
+        }
+        state = transitions[index];
+      }
+      outputs[state] = Math.min(outputs[state], i);
+    }
+
+    // the missing edges follow the failure links, breadth first, so that the links of shorter prefixes are ready
+    int[] failures = new int[stateCount];
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int b = 0; b < 256; b++) {
+      int next = transitions[b];
+      if (next < 0) {
+        transitions[b] = 0;
+      }
+      else {
+        failures[next] = 0;
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      outputs[state] = Math.min(outputs[state], outputs[failures[state]]);
+      for (int b = 0; b < 256; b++) {
+        int index = state << 8 | b;
+        int next = transitions[index];
+        int fallback = transitions[failures[state] << 8 | b];
+        if (next < 0) {
+          transitions[index] = fallback;
+        }
+        else {
+          failures[next] = fallback;
+          queue.add(next);
+        }
+      }
+    }
+    myTransitions = transitions;
+    myOutputs = outputs;
+  }
+
+  /**
+   * @return the number of patterns
+   */
+  public int size() {
+    return myPatternCount;
+  }
+
+  int getMaxLiteralLength() {
+    return myMaxLiteralLength;
+  }
+
+  int getLiteralLength(int patternIndex) {
+    return myLiteralLengths[patternIndex];
+  }
+
+  int getNextState(int state, byte b) {
+    return myTransitions[state << 8 | (b & 0xFF)];
+  }
+
+  /**
+   * @return the lowest index of a literal ending in {@code state}, or {@link #NO_MATCH}
+   */
+  int getOutput(int state) {
+    return myOutputs[state];
+  }
+
+  @NotNull Pattern[] getRegexes() {
+    return myRegexes;
+  }
+
+  int getRegexPatternIndex(int regexIndex) {
+    return myRegexIndices[regexIndex];
+  }
+
+  /**
+   * Collects the patterns, in the order of their indices in {@link ExpectMatcher.Match#getPatternIndex()}.
+   */
+  public static final class Builder {
+    private final List<Object> myPatterns = new ArrayList<>();
+
+    /**
+     * Adds a literal, matched as UTF-8 bytes.
+     */
+    public @NotNull Builder literal(@NotNull String literal) {
+      return literal(literal.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public @NotNull Builder literal(@NotNull byte[] literal) {
+      if (literal.length == 0) {
+        throw new IllegalArgumentException("A literal should not be empty");
+      }
+      myPatterns.add(literal.clone());
+      return this;
+    }
+
+    /**
+     * Adds a regex. Only its non-empty matches count, as an empty one would consume no output.
+     */
+    public @NotNull Builder regex(@NotNull String regex) {
+      return regex(Pattern.compile(regex));
+    }
+
+    /**
+     * @see #regex(String)
+     */
+    public @NotNull Builder regex(@NotNull Pattern regex) {
+      myPatterns.add(regex);
+      return this;
+    }
+
+    public @NotNull ExpectPatterns build() {
+      if (myPatterns.isEmpty()) {
+        throw new IllegalStateException("No patterns");
+      }
+      return new ExpectPatterns(myPatterns);
+    }
+  }
+
+  /**
+   * @return the patterns matching any of {@code literals}
+   */
+  public static @NotNull ExpectPatterns literals(@NotNull String... literals) {
+    Builder builder = new Builder();
+    for (String literal : literals) {
+      builder.literal(literal);
+    }
+    return builder.build();
+  }
+}
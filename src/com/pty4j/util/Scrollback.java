@@ -0,0 +1,260 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The scrollback of a terminal session: the latest output bytes kept in a fixed-size direct ring buffer, with an index
+ * of line start offsets, so that a line or the last lines can be copied out without scanning the output or creating
+ * any strings.
+ * <p>
+ * Lines are numbered from 0 since the creation of the scrollback, and each one ends with and includes its {@code '\n'},
+ * except the last one, which is still being written and may be empty. The oldest lines are evicted when the bytes don't
+ * fit into the buffer, or when there are more than {@code maxLines} of them. A line is either retained in full or not
+ * at all, the only exception being the last line when it alone is longer than the buffer: only its tail is retained.
+ * <p>
+ * Besides the buffer, the scrollback takes {@code 8 * maxLines} bytes of heap, allocated once. All the methods are
+ * thread-safe.
+ *
+ * @see com.pty4j.unix.UnixPtyProcess#setScrollback(Scrollback)
+ */
+public final class Scrollback {
+  private final Object myLock = new Object();
+  private final int myByteCapacity;
+  // the bytes at the offsets [max(0, myEndOffset - myByteCapacity), myEndOffset), at offset % myByteCapacity
+  private final ByteBuffer myBuffer;
+  // the start offset of line n is at n % myLineStarts.length, for the lines [myFirstLine, myLastLine]
+  private final long[] myLineStarts;
+  // guarded by myLock
+  private long myEndOffset;
+  // guarded by myLock
+  private long myFirstLine;
+  // guarded by myLock
+  private long myLastLine;
+
+  /**
+   * @param byteCapacity the size of the off-heap buffer
+   * @param maxLines     the maximum number of lines retained, including the last one
+   */
+  public Scrollback(int byteCapacity, int maxLines) {
+    if (byteCapacity <= 0) {
+      throw new IllegalArgumentException("byteCapacity should be positive: " + byteCapacity);
+    }
+    if (maxLines <= 0) {
+      throw new IllegalArgumentException("maxLines should be positive: " + maxLines);
+    }
+    myByteCapacity = byteCapacity;
+    myBuffer = ByteBuffer.allocateDirect(byteCapacity);
+    myLineStarts = new long[maxLines];
+  }
+
+  public int getByteCapacity() {
+    return myByteCapacity;
+  }
+
+  public int getMaxLines() {
+    return myLineStarts.length;
+  }
+
+  /**
+   * Appends {@code len} bytes of {@code buf} starting at {@code off}.
+   */
+  public void append(@NotNull byte[] buf, int off, int len) {
+    if (off < 0 || len < 0 || len > buf.length - off) {
+      throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", length=" + buf.length);
+    }
+    synchronized (myLock) {
+      for (int i = 0; i < len; i++) {
+        if (buf[off + i] == '\n') {
+          startLine(myEndOffset + i + 1);
+        }
+      }
+      int stored = Math.min(len, myByteCapacity);
+      int from = off + len - stored;
+      long offset = myEndOffset + len - stored;
+      while (stored > 0) {
+        int index = (int)(offset % myByteCapacity);
+        int count = Math.min(stored, myByteCapacity - index);
+        myBuffer.clear().position(index);
+        myBuffer.put(buf, from, count);
+        from += count;
+        offset += count;
+        stored -= count;
+      }
+      advanceEnd(len);
+    }
+  }
+
+  /**
+   * Appends the remaining bytes of {@code src}, moving its position to the limit.
+   */
+  public void append(@NotNull ByteBuffer src) {
+    if (src.hasArray()) {
+      int len = src.remaining();
+      append(src.array(), src.arrayOffset() + src.position(), len);
+      src.position(src.limit());
+      return;
+    }
+    synchronized (myLock) {
+      int start = src.position();
+      int len = src.remaining();
+      for (int i = 0; i < len; i++) {
+        if (src.get(start + i) == '\n') {
+          startLine(myEndOffset + i + 1);
+        }
+      }
+      int stored = Math.min(len, myByteCapacity);
+      long offset = myEndOffset + len - stored;
+      int limit = src.limit();
+      src.position(limit - stored);
+      while (stored > 0) {
+        int index = (int)(offset % myByteCapacity);
+        int count = Math.min(stored, myByteCapacity - index);
+        myBuffer.clear().position(index);
+        src.limit(src.position() + count);
+        myBuffer.put(src);
+        offset += count;
+        stored -= count;
+      }
+      src.limit(limit);
+      advanceEnd(len);
+    }
+  }
+
+  /**
+   * @return the number of the oldest retained line
+   */
+  public long getFirstLine() {
+    synchronized (myLock) {
+      return myFirstLine;
+    }
+  }
+
+  /**
+   * @return the number of the last line, which is not terminated by {@code '\n'} yet and may be empty
+   */
+  public long getLastLine() {
+    synchronized (myLock) {
+      return myLastLine;
+    }
+  }
+
+  /**
+   * @return the total number of bytes appended, including the evicted ones
+   */
+  public long getTotalBytes() {
+    synchronized (myLock) {
+      return myEndOffset;
+    }
+  }
+
+  /**
+   * @return the number of bytes in the retained lines
+   */
+  public int getRetainedBytes() {
+    synchronized (myLock) {
+      return (int)(myEndOffset - lineStart(myFirstLine));
+    }
+  }
+
+  /**
+   * @return the number of bytes of the retained line {@code line}, including its {@code '\n'}
+   * @throws IndexOutOfBoundsException if the line is not retained
+   */
+  public int getLineLength(long line) {
+    synchronized (myLock) {
+      checkLine(line);
+      return (int)(lineEnd(line) - lineStart(line));
+    }
+  }
+
+  /**
+   * Copies the retained line {@code line}, including its {@code '\n'}, to {@code dst}.
+   *
+   * @return the number of bytes copied
+   * @throws IndexOutOfBoundsException if the line is not retained
+   * @throws BufferOverflowException   if {@code dst} has less space remaining than {@link #getLineLength(long)}
+   */
+  public int copyLine(long line, @NotNull ByteBuffer dst) {
+    synchronized (myLock) {
+      checkLine(line);
+      return copy(lineStart(line), lineEnd(line), dst);
+    }
+  }
+
+  /**
+   * Copies the last {@code count} lines, or all the retained ones if there are fewer, to {@code dst}. The last line
+   * counts even if it's empty, so e.g. the bytes after the last {@code '\n'} are copied for {@code count == 1}.
+   *
+   * @return the number of bytes copied
+   * @throws BufferOverflowException if {@code dst} doesn't have enough space remaining
+   */
+  public int copyLastLines(int count, @NotNull ByteBuffer dst) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count should not be negative: " + count);
+    }
+    synchronized (myLock) {
+      if (count == 0) return 0;
+      long first = Math.max(myFirstLine, myLastLine - count + 1);
+      return copy(lineStart(first), myEndOffset, dst);
+    }
+  }
+
+  /**
+   * Should be called with {@code myLock} held, before the bytes are counted in {@code myEndOffset}.
+   */
+  private void startLine(long start) {
+    if (myLastLine - myFirstLine + 1 == myLineStarts.length) {
+      myFirstLine++;
+    }
+    myLastLine++;
+    myLineStarts[(int)(myLastLine % myLineStarts.length)] = start;
+  }
+
+  /**
+   * Should be called with {@code myLock} held.
+   */
+  private void advanceEnd(int len) {
+    myEndOffset += len;
+    long oldest = myEndOffset - myByteCapacity;
+    while (myFirstLine < myLastLine && lineStart(myFirstLine) < oldest) {
+      myFirstLine++;
+    }
+    if (lineStart(myLastLine) < oldest) {
+      myLineStarts[(int)(myLastLine % myLineStarts.length)] = oldest;
+    }
+  }
+
+  private void checkLine(long line) {
+    if (line < myFirstLine || line > myLastLine) {
+      throw new IndexOutOfBoundsException("Line " + line + " is not retained, the lines are [" + myFirstLine + ", " +
+                                          myLastLine + "]");
+    }
+  }
+
+  private long lineStart(long line) {
+    return myLineStarts[(int)(line % myLineStarts.length)];
+  }
+
+  private long lineEnd(long line) {
+    return line == myLastLine ? myEndOffset : lineStart(line + 1);
+  }
+
+  private int copy(long from, long to, @NotNull ByteBuffer dst) {
+    int length = (int)(to - from);
+    if (dst.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    long offset = from;
+    while (offset < to) {
+      int index = (int)(offset % myByteCapacity);
+      int count = (int)Math.min(to - offset, myByteCapacity - index);
+      myBuffer.clear().position(index).limit(index + count);
+      dst.put(myBuffer);
+      offset += count;
+    }
+    return length;
+  }
+}
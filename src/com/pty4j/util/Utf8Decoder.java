@@ -0,0 +1,187 @@
+package com.pty4j.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+
+/**
+ * An incremental UTF-8 decoder for terminal output, which arrives in chunks split at arbitrary byte boundaries.
+ * <p>
+ * A sequence split between chunks is kept in the decoder state and completed by the next chunk, so no bytes have to be
+ * carried over by the caller. Runs of ASCII are found a word at a time and copied without any other checks, and
+ * nothing is allocated after the first call. Malformed input is replaced with U+FFFD the same way as the JDK decoder
+ * with {@link java.nio.charset.CodingErrorAction#REPLACE} does, so the result matches
+ * {@link java.io.InputStreamReader}.
+ * <p>
+ * A decoder isn't thread-safe.
+ */
+public final class Utf8Decoder {
+  private static final char REPLACEMENT = '\uFFFD';
+  private static final int SCRATCH_SIZE = 8192;
+  private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
+  // the bits of the incomplete sequence decoded so far
+  private int myCodePoint;
+  // the number of continuation bytes the incomplete sequence still needs, 0 if there's none
+  private int myNeeded;
+  // the allowed range of the next continuation byte, narrower than 0x80..0xBF right after some lead bytes
+  private int myLowerBound = 0x80;
+  private int myUpperBound = 0xBF;
+  // a copy of a chunk of a direct source buffer, allocated on the first use
+  private byte[] myScratch;
+
+  /**
+   * Decodes the remaining bytes of {@code src} to {@code dst}, until either of them is exhausted. A sequence
+   * incomplete at the end of {@code src} is consumed and kept in the decoder. A supplementary character is decoded
+   * only when {@code dst} has room for both its surrogates.
+   *
+   * @param dst a buffer backed by an accessible array
+   */
+  public void decode(@NotNull ByteBuffer src, @NotNull CharBuffer dst) {
+    if (!dst.hasArray()) {
+      throw new IllegalArgumentException("dst should be backed by an accessible array");
+    }
+    if (src.hasArray()) {
+      int offset = src.arrayOffset();
+      int index = decode(src.array(), offset + src.position(), offset + src.limit(), dst);
+      src.position(index - offset);
+      return;
+    }
+    // indexed gets from a direct buffer are several times slower than array accesses, so it's copied in chunks
+    if (myScratch == null) {
+      myScratch = new byte[SCRATCH_SIZE];
+    }
+    while (src.hasRemaining() && dst.hasRemaining()) {
+      int position = src.position();
+      int count = Math.min(src.remaining(), SCRATCH_SIZE);
+      src.get(myScratch, 0, count);
+      int decoded = decode(myScratch, 0, count, dst);
+      src.position(position + decoded);
+      if (decoded < count) break;
+    }
+  }
+
+  /**
+   * @return the index of the first byte not consumed
+   */
+  private int decode(@NotNull byte[] bytes, int index, int limit, @NotNull CharBuffer dst) {
+    char[] chars = dst.array();
+    int charIndex = dst.arrayOffset() + dst.position();
+    int charLimit = dst.arrayOffset() + dst.limit();
+
+    while (index < limit && charIndex < charLimit) {
+      if (myNeeded == 0) {
+        // ASCII fast path: the run is found 8 bytes at a time, then widened by a plain counted loop
+        int asciiEnd = index + Math.min(limit - index, charLimit - charIndex);
+        int start = index;
+        while (index + Long.BYTES <= asciiEnd && ((long)LONG_VIEW.get(bytes, index) & NON_ASCII_MASK) == 0) {
+          index += Long.BYTES;
+        }
+        while (index < asciiEnd && bytes[index] >= 0) {
+          index++;
+        }
+        int count = index - start;
+        for (int i = 0; i < count; i++) {
+          chars[charIndex + i] = (char)bytes[start + i];
+        }
+        charIndex += count;
+        if (index == asciiEnd) break;
+        int b = bytes[index++] & 0xFF;
+        if (b >= 0xC2 && b <= 0xDF) {
+          startSequence(b & 0x1F, 1, 0x80, 0xBF);
+        }
+        else if (b >= 0xE0 && b <= 0xEF) {
+          // an encoded surrogate isn't rejected early, but replaced as a whole once complete, as the JDK does
+          startSequence(b & 0x0F, 2, b == 0xE0 ? 0xA0 : 0x80, 0xBF);
+        }
+        else if (b >= 0xF0 && b <= 0xF4) {
+          startSequence(b & 0x07, 3, b == 0xF0 ? 0x90 : 0x80, b == 0xF4 ? 0x8F : 0xBF);
+        }
+        else {
+          chars[charIndex++] = REPLACEMENT;
+        }
+        continue;
+      }
+
+      int b = bytes[index] & 0xFF;
+      if (b < myLowerBound || b > myUpperBound) {
+        // the byte isn't consumed: it may start the next sequence
+        reset();
+        chars[charIndex++] = REPLACEMENT;
+        continue;
+      }
+      if (myNeeded == 1 && isSupplementary() && charLimit - charIndex < 2) {
+        break;
+      }
+      index++;
+      myCodePoint = (myCodePoint << 6) | (b & 0x3F);
+      myLowerBound = 0x80;
+      myUpperBound = 0xBF;
+      if (--myNeeded > 0) continue;
+
+      if (myCodePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+        chars[charIndex++] = Character.highSurrogate(myCodePoint);
+        chars[charIndex++] = Character.lowSurrogate(myCodePoint);
+      }
+      else if (Character.isSurrogate((char)myCodePoint)) {
+        chars[charIndex++] = REPLACEMENT;
+      }
+      else {
+        chars[charIndex++] = (char)myCodePoint;
+      }
+      myCodePoint = 0;
+    }
+
+    dst.position(charIndex - dst.arrayOffset());
+    return index;
+  }
+
+  /**
+   * Ends the input: an incomplete sequence kept in the decoder is written to {@code dst} as U+FFFD.
+   *
+   * @return false if {@code dst} has no room for it, so the call should be repeated
+   */
+  public boolean flush(@NotNull CharBuffer dst) {
+    if (myNeeded == 0) return true;
+    if (!dst.hasRemaining()) return false;
+    dst.put(REPLACEMENT);
+    reset();
+    return true;
+  }
+
+  /**
+   * @return true if an incomplete sequence is kept in the decoder
+   */
+  public boolean hasPendingBytes() {
+    return myNeeded > 0;
+  }
+
+  /**
+   * Forgets an incomplete sequence, if any.
+   */
+  public void reset() {
+    myCodePoint = 0;
+    myNeeded = 0;
+    myLowerBound = 0x80;
+    myUpperBound = 0xBF;
+  }
+
+  private void startSequence(int bits, int needed, int lowerBound, int upperBound) {
+    myCodePoint = bits;
+    myNeeded = needed;
+    myLowerBound = lowerBound;
+    myUpperBound = upperBound;
+  }
+
+  /**
+   * @return true if the sequence being decoded, with one continuation byte missing, is a 4-byte one
+   */
+  private boolean isSupplementary() {
+    return myCodePoint >= (Character.MIN_SUPPLEMENTARY_CODE_POINT >> 6);
+  }
+}
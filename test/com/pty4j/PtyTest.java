@@ -23,6 +23,8 @@ package com.pty4j;
 
 import com.google.common.base.Ascii;
 import com.pty4j.unix.PtyHelpers;
+import com.pty4j.unix.SpawnMode;
+import com.pty4j.unix.UnixPtyProcess;
 import com.pty4j.windows.WinPtyProcess;
 import com.sun.jna.Platform;
 import junit.framework.TestCase;
@@ -169,6 +171,8 @@ public class PtyTest extends TestCase {
     }
     writeToStdinAndFlush(process, ConsoleSizeReporter.EXIT, true);
     assertProcessTerminatedNormally(process);
+    // the pty is closed by the stdout reader on EOF, which may come a bit later than the exit
+    stdout.awaitFinish();
     checkGetSetSizeFailed(process);
   }
 
@@ -294,6 +298,43 @@ public class PtyTest extends TestCase {
     assertProcessTerminatedBySignal(PtyHelpers.SIGPIPE, pty);
   }
 
+  public void testVforkSpawnMode() throws Exception {
+    if (Platform.isWindows() || !TestUtil.hasSpawnPty()) {
+      return;
+    }
+    String dir = new File(System.getProperty("java.io.tmpdir")).getCanonicalPath();
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(
+      new String[]{"/bin/sh", "-c", "tty; echo \"$PWD $1\"; echo controlling > /dev/tty", "sh", "_DBG_PTY_"})
+      .setUnixSpawnMode(SpawnMode.VFORK)
+      .setDirectory(dir)
+      .setPassAdditionalPty(true)
+      .start();
+    Gobbler stdout = startReader(process.getInputStream(), null);
+    stdout.assertEndsWith(process.getPty().getSlaveName() + "\r\n" +
+                          dir + " " + process.getAdditionalPty().getSlaveName() + "\r\n" +
+                          "controlling\r\n");
+    assertProcessTerminatedNormally(process);
+  }
+
+  public void testInitialSizeIsSetBeforeExec() throws Exception {
+    if (Platform.isWindows()) {
+      return;
+    }
+    for (SpawnMode mode : SpawnMode.values()) {
+      // without spawn_pty every mode is the fork fallback
+      if (mode != SpawnMode.FORK && !TestUtil.hasSpawnPty()) continue;
+      PtyProcess process = new PtyProcessBuilder(new String[]{"/bin/sh", "-c", "stty size; stty size < \"$1\"", "sh", "_DBG_PTY_"})
+        .setInitialColumns(111)
+        .setInitialRows(11)
+        .setUnixSpawnMode(mode)
+        .setPassAdditionalPty(true)
+        .start();
+      Gobbler stdout = startReader(process.getInputStream(), null);
+      stdout.assertEndsWith("11 111\r\n11 111\r\n");
+      assertProcessTerminatedNormally(process);
+    }
+  }
+
   public void testWaitForProcessTerminationWithoutOutputRead() throws IOException, InterruptedException {
     if (Platform.isWindows()) {
       return;
@@ -2,6 +2,7 @@ package com.pty4j;
 
 import com.google.common.base.Function;
 import com.pty4j.util.PtyUtil;
+import com.sun.jna.NativeLibrary;
 import com.sun.jna.Platform;
 import com.sun.jna.platform.win32.Kernel32;
 import jtermios.JTermios;
@@ -159,6 +160,30 @@ public class TestUtil {
     }
   }
 
+  /**
+   * Checks whether the native library has {@code spawn_pty}, without which the spawn modes fall back to a plain fork.
+   * A library loaded from {@link #getBuiltNativeFolder()} and built after the native sources changed, or any library
+   * if {@code pty4j.test.requireSpawnPty} is set, must have it: otherwise the tests of the spawn modes would pass on
+   * the fallback. An older prebuilt library is skipped with a message.
+   */
+  public static boolean hasSpawnPty() {
+    File library = PtyUtil.resolveNativeLibrary();
+    try {
+      NativeLibrary.getInstance(library.getAbsolutePath()).getFunction("spawn_pty");
+      return true;
+    }
+    catch (UnsatisfiedLinkError e) {
+      File sources = getBuiltNativeFolder().resolveSibling("native").resolve("exec_pty.c").toFile();
+      boolean builtFromTree = library.toPath().startsWith(getBuiltNativeFolder()) &&
+                              sources.isFile() && library.lastModified() >= sources.lastModified();
+      if (builtFromTree || Boolean.getBoolean("pty4j.test.requireSpawnPty")) {
+        throw new AssertionError("The native library has no spawn_pty: " + library, e);
+      }
+      System.err.println("Skipping, the native library predates spawn_pty: " + e.getMessage());
+      return false;
+    }
+  }
+
   public static void assertConsoleExists() {
     if (System.console() == null) {
       System.err.println("Not a terminal");
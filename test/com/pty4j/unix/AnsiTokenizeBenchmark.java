@@ -0,0 +1,146 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.pty4j.util.AnsiTokenizer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Compares tokenizing terminal output with {@link AnsiTokenizer}, and stripping it to plain text, against stripping it
+ * with a regex over a decoded string, and prints the throughput of each run. Not a part of the test suite.
+ * <p>
+ * Usage: {@code AnsiTokenizeBenchmark [recording.cast...]}. The output of the recordings is collected by replaying
+ * them; without any, it's generated to look like the output of {@code ls --color}, {@code htop} and {@code vim}.
+ */
+public class AnsiTokenizeBenchmark {
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static final int RUNS = 5;
+  private static final Pattern ANSI = Pattern.compile(
+    "\u001b\\[[0-?]*[ -/]*[@-~]|\u001b\\][^\u0007\u001b]*(?:\u0007|\u001b\\\\)|\u001b[@-Z\\\\-_]|\u001b[ -/]+[0-~]");
+  private static volatile long ourChecksum;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, byte[]> inputs = new LinkedHashMap<>();
+    if (args.length > 0) {
+      TestUtil.setLocalPtyLib();
+      for (String arg : args) {
+        inputs.put(arg, collectOutput(arg));
+      }
+    }
+    else {
+      inputs.put("ls --color", generateLs(32 * 1024 * 1024));
+      inputs.put("htop", generateHtop(32 * 1024 * 1024));
+      inputs.put("vim", generateVim(32 * 1024 * 1024));
+    }
+
+    AnsiTokenizer.Handler handler = new AnsiTokenizer.Handler() {
+      @Override
+      public void onText(@NotNull byte[] bytes, int offset, int length) {
+        ourChecksum += length;
+      }
+
+      @Override
+      public void onCsi(@NotNull AnsiTokenizer.Sequence sequence) {
+        ourChecksum += sequence.getParameter(0, 0);
+      }
+    };
+    for (int run = 1; run <= RUNS; run++) {
+      for (Map.Entry<String, byte[]> input : inputs.entrySet()) {
+        byte[] bytes = input.getValue();
+        long start = System.nanoTime();
+        AnsiTokenizer tokenizer = new AnsiTokenizer();
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+          tokenizer.tokenize(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset), handler);
+        }
+        report(run, input.getKey(), "tokenize", bytes.length, start);
+
+        start = System.nanoTime();
+        tokenizer = new AnsiTokenizer();
+        byte[] text = new byte[CHUNK_SIZE];
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+          ourChecksum += tokenizer.strip(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset), text, 0);
+        }
+        report(run, input.getKey(), "strip", bytes.length, start);
+
+        start = System.nanoTime();
+        for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+          // splits sequences at chunk boundaries, which is a part of the problem with this approach
+          String chunk = new String(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset), StandardCharsets.UTF_8);
+          ourChecksum += ANSI.matcher(chunk).replaceAll("").length();
+        }
+        report(run, input.getKey(), "regex", bytes.length, start);
+      }
+    }
+  }
+
+  private static void report(int run, @NotNull String input, @NotNull String method, int length, long start) {
+    long elapsed = System.nanoTime() - start;
+    System.out.printf("run %d: %-12s %-8s %8.1f MB/s%n", run, input, method,
+                      length / (elapsed / 1e9) / (1024 * 1024));
+  }
+
+  private static @NotNull byte[] collectOutput(@NotNull String recording) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    SessionReplayer.load(Paths.get(recording)).replay(chunk -> {
+      byte[] bytes = new byte[chunk.remaining()];
+      chunk.get(bytes);
+      output.write(bytes, 0, bytes.length);
+    }, false);
+    return output.toByteArray();
+  }
+
+  private static @NotNull byte[] generateLs(int size) {
+    Random random = new Random(1);
+    String[] colors = {"01;34", "01;32", "01;36", "00", "01;31", "40;33;01"};
+    StringBuilder output = new StringBuilder();
+    while (output.length() < size) {
+      for (int column = 0; column < 4; column++) {
+        output.append("\u001b[0m\u001b[").append(colors[random.nextInt(colors.length)]).append('m')
+          .append("file-").append(random.nextInt(100000)).append(".txt\u001b[0m  ");
+      }
+      output.append("\r\n");
+    }
+    return output.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static @NotNull byte[] generateHtop(int size) {
+    Random random = new Random(2);
+    StringBuilder output = new StringBuilder();
+    while (output.length() < size) {
+      output.append("\u001b[?25l\u001b[H");
+      for (int cpu = 0; cpu < 8; cpu++) {
+        int used = random.nextInt(30);
+        output.append("\u001b[").append(cpu + 1).append(";1H\u001b[37m").append(cpu)
+          .append("\u001b[1m[\u001b[32m").append("|".repeat(used)).append("\u001b[31m").append("|".repeat(30 - used))
+          .append("\u001b[37m]\u001b[0m");
+      }
+      for (int row = 10; row < 40; row++) {
+        output.append("\u001b[").append(row).append(";1H\u001b[30;46m").append(random.nextInt(99999))
+          .append(" user      20   0 \u001b[36m").append(random.nextInt(999)).append("M\u001b[39m  ")
+          .append(random.nextInt(100)).append(".0 /usr/bin/process --flag\u001b[K\u001b[m");
+      }
+      output.append("\u001b]0;htop\u0007\u001b[?25h");
+    }
+    return output.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static @NotNull byte[] generateVim(int size) {
+    Random random = new Random(3);
+    StringBuilder output = new StringBuilder();
+    while (output.length() < size) {
+      output.append("\u001b[1;23r\u001b[23;1H\r\n\u001b[r\u001b[22;1H");
+      output.append("\u001b[38;5;130m").append(random.nextInt(1000)).append(" \u001b[m\u001b[38;5;34m  public\u001b[m ")
+        .append("void method").append(random.nextInt(1000)).append("() {\u001b[K");
+      output.append("\u001b[24;1H\u001b[1m-- INSERT --\u001b[m\u001b[24;63H").append(random.nextInt(1000))
+        .append(",5\u001b[10CAll\u001b[22;").append(random.nextInt(80) + 1).append('H');
+    }
+    return output.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,105 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how pty allocation and spawning scale with the number of concurrent threads. Not a part of the test suite.
+ * <p>
+ * "legacy pty" allocates a pty the way {@link Pty} did before ptsname_r: ptsname under a global lock.
+ * "pty" is {@link Pty#Pty()}, and "spawn" is a full {@link PtyProcessBuilder#start()} of {@code /bin/true}.
+ * <p>
+ * Usage: {@code ConcurrentSpawnBenchmark [threads,...] [seconds per run]}, defaults to {@code 1,2,4,8,16,32 2}.
+ */
+public class ConcurrentSpawnBenchmark {
+  private static final Object LEGACY_PTSNAME_LOCK = new Object();
+
+  private interface Task {
+    void run() throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    TestUtil.setLocalPtyLib();
+    int[] threadCounts = Arrays.stream((args.length > 0 ? args[0] : "1,2,4,8,16,32").split(","))
+      .mapToInt(Integer::parseInt).toArray();
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+    System.out.printf("%-12s %8s %12s%n", "mode", "threads", "ops/s");
+    for (int threads : threadCounts) {
+      System.out.printf("%-12s %8d %12.0f%n", "legacy pty", threads,
+                        run(threads, seconds, ConcurrentSpawnBenchmark::allocateLegacyPty));
+      System.out.printf("%-12s %8d %12.0f%n", "pty", threads, run(threads, seconds, () -> new Pty().close()));
+      System.out.printf("%-12s %8d %12.0f%n", "spawn", threads, run(threads, seconds, ConcurrentSpawnBenchmark::spawn));
+    }
+  }
+
+  private static double run(int threadCount, int seconds, @NotNull Task task) throws Exception {
+    AtomicLong operations = new AtomicLong();
+    CountDownLatch start = new CountDownLatch(1);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    List<Thread> threads = new ArrayList<>();
+    List<Exception> errors = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          while (System.nanoTime() < deadline) {
+            task.run();
+            operations.incrementAndGet();
+          }
+        }
+        catch (Exception e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (!errors.isEmpty()) {
+      throw errors.get(0);
+    }
+    return operations.get() / ((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  private static void allocateLegacyPty() {
+    PtyHelpers.OSFacade facade = PtyHelpers.getInstance();
+    int fd = JTermios.open("/dev/ptmx", JTermios.O_RDWR | JTermios.O_NOCTTY);
+    if (fd < 0) {
+      throw new IllegalStateException("Cannot open /dev/ptmx, errno=" + PtyHelpers.errno());
+    }
+    facade.grantpt(fd);
+    facade.unlockpt(fd);
+    synchronized (LEGACY_PTSNAME_LOCK) {
+      facade.ptsname(fd);
+    }
+    int[] pipe = new int[2];
+    JTermios.pipe(pipe);
+    JTermios.close(pipe[0]);
+    JTermios.close(pipe[1]);
+    JTermios.close(fd);
+  }
+
+  private static void spawn() throws Exception {
+    PtyProcess process = new PtyProcessBuilder(new String[]{"/bin/true"}).start();
+    process.waitFor();
+    process.getInputStream().close();
+    process.getOutputStream().close();
+  }
+}
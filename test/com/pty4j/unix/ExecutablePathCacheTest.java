@@ -0,0 +1,123 @@
+package com.pty4j.unix;
+
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ExecutablePathCache}.
+ */
+public class ExecutablePathCacheTest extends TestCase {
+
+  private Path myFirstDir;
+  private Path mySecondDir;
+  private String[] myEnvironment;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    if (Platform.isWindows()) return;
+    myFirstDir = Files.createTempDirectory("first");
+    mySecondDir = Files.createTempDirectory("second");
+    myEnvironment = new String[]{"HOME=/", "PATH=" + myFirstDir + "::" + mySecondDir};
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (myFirstDir != null) {
+      deleteRecursively(myFirstDir);
+      deleteRecursively(mySecondDir);
+    }
+    super.tearDown();
+  }
+
+  public void testResolveAndInvalidate() throws Exception {
+    if (Platform.isWindows()) return;
+    // revalidate on every lookup
+    ExecutablePathCache cache = new ExecutablePathCache(TimeUnit.MINUTES.toNanos(1), 0);
+    Path second = createExecutable(mySecondDir, "tool");
+    assertEquals(second.toString(), cache.resolve("tool", myEnvironment));
+    assertEquals(second.toString(), cache.resolve("tool", myEnvironment));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(0.5, cache.getHitRate());
+
+    // a new executable earlier in PATH changes the modification time of its directory
+    Path first = createExecutable(myFirstDir, "tool");
+    assertEquals(first.toString(), cache.resolve("tool", myEnvironment));
+    assertEquals(2, cache.getMissCount());
+
+    // the key includes PATH
+    assertEquals(second.toString(), cache.resolve("tool", new String[]{"PATH=" + mySecondDir}));
+    assertEquals(3, cache.getMissCount());
+  }
+
+  public void testTimeToLive() throws Exception {
+    if (Platform.isWindows()) return;
+    ExecutablePathCache cache = new ExecutablePathCache(0, TimeUnit.MINUTES.toNanos(1));
+    Path tool = createExecutable(mySecondDir, "tool");
+    assertEquals(tool.toString(), cache.resolve("tool", myEnvironment));
+    assertEquals(tool.toString(), cache.resolve("tool", myEnvironment));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  public void testExecutableIsCheckedOnHit() throws Exception {
+    if (Platform.isWindows()) return;
+    // the directories aren't revalidated within the test
+    ExecutablePathCache cache = new ExecutablePathCache(TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(1));
+    Path tool = createExecutable(mySecondDir, "tool");
+    assertEquals(tool.toString(), cache.resolve("tool", myEnvironment));
+    Files.setPosixFilePermissions(tool, PosixFilePermissions.fromString("rw-------"));
+    assertEquals("tool", cache.resolve("tool", myEnvironment));
+    assertEquals(0, cache.getHitCount());
+  }
+
+  public void testLeastRecentlyUsedIsEvicted() throws Exception {
+    if (Platform.isWindows()) return;
+    ExecutablePathCache cache = new ExecutablePathCache(TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(1), 2);
+    for (String name : new String[]{"a", "b", "c"}) {
+      createExecutable(mySecondDir, name);
+    }
+    cache.resolve("a", myEnvironment);
+    cache.resolve("b", myEnvironment);
+    cache.resolve("a", myEnvironment);
+    // evicts "b", which has been used less recently than "a"
+    cache.resolve("c", myEnvironment);
+    assertEquals(1, cache.getHitCount());
+    cache.resolve("a", myEnvironment);
+    assertEquals(2, cache.getHitCount());
+    cache.resolve("b", myEnvironment);
+    assertEquals(2, cache.getHitCount());
+    assertEquals(4, cache.getMissCount());
+  }
+
+  public void testUnresolvedCommandIsPassedAsIs() throws Exception {
+    if (Platform.isWindows()) return;
+    ExecutablePathCache cache = new ExecutablePathCache(TimeUnit.MINUTES.toNanos(1), 0);
+    assertEquals("missing", cache.resolve("missing", myEnvironment));
+    assertEquals("/bin/sh", cache.resolve("/bin/sh", myEnvironment));
+    assertEquals("./tool", cache.resolve("./tool", myEnvironment));
+    assertEquals("tool", cache.resolve("tool", new String[]{"HOME=/"}));
+    // a path found through a relative PATH entry is relative too, and execve would resolve it in the child directory
+    createExecutable(mySecondDir, "tool");
+    assertEquals("tool", cache.resolve("tool", new String[]{"PATH=" + new File("").getAbsoluteFile().toPath().relativize(mySecondDir)}));
+  }
+
+  private static Path createExecutable(Path dir, String name) throws Exception {
+    return Files.createFile(dir.resolve(name), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+  }
+
+  private static void deleteRecursively(Path dir) throws Exception {
+    try (var files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>)files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+}
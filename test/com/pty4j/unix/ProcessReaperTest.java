@@ -0,0 +1,93 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ProcessReaper} and the exit notifications of {@link UnixPtyProcess}.
+ */
+public class ProcessReaperTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+  private static final int PROCESS_COUNT = 16;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testSingleThreadReapsAllChildren() throws Exception {
+    if (!Platform.isLinux() || !ProcessReaper.getInstance().isShared()) return;
+    List<PtyProcess> processes = new ArrayList<>();
+    try {
+      for (int i = 0; i < PROCESS_COUNT; i++) {
+        processes.add(new PtyProcessBuilder(new String[]{"sleep", "60"}).start());
+      }
+      assertEquals(1, countReaperThreads());
+
+      for (PtyProcess process : processes) {
+        process.destroy();
+      }
+      for (PtyProcess process : processes) {
+        PtyTest.assertProcessTerminatedBySignal(PtyHelpers.SIGTERM, process);
+        // the exit breaks the blocked reads
+        assertEquals(-1, process.getInputStream().read());
+      }
+    }
+    finally {
+      for (PtyProcess process : processes) {
+        process.destroyForcibly();
+      }
+    }
+  }
+
+  public void testOnExit() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyProcess process = new PtyProcessBuilder(new String[]{"sleep", "60"}).start();
+    try {
+      CompletableFuture<Process> onExit = process.onExit();
+      CompletableFuture<String> continuationThread = onExit.thenApply(p -> Thread.currentThread().getName());
+      assertFalse(process.waitFor(100, TimeUnit.MILLISECONDS));
+      assertFalse(onExit.isDone());
+      assertTrue(process.isAlive());
+
+      process.destroy();
+      assertSame(process, onExit.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertTrue(process.waitFor(0, TimeUnit.SECONDS));
+      assertFalse(process.isAlive());
+      assertEquals(128 + PtyHelpers.SIGTERM, process.exitValue());
+      assertFalse(continuationThread.get().startsWith("PtyProcess Reaper"));
+      // a completed process
+      assertSame(process, process.onExit().getNow(null));
+    }
+    finally {
+      process.destroyForcibly();
+    }
+  }
+
+  public void testExitCode() {
+    assertEquals(0, ProcessReaper.toExitCode(0));
+    assertEquals(3, ProcessReaper.toExitCode(3 << 8));
+    assertEquals(128 + 9, ProcessReaper.toExitCode(9));
+    // core dumped
+    assertEquals(128 + 11, ProcessReaper.toExitCode(0x80 | 11));
+  }
+
+  private static int countReaperThreads() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("PtyProcess Reaper")) count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,196 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyChannel}.
+ */
+public class PtyChannelTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  private Pty myPty;
+  private int mySlaveFD;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+    if (Platform.isWindows()) return;
+    myPty = new Pty();
+    mySlaveFD = JTermios.open(myPty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + myPty.getSlaveName(), mySlaveFD >= 0);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (myPty != null) {
+      JTermios.close(mySlaveFD);
+      myPty.close();
+    }
+    super.tearDown();
+  }
+
+  public void testScatteringReadIntoDirectBuffers() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] output = "Hello, World".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(output.length, JTermios.write(mySlaveFD, output, output.length));
+
+    ByteBuffer first = ByteBuffer.allocateDirect(5);
+    ByteBuffer second = ByteBuffer.allocateDirect(64);
+    long count = 0;
+    while (count < output.length) {
+      count += myPty.getChannel().read(new ByteBuffer[]{first, second});
+    }
+    assertEquals(output.length, count);
+    assertEquals("Hello, World", toString(first.flip()) + toString(second.flip()));
+  }
+
+  public void testReadIntoReadOnlyBuffers() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] output = "Hello".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(output.length, JTermios.write(mySlaveFD, output, output.length));
+
+    ByteBuffer readOnlyDirect = ByteBuffer.allocateDirect(16).asReadOnlyBuffer();
+    ByteBuffer readOnlyHeap = ByteBuffer.allocate(16).asReadOnlyBuffer();
+    for (ByteBuffer dst : new ByteBuffer[]{readOnlyDirect, readOnlyHeap}) {
+      try {
+        myPty.getChannel().read(dst);
+        fail("read into " + dst);
+      }
+      catch (ReadOnlyBufferException ignored) {
+      }
+    }
+    try {
+      myPty.getChannel().read(new ByteBuffer[]{ByteBuffer.allocateDirect(2), readOnlyDirect});
+      fail("scattering read into " + readOnlyDirect);
+    }
+    catch (ReadOnlyBufferException ignored) {
+    }
+    // nothing has been consumed
+    ByteBuffer dst = ByteBuffer.allocate(16);
+    while (dst.position() < output.length) {
+      myPty.getChannel().read(dst);
+    }
+    assertEquals("Hello", toString(dst.flip()));
+  }
+
+  public void testWriteDirectBuffer() throws Exception {
+    if (Platform.isWindows()) return;
+    ByteBuffer input = ByteBuffer.allocateDirect(16).put("echo\n".getBytes(StandardCharsets.US_ASCII)).flip();
+    assertEquals(5, myPty.getChannel().write(input));
+    assertFalse(input.hasRemaining());
+
+    byte[] buf = new byte[16];
+    int count = JTermios.read(mySlaveFD, buf, buf.length);
+    assertEquals("echo\n", new String(buf, 0, count, StandardCharsets.US_ASCII));
+  }
+
+  public void testInterruptBlockedRead() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyChannel channel = myPty.getChannel();
+    CompletableFuture<Thread> readerThread = new CompletableFuture<>();
+    CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+      readerThread.complete(Thread.currentThread());
+      try {
+        return channel.read(ByteBuffer.allocateDirect(16));
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, runnable -> new Thread(runnable, "Blocked pty reader").start());
+
+    Thread.sleep(200); // let the reader block
+    readerThread.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS).interrupt();
+    assertBlockedCallFailed(read, ClosedByInterruptException.class);
+    assertFalse(channel.isOpen());
+    assertTrue(myPty.isClosed());
+  }
+
+  public void testCloseUnblocksRead() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyChannel channel = myPty.getChannel();
+    CompletableFuture<Integer> read = CompletableFuture.supplyAsync(() -> {
+      try {
+        return channel.read(ByteBuffer.allocate(16));
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, runnable -> new Thread(runnable, "Blocked pty reader").start());
+
+    Thread.sleep(200); // let the reader block
+    channel.close();
+    assertBlockedCallFailed(read, AsynchronousCloseException.class);
+    assertTrue(myPty.isClosed());
+  }
+
+  public void testInterruptBlockedWrite() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyChannel channel = myPty.getChannel();
+    CompletableFuture<Thread> writerThread = new CompletableFuture<>();
+    CompletableFuture<Integer> write = CompletableFuture.supplyAsync(() -> {
+      writerThread.complete(Thread.currentThread());
+      try {
+        // much more than the tty input buffer takes, as nothing reads the slave
+        return channel.write(ByteBuffer.allocateDirect(16 * 1024 * 1024));
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, runnable -> new Thread(runnable, "Blocked pty writer").start());
+
+    Thread.sleep(200); // let the writer block
+    assertFalse(write.isDone());
+    writerThread.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS).interrupt();
+    assertBlockedCallFailed(write, ClosedByInterruptException.class);
+    assertFalse(channel.isOpen());
+    assertTrue(myPty.isClosed());
+  }
+
+  public void testCloseUnblocksWrite() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyChannel channel = myPty.getChannel();
+    CompletableFuture<Long> write = CompletableFuture.supplyAsync(() -> {
+      try {
+        return channel.write(new ByteBuffer[]{ByteBuffer.allocateDirect(8 * 1024 * 1024),
+          ByteBuffer.allocateDirect(8 * 1024 * 1024)});
+      }
+      catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, runnable -> new Thread(runnable, "Blocked pty writer").start());
+
+    Thread.sleep(200); // let the writer block
+    assertFalse(write.isDone());
+    channel.close();
+    assertBlockedCallFailed(write, AsynchronousCloseException.class);
+    assertTrue(myPty.isClosed());
+  }
+
+  private static void assertBlockedCallFailed(CompletableFuture<?> call, Class<?> exceptionClass) throws Exception {
+    try {
+      fail("Returned " + call.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause().getCause();
+      assertTrue("Unexpected exception: " + cause, exceptionClass.isInstance(cause));
+    }
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    return StandardCharsets.US_ASCII.decode(buffer).toString();
+  }
+}
@@ -0,0 +1,142 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import jtermios.JTermios;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares reading the output of many ptys with {@link PtyEventLoop} and with a thread per {@link PTYInputStream}.
+ * Linux only, not a part of the test suite.
+ * <p>
+ * Usage: {@code PtyEventLoopBenchmark [sessions,...] [chunks per session] [chunk size] [loop threads]},
+ * defaults to {@code 1000,5000 100 1024 4}. Every session takes 4 fds, and the number of ptys is limited by
+ * {@code /proc/sys/kernel/pty/max}, so raise both limits before running with 5k sessions.
+ */
+public class PtyEventLoopBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    TestUtil.setLocalPtyLib();
+    int[] sessionCounts = Arrays.stream((args.length > 0 ? args[0] : "1000,5000").split(","))
+      .mapToInt(Integer::parseInt).toArray();
+    int chunks = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int chunkSize = args.length > 2 ? Integer.parseInt(args[2]) : 1024;
+    int loopThreads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+    System.out.printf("%-18s %8s %10s %10s %10s%n", "mode", "sessions", "time, ms", "MB/s", "threads");
+    for (int sessions : sessionCounts) {
+      for (boolean eventLoop : new boolean[]{false, true}) {
+        Result result = run(sessions, chunks, chunkSize, eventLoop, loopThreads);
+        System.out.printf("%-18s %8d %10d %10.1f %10d%n", eventLoop ? "event loop (" + loopThreads + ")" : "thread per stream",
+                          sessions, result.myMillis, result.myBytes / 1024.0 / 1024.0 / (result.myMillis / 1000.0),
+                          result.myPeakThreads);
+      }
+    }
+  }
+
+  private static @NotNull Result run(int sessions, int chunks, int chunkSize, boolean useEventLoop, int loopThreads)
+    throws Exception {
+    ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    List<Pty> ptys = new ArrayList<>();
+    int[] slaveFDs = new int[sessions];
+    Arrays.fill(slaveFDs, -1);
+    long totalBytes = (long)sessions * chunks * chunkSize;
+    AtomicLong received = new AtomicLong();
+    CountDownLatch done = new CountDownLatch(sessions);
+    PtyEventLoop loop = useEventLoop ? new PtyEventLoop(loopThreads) : null;
+    try {
+      for (int i = 0; i < sessions; i++) {
+        Pty pty = new Pty();
+        ptys.add(pty);
+        slaveFDs[i] = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+        if (slaveFDs[i] < 0) {
+          throw new IOException("Cannot open " + pty.getSlaveName() + " for session #" + i + ", errno=" + JTermios.errno());
+        }
+      }
+      threadBean.resetPeakThreadCount();
+      long sessionBytes = (long)chunks * chunkSize;
+      for (Pty pty : ptys) {
+        if (loop != null) {
+          AtomicLong sessionReceived = new AtomicLong();
+          loop.register(pty, chunk -> {
+            int count = chunk.remaining();
+            received.addAndGet(count);
+            if (sessionReceived.addAndGet(count) == sessionBytes) {
+              done.countDown();
+            }
+          });
+        }
+        else {
+          Thread reader = new Thread(() -> readStream(pty.getInputStream(), sessionBytes, received, done),
+                                     "Reader " + pty.getSlaveName());
+          reader.setDaemon(true);
+          reader.start();
+        }
+      }
+
+      byte[] chunk = new byte[chunkSize];
+      Arrays.fill(chunk, (byte)'x');
+      long start = System.nanoTime();
+      for (int c = 0; c < chunks; c++) {
+        for (int fd : slaveFDs) {
+          JTermios.write(fd, chunk, chunkSize);
+        }
+      }
+      if (!done.await(5, TimeUnit.MINUTES)) {
+        throw new IllegalStateException("Received " + received.get() + " bytes of " + totalBytes);
+      }
+      long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      return new Result(millis, received.get(), threadBean.getPeakThreadCount());
+    }
+    finally {
+      if (loop != null) {
+        loop.close();
+      }
+      for (int fd : slaveFDs) {
+        if (fd >= 0) JTermios.close(fd);
+      }
+      for (Pty pty : ptys) {
+        pty.close();
+      }
+    }
+  }
+
+  private static void readStream(@NotNull InputStream in, long sessionBytes, @NotNull AtomicLong received,
+                                 @NotNull CountDownLatch done) {
+    byte[] buf = new byte[64 * 1024];
+    long sessionReceived = 0;
+    try {
+      while (sessionReceived < sessionBytes) {
+        int count = in.read(buf);
+        if (count < 0) return;
+        sessionReceived += count;
+        received.addAndGet(count);
+      }
+      done.countDown();
+    }
+    catch (IOException ignored) {
+    }
+  }
+
+  private static class Result {
+    private final long myMillis;
+    private final long myBytes;
+    private final int myPeakThreads;
+
+    private Result(long millis, long bytes, int peakThreads) {
+      myMillis = millis;
+      myBytes = bytes;
+      myPeakThreads = peakThreads;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.pty4j.WinSize;
+import com.pty4j.util.Scrollback;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyEventLoop}.
+ */
+public class PtyEventLoopTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+  private static final int PTY_COUNT = 32;
+  private static final int MESSAGES_PER_PTY = 20;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testDispatchOutputOfManyPtys() throws Exception {
+    if (!Platform.isLinux()) return;
+    List<Pty> ptys = new ArrayList<>();
+    List<Integer> slaveFDs = new ArrayList<>();
+    List<CollectingHandler> handlers = new ArrayList<>();
+    try (PtyEventLoop loop = new PtyEventLoop(2)) {
+      for (int i = 0; i < PTY_COUNT; i++) {
+        Pty pty = new Pty();
+        ptys.add(pty);
+        slaveFDs.add(openSlave(pty));
+        CollectingHandler handler = new CollectingHandler();
+        handlers.add(handler);
+        loop.register(pty, handler);
+      }
+      assertEquals(PTY_COUNT, loop.getRegistrationCount());
+
+      StringBuilder expected = new StringBuilder();
+      for (int message = 0; message < MESSAGES_PER_PTY; message++) {
+        expected.append("message ").append(message).append(';');
+        for (int i = 0; i < PTY_COUNT; i++) {
+          byte[] bytes = ("message " + message + ";").getBytes(StandardCharsets.US_ASCII);
+          assertEquals(bytes.length, JTermios.write(slaveFDs.get(i), bytes, bytes.length));
+        }
+      }
+      for (CollectingHandler handler : handlers) {
+        handler.awaitOutput(expected.toString());
+      }
+
+      for (int fd : slaveFDs) {
+        JTermios.close(fd);
+      }
+      slaveFDs.clear();
+      for (CollectingHandler handler : handlers) {
+        assertTrue("EOF hasn't been reported", handler.myEof.await(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      }
+      assertEquals(0, loop.getRegistrationCount());
+    }
+    finally {
+      for (int fd : slaveFDs) {
+        JTermios.close(fd);
+      }
+      for (Pty pty : ptys) {
+        pty.close();
+      }
+    }
+  }
+
+  public void testCancelledRegistrationReceivesNothing() throws Exception {
+    if (!Platform.isLinux()) return;
+    Pty pty = new Pty();
+    int slaveFD = openSlave(pty);
+    try (PtyEventLoop loop = new PtyEventLoop(1)) {
+      CollectingHandler handler = new CollectingHandler();
+      PtyEventLoop.Registration registration = loop.register(pty, handler);
+      byte[] bytes = "first".getBytes(StandardCharsets.US_ASCII);
+      JTermios.write(slaveFD, bytes, bytes.length);
+      handler.awaitOutput("first");
+
+      registration.close();
+      assertEquals(0, loop.getRegistrationCount());
+      bytes = "second".getBytes(StandardCharsets.US_ASCII);
+      JTermios.write(slaveFD, bytes, bytes.length);
+      Thread.sleep(200);
+      assertEquals("first", handler.getOutput());
+
+      // the output is still there for the other readers
+      byte[] buf = new byte[16];
+      int count = pty.getInputStream().read(buf);
+      assertEquals("second", new String(buf, 0, count, StandardCharsets.US_ASCII));
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+  }
+
+  public void testRecorderGetsDispatchedOutput() throws Exception {
+    if (!Platform.isLinux()) return;
+    Path path = Files.createTempFile("event-loop", ".cast");
+    Pty pty = new Pty();
+    int slaveFD = openSlave(pty);
+    try (PtyEventLoop loop = new PtyEventLoop(1)) {
+      try (SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096)) {
+        pty.setRecorder(recorder);
+        CollectingHandler handler = new CollectingHandler();
+        loop.register(pty, handler);
+        byte[] bytes = "recorded".getBytes(StandardCharsets.US_ASCII);
+        JTermios.write(slaveFD, bytes, bytes.length);
+        handler.awaitOutput("recorded");
+      }
+      String cast = String.join("\n", Files.readAllLines(path, StandardCharsets.UTF_8));
+      assertTrue(cast, cast.contains("\"o\", \"recorded\""));
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+      Files.delete(path);
+    }
+  }
+
+  public void testScrollbackGetsDispatchedOutput() throws Exception {
+    if (!Platform.isLinux()) return;
+    Pty pty = new Pty();
+    int slaveFD = openSlave(pty);
+    try (PtyEventLoop loop = new PtyEventLoop(1)) {
+      Scrollback scrollback = new Scrollback(1024, 10);
+      pty.setScrollback(scrollback);
+      CollectingHandler handler = new CollectingHandler();
+      loop.register(pty, handler);
+      byte[] bytes = "first\nsecond".getBytes(StandardCharsets.US_ASCII);
+      JTermios.write(slaveFD, bytes, bytes.length);
+      // the tty translates '\n' to "\r\n"
+      handler.awaitOutput("first\r\nsecond");
+
+      assertEquals(1, scrollback.getLastLine());
+      ByteBuffer line = ByteBuffer.allocate(16);
+      scrollback.copyLine(0, line);
+      assertEquals("first\r\n", StandardCharsets.US_ASCII.decode(line.flip()).toString());
+      assertEquals(6, scrollback.getLineLength(1));
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+  }
+
+  private static int openSlave(@NotNull Pty pty) {
+    int fd = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + pty.getSlaveName(), fd >= 0);
+    return fd;
+  }
+
+  private static class CollectingHandler implements PtyEventLoop.Handler {
+    private final ByteArrayOutputStream myOutput = new ByteArrayOutputStream();
+    private final CountDownLatch myEof = new CountDownLatch(1);
+
+    @Override
+    public synchronized void onOutput(@NotNull ByteBuffer chunk) {
+      while (chunk.hasRemaining()) {
+        myOutput.write(chunk.get());
+      }
+      notifyAll();
+    }
+
+    @Override
+    public void onEof() {
+      myEof.countDown();
+    }
+
+    synchronized @NotNull String getOutput() {
+      return myOutput.toString(StandardCharsets.US_ASCII);
+    }
+
+    synchronized void awaitOutput(@NotNull String expected) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_TIMEOUT_SECONDS);
+      while (!getOutput().equals(expected)) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remainingMillis <= 0) {
+          assertEquals(expected, getOutput());
+        }
+        wait(remainingMillis);
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.pty4j.util.ExpectMatcher;
+import com.pty4j.util.ExpectPatterns;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyExpect}.
+ */
+public class PtyExpectTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testDialog() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{
+      "/bin/sh", "-c", "seq 1 20000; printf 'Name: '; read name; echo \"Hello, $name\"; echo 'exit code 3'"
+    }).start();
+    try (PtyExpect expect = process.newExpect(1024)) {
+      ExpectMatcher.Match match = expect.expect("Name: ", WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(match);
+      assertEquals(match.getStart() + 6, match.getEnd());
+      assertTrue(expect.getPosition() > 100000);
+
+      OutputStream input = process.getOutputStream();
+      input.write("World\n".getBytes(StandardCharsets.US_ASCII));
+      input.flush();
+      ExpectPatterns patterns = new ExpectPatterns.Builder().literal("Goodbye").regex("exit code (\\d+)").build();
+      match = expect.expect(patterns, WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(match);
+      assertEquals("3", match.getGroup(1));
+
+      try {
+        expect.expect("never", WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        fail("the output should end without a match");
+      }
+      catch (EOFException ignored) {
+      }
+    }
+    PtyTest.assertProcessTerminatedNormally(process);
+  }
+
+  public void testPromptsInOneChunk() throws Exception {
+    if (Platform.isWindows()) return;
+    // both prompts are written at once, followed by more output than fits in the window
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{
+      "/bin/sh", "-c", "printf 'first> second> %0200d\\n' 0"
+    }).start();
+    try (PtyExpect expect = process.newExpect(16)) {
+      assertNotNull(expect.expect("first> ", WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      ExpectMatcher.Match match = expect.expect("second> ", WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(match);
+      assertEquals(7, match.getStart());
+    }
+    PtyTest.assertProcessTerminatedNormally(process);
+  }
+
+  public void testTimeout() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(
+      new String[]{"/bin/sh", "-c", "echo ready; exec sleep 100"}).start();
+    try (PtyExpect expect = process.newExpect(1024)) {
+      assertNotNull(expect.expect("ready", WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      long start = System.nanoTime();
+      assertNull(expect.expect("never", 200, TimeUnit.MILLISECONDS));
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+    finally {
+      process.destroy();
+      process.waitFor(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyInputWriter}.
+ */
+public class PtyInputWriterTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testWrite() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"cat"}).start();
+    PtyTest.Gobbler stdout = PtyTest.startStdoutGobbler(process);
+    PtyInputWriter writer = process.newInputWriter(16);
+
+    CompletableFuture<Void> first = writer.write("Hello\n".getBytes(StandardCharsets.US_ASCII));
+    CompletableFuture<Void> second = writer.write("World\n".getBytes(StandardCharsets.US_ASCII));
+    second.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertTrue(first.isDone());
+    // echoed by the tty and printed by cat, in either order
+    awaitOutputLength(stdout, 28);
+    assertEquals(stdout.getOutput(), 2, stdout.getOutput().split("Hello\r\n", -1).length - 1);
+    assertEquals(stdout.getOutput(), 2, stdout.getOutput().split("World\r\n", -1).length - 1);
+    assertEquals(12, writer.getWrittenBytes());
+    assertEquals(0, writer.getQueuedBytes());
+    assertTrue(writer.getDrainRate() > 0);
+
+    writer.close();
+    PtyHelpers.getInstance().kill((int)process.pid(), PtyHelpers.SIGPIPE);
+    PtyTest.assertProcessTerminatedBySignal(PtyHelpers.SIGPIPE, process);
+  }
+
+  public void testByteBudget() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"cat"}).start();
+    PtyInputWriter writer = process.newInputWriter(4);
+
+    CompletableFuture<Void> future = writer.write("Hello\n".getBytes(StandardCharsets.US_ASCII));
+    try {
+      future.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      fail("the write should exceed the budget");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(0, writer.getQueuedCount());
+
+    writer.close();
+    process.destroy();
+    process.waitFor(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  public void testInterrupt() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(
+      new String[]{"/bin/sh", "-c", "echo ready; exec sleep 100"}).start();
+    PtyTest.Gobbler stdout = PtyTest.startStdoutGobbler(process);
+    // the signal would be lost before the child gets the controlling tty
+    stdout.assertEndsWith("ready\r\n");
+    PtyInputWriter writer = process.newInputWriter(1024);
+
+    writer.write("ignored\n".getBytes(StandardCharsets.US_ASCII));
+    writer.interrupt().get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    PtyTest.assertProcessTerminatedBySignal(PtyHelpers.SIGINT, process);
+    stdout.awaitFinish();
+    writer.close();
+  }
+
+  public void testCloseEndsBlockedDrain() throws Exception {
+    if (Platform.isWindows()) return;
+    Pty pty = new Pty();
+    // nothing reads the slave, so the tty input buffer fills up
+    int slaveFD = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + pty.getSlaveName(), slaveFD >= 0);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      PtyInputWriter writer = new PtyInputWriter(pty, 64 * 1024 * 1024, executor);
+      CompletableFuture<Void> write = writer.write(ByteBuffer.allocateDirect(16 * 1024 * 1024));
+      Thread.sleep(200);
+      assertFalse(write.isDone());
+      writer.close();
+      assertWriteFailed(write);
+      // the drain loop has been woken up, instead of waiting for the child to read
+      Future<?> next = executor.submit(() -> {});
+      next.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+      writer = new PtyInputWriter(pty, 64 * 1024 * 1024, executor);
+      write = writer.write(ByteBuffer.allocateDirect(16 * 1024 * 1024));
+      Thread.sleep(200);
+      assertFalse(write.isDone());
+      pty.close();
+      assertWriteFailed(write);
+    }
+    finally {
+      executor.shutdownNow();
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+  }
+
+  private static void assertWriteFailed(CompletableFuture<Void> write) throws Exception {
+    try {
+      write.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      fail("The write has completed");
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  private static void awaitOutputLength(PtyTest.Gobbler gobbler, int length) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_TIMEOUT_SECONDS);
+    while (gobbler.getOutput().length() < length && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(gobbler.getOutput(), length, gobbler.getOutput().length());
+  }
+}
@@ -0,0 +1,77 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyOutputBroadcaster}.
+ */
+public class PtyOutputBroadcasterTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testSlowSubscriberIsDropped() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"seq", "1", "100000"}).start();
+    PtyOutputBroadcaster broadcaster = process.newOutputBroadcaster(4, 1024);
+    PtyOutputBroadcaster.Subscription fast = broadcaster.subscribe(PtyOutputBroadcaster.OverflowPolicy.BLOCK);
+    PtyOutputBroadcaster.Subscription idle = broadcaster.subscribe(PtyOutputBroadcaster.OverflowPolicy.DROP);
+    broadcaster.start();
+
+    String output = consumeAll(fast);
+    assertTrue(output, output.startsWith("1\r\n2\r\n"));
+    assertTrue(output.endsWith("\r\n99999\r\n100000\r\n"));
+    assertNull(broadcaster.getError());
+    PtyTest.assertProcessTerminatedNormally(process);
+
+    // only the last chunks are left for the idle subscription
+    assertTrue(idle.getDroppedCount() > 0);
+    assertEquals(broadcaster.getPublishedCount(), idle.getDroppedCount() + idle.getLag());
+    assertTrue(idle.getLag() <= 4);
+    String tail = consumeAll(idle);
+    assertTrue(tail, tail.endsWith("\r\n100000\r\n"));
+  }
+
+  public void testSlowSubscriberBlocksReading() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"seq", "1", "100000"}).start();
+    PtyOutputBroadcaster broadcaster = process.newOutputBroadcaster(4, 1024);
+    PtyOutputBroadcaster.Subscription slow = broadcaster.subscribe(PtyOutputBroadcaster.OverflowPolicy.BLOCK);
+    broadcaster.start();
+
+    assertFalse("the child should be blocked on the full tty", process.waitFor(500, TimeUnit.MILLISECONDS));
+    assertEquals(4, slow.getLag());
+
+    String output = consumeAll(slow);
+    assertTrue(output.endsWith("\r\n99999\r\n100000\r\n"));
+    PtyTest.assertProcessTerminatedNormally(process);
+  }
+
+  private static String consumeAll(PtyOutputBroadcaster.Subscription subscription) throws InterruptedException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] bytes = new byte[1024];
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_TIMEOUT_SECONDS);
+    while (!subscription.isEnded() && System.nanoTime() < deadline) {
+      subscription.consume(chunk -> {
+        int length = chunk.remaining();
+        chunk.get(bytes, 0, length);
+        output.write(bytes, 0, length);
+      }, 100, TimeUnit.MILLISECONDS);
+    }
+    assertTrue(subscription.isEnded());
+    return output.toString(StandardCharsets.US_ASCII);
+  }
+}
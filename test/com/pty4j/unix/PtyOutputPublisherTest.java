@@ -0,0 +1,113 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Test cases for {@link PtyOutputPublisher}.
+ */
+public class PtyOutputPublisherTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testSlowSubscriberStopsChild() throws Exception {
+    if (Platform.isWindows()) return;
+    // much more output than a tty buffer holds
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"seq", "1", "100000"}).start();
+    CollectingSubscriber subscriber = new CollectingSubscriber();
+    process.getOutputPublisher().subscribe(subscriber);
+    subscriber.mySubscription.request(1);
+    awaitChunkCount(subscriber, 1);
+
+    assertFalse("the child should be blocked on the full tty", process.waitFor(500, TimeUnit.MILLISECONDS));
+    assertEquals(1, subscriber.myChunkCount.get());
+
+    subscriber.mySubscription.request(Long.MAX_VALUE);
+    assertTrue(subscriber.myDone.await(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertNull(subscriber.myError.get());
+    String output = subscriber.myOutput.toString(StandardCharsets.US_ASCII);
+    assertTrue(output, output.startsWith("1\r\n2\r\n"));
+    assertTrue(output.endsWith("\r\n99999\r\n100000\r\n"));
+    PtyTest.assertProcessTerminatedNormally(process);
+  }
+
+  public void testSingleSubscriber() throws Exception {
+    if (Platform.isWindows()) return;
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"echo", "hello"}).start();
+    PtyOutputPublisher publisher = process.getOutputPublisher();
+    CollectingSubscriber first = new CollectingSubscriber();
+    publisher.subscribe(first);
+    // the publisher is shared by all the callers
+    assertSame(publisher, process.getOutputPublisher());
+    CollectingSubscriber second = new CollectingSubscriber();
+    process.getOutputPublisher().subscribe(second);
+    assertTrue(second.myDone.await(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertTrue(second.myError.get() instanceof IllegalStateException);
+
+    first.mySubscription.request(Long.MAX_VALUE);
+    assertTrue(first.myDone.await(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals("hello\r\n", first.myOutput.toString(StandardCharsets.US_ASCII));
+    PtyTest.assertProcessTerminatedNormally(process);
+  }
+
+  private static void awaitChunkCount(@NotNull CollectingSubscriber subscriber, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_TIMEOUT_SECONDS);
+    while (subscriber.myChunkCount.get() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, subscriber.myChunkCount.get());
+  }
+
+  private static class CollectingSubscriber implements Flow.Subscriber<ByteBuffer> {
+    private final ByteArrayOutputStream myOutput = new ByteArrayOutputStream();
+    private final AtomicInteger myChunkCount = new AtomicInteger();
+    private final AtomicReference<Throwable> myError = new AtomicReference<>();
+    private final CountDownLatch myDone = new CountDownLatch(1);
+    private volatile Flow.Subscription mySubscription;
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      mySubscription = subscription;
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+      byte[] bytes = new byte[item.remaining()];
+      item.get(bytes);
+      synchronized (myOutput) {
+        myOutput.write(bytes, 0, bytes.length);
+      }
+      myChunkCount.incrementAndGet();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      myError.set(throwable);
+      myDone.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      myDone.countDown();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link PtyPool}.
+ */
+public class PtyPoolTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testAcquireReadyPtys() throws Exception {
+    if (Platform.isWindows()) return;
+    try (PtyPool pool = new PtyPool(4)) {
+      awaitIdleCount(pool, 4);
+      Set<String> slaveNames = new HashSet<>();
+      for (int i = 0; i < 4; i++) {
+        Pty pty = pool.acquire();
+        try {
+          assertFalse(pty.isClosed());
+          assertTrue(slaveNames.add(pty.getSlaveName()));
+        }
+        finally {
+          pty.close();
+        }
+      }
+      assertEquals(4, pool.getHitCount());
+      // refilled in the background up to the size, never more
+      awaitIdleCount(pool, 4);
+      Thread.sleep(100);
+      assertEquals(4, pool.getIdleCount());
+    }
+  }
+
+  public void testEvictIdlePtys() throws Exception {
+    if (Platform.isWindows()) return;
+    try (PtyPool pool = new PtyPool(2, 300, TimeUnit.MILLISECONDS)) {
+      awaitIdleCount(pool, 2);
+      awaitIdleCount(pool, 0);
+
+      pool.acquire().close();
+      assertEquals(1, pool.getMissCount());
+      awaitIdleCount(pool, 2);
+    }
+  }
+
+  public void testSpawnWithPool() throws Exception {
+    if (Platform.isWindows()) return;
+    try (PtyPool pool = new PtyPool(2)) {
+      awaitIdleCount(pool, 2);
+      UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"/bin/sh", "-c", "tty"})
+        .setUnixPtyPool(pool)
+        .start();
+      assertEquals(1, pool.getHitCount());
+      byte[] buf = new byte[256];
+      int count = process.getInputStream().read(buf);
+      assertEquals(process.getPty().getSlaveName(), new String(buf, 0, count).trim());
+      PtyTest.assertProcessTerminatedNormally(process);
+    }
+  }
+
+  public void testClose() throws Exception {
+    if (Platform.isWindows()) return;
+    PtyPool pool = new PtyPool(2);
+    pool.close();
+    assertEquals(0, pool.getIdleCount());
+    try {
+      pool.acquire();
+      fail("Closed pool shouldn't create ptys");
+    }
+    catch (IOException expected) {
+    }
+  }
+
+  private static void awaitIdleCount(PtyPool pool, int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_TIMEOUT_SECONDS);
+    while (pool.getIdleCount() != expected && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(expected, pool.getIdleCount());
+  }
+}
@@ -0,0 +1,78 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Checks that reading from {@link PTYInputStream} doesn't allocate in the steady state.
+ */
+public class PtyReadAllocationTest extends TestCase {
+
+  private static final int CHUNK_SIZE = 4096;
+  private static final int OFFSET = 17;
+  private static final int WARMUP_ITERATIONS = 5000;
+  private static final int MEASURED_ITERATIONS = 1000;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testSteadyStateReadDoesNotAllocate() throws Exception {
+    if (Platform.isWindows()) return;
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    if (!threadBean.isThreadAllocatedMemorySupported()) return;
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    Pty pty = new Pty();
+    int slaveFD = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + pty.getSlaveName(), slaveFD >= 0);
+    try {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      Arrays.fill(chunk, (byte)'x');
+      // read at a non-zero offset to make sure no temporary buffer is involved
+      byte[] buf = new byte[OFFSET + CHUNK_SIZE];
+
+      readChunks(threadBean, slaveFD, chunk, pty.getInputStream(), buf, WARMUP_ITERATIONS);
+      long allocated = readChunks(threadBean, slaveFD, chunk, pty.getInputStream(), buf, MEASURED_ITERATIONS);
+
+      assertEquals('x', buf[OFFSET]);
+      assertTrue("Reading " + MEASURED_ITERATIONS + " chunks of " + CHUNK_SIZE + " bytes allocated " + allocated + " bytes",
+                 allocated < 16 * 1024);
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+  }
+
+  /**
+   * @return the number of bytes allocated by the {@link PTYInputStream#read(byte[], int, int)} calls only
+   */
+  private static long readChunks(com.sun.management.ThreadMXBean threadBean, int slaveFD, byte[] chunk,
+                                 PTYInputStream in, byte[] buf, int iterations) throws IOException {
+    long threadId = Thread.currentThread().getId();
+    long measurementOverhead = threadBean.getThreadAllocatedBytes(threadId);
+    measurementOverhead = threadBean.getThreadAllocatedBytes(threadId) - measurementOverhead;
+    long allocated = 0;
+    for (int i = 0; i < iterations; i++) {
+      assertEquals(chunk.length, JTermios.write(slaveFD, chunk, chunk.length));
+      int remaining = chunk.length;
+      while (remaining > 0) {
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int count = in.read(buf, OFFSET, remaining);
+        allocated += threadBean.getThreadAllocatedBytes(threadId) - before - measurementOverhead;
+        assertTrue("Unexpected EOF", count > 0);
+        remaining -= count;
+      }
+    }
+    return allocated;
+  }
+}
@@ -0,0 +1,52 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for {@link PtyTextReader}.
+ */
+public class PtyTextReaderTest extends TestCase {
+
+  private Pty myPty;
+  private int mySlaveFD;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+    if (Platform.isWindows()) return;
+    myPty = new Pty();
+    mySlaveFD = JTermios.open(myPty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + myPty.getSlaveName(), mySlaveFD >= 0);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (myPty != null) {
+      JTermios.close(mySlaveFD);
+      myPty.close();
+    }
+    super.tearDown();
+  }
+
+  public void testJoinsSplitSequences() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] output = "caf\u00e9 \u20ac".getBytes(StandardCharsets.UTF_8);
+    PtyTextReader reader = new PtyTextReader(myPty.getChannel(), 4);
+    StringBuilder text = new StringBuilder();
+    // write a byte at a time, so every multibyte sequence is split between reads
+    for (byte b : output) {
+      assertEquals(1, JTermios.write(mySlaveFD, new byte[]{b}, 1));
+      CharBuffer chars = reader.read();
+      assertNotNull(chars);
+      text.append(chars);
+    }
+    assertEquals("caf\u00e9 \u20ac", text.toString());
+  }
+}
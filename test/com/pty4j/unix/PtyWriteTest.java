@@ -0,0 +1,104 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that bulk writes to {@link PTYOutputStream} reach the slave side completely and in order.
+ */
+public class PtyWriteTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testLargeWriteFromArrayOffset() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] data = randomBytes(1024 * 1024 + 3);
+    checkWrite(Arrays.copyOfRange(data, 3, data.length), false, out -> out.write(data, 3, data.length - 3));
+  }
+
+  public void testLargeWriteToNonBlockingMaster() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] data = randomBytes(512 * 1024);
+    checkWrite(data, true, out -> out.write(data));
+  }
+
+  public void testGatheringWriteOfDirectBuffers() throws Exception {
+    if (Platform.isWindows()) return;
+    byte[] data = randomBytes(40 * 8192 + 5);
+    ByteBuffer[] buffers = new ByteBuffer[41];
+    for (int i = 0; i < buffers.length; i++) {
+      int from = i * 8192;
+      int to = Math.min(data.length, from + 8192);
+      buffers[i] = ByteBuffer.allocateDirect(to - from).put(data, from, to - from).flip();
+    }
+    checkWrite(data, false, out -> assertEquals(data.length, out.write(buffers)));
+    for (ByteBuffer buffer : buffers) {
+      assertFalse(buffer.hasRemaining());
+    }
+  }
+
+  private static void checkWrite(byte[] expected, boolean nonBlockingMaster, @NotNull Writer writer) throws Exception {
+    Pty pty = new Pty();
+    int slaveFD = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + pty.getSlaveName(), slaveFD >= 0);
+    try {
+      setRawMode(slaveFD);
+      if (nonBlockingMaster) {
+        assertEquals(0, JTermios.fcntl(pty.getMasterFD(), JTermios.F_SETFL, JTermios.O_NONBLOCK));
+      }
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      Thread reader = new Thread(() -> {
+        byte[] buf = new byte[4096];
+        while (received.size() < expected.length) {
+          int count = JTermios.read(slaveFD, buf, buf.length);
+          if (count <= 0) return;
+          received.write(buf, 0, count);
+        }
+      }, "Pty slave reader");
+      reader.start();
+      writer.write(pty.getOutputStream());
+      reader.join(TimeUnit.SECONDS.toMillis(WAIT_TIMEOUT_SECONDS));
+      assertEquals(expected.length, received.size());
+      assertTrue("Received data differs from the written one", Arrays.equals(expected, received.toByteArray()));
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+  }
+
+  private static void setRawMode(int fd) {
+    PtyHelpers.OSFacade facade = PtyHelpers.getInstance();
+    PtyHelpers.TerminalSettings settings = new PtyHelpers.TerminalSettings();
+    assertEquals(0, facade.tcgetattr(fd, settings));
+    settings.c_iflag &= ~(JTermios.ICRNL | JTermios.IXON | JTermios.IXANY | JTermios.BRKINT);
+    settings.c_oflag &= ~JTermios.OPOST;
+    settings.c_lflag &= ~(JTermios.ICANON | JTermios.ECHO | JTermios.ECHOE | JTermios.ISIG | JTermios.IEXTEN);
+    assertEquals(0, facade.tcsetattr(fd, JTermios.TCSANOW, settings));
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] result = new byte[size];
+    new Random(size).nextBytes(result);
+    return result;
+  }
+
+  private interface Writer {
+    void write(@NotNull PTYOutputStream out) throws Exception;
+  }
+}
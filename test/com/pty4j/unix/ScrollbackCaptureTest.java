@@ -0,0 +1,62 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.pty4j.util.Scrollback;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for capturing the output read from a {@link Pty} into a {@link Scrollback}.
+ */
+public class ScrollbackCaptureTest extends TestCase {
+
+  private Pty myPty;
+  private int mySlaveFD;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+    if (Platform.isWindows()) return;
+    myPty = new Pty();
+    mySlaveFD = JTermios.open(myPty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + myPty.getSlaveName(), mySlaveFD >= 0);
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    if (myPty != null) {
+      JTermios.close(mySlaveFD);
+      myPty.close();
+    }
+    super.tearDown();
+  }
+
+  public void testScatteringReadIsCaptured() throws Exception {
+    if (Platform.isWindows()) return;
+    Scrollback scrollback = new Scrollback(1024, 10);
+    myPty.setScrollback(scrollback);
+    byte[] output = "Hello\nWorld".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(output.length, JTermios.write(mySlaveFD, output, output.length));
+
+    ByteBuffer[] buffers = {ByteBuffer.allocateDirect(3), ByteBuffer.allocateDirect(64)};
+    long count = 0;
+    while (count < output.length) {
+      count += myPty.getChannel().read(buffers);
+    }
+    // the tty translates '\n' to "\r\n"
+    assertEquals(1, scrollback.getLastLine());
+    ByteBuffer line = ByteBuffer.allocate(16);
+    scrollback.copyLine(0, line);
+    assertEquals("Hello\r\n", toString(line.flip()));
+    assertEquals(5, scrollback.getLineLength(1));
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    return StandardCharsets.US_ASCII.decode(buffer).toString();
+  }
+}
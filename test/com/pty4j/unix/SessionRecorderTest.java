@@ -0,0 +1,236 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.pty4j.WinSize;
+import com.sun.jna.Platform;
+import jtermios.JTermios;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Test cases for {@link SessionRecorder}.
+ */
+public class SessionRecorderTest extends TestCase {
+
+  private static final Pattern EVENT = Pattern.compile("\\[(\\d+\\.\\d{6}), \"([oir])\", \"(.*)\"]");
+
+  private Path myDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+    myDir = Files.createTempDirectory("recorder");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try (Stream<Path> files = Files.list(myDir)) {
+      for (Path file : (Iterable<Path>)files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testEvents() throws Exception {
+    Path path = myDir.resolve("session.cast");
+    SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096);
+    byte[] output = "h\u00e9llo \"\u001b[0m\\\r\n".getBytes(StandardCharsets.UTF_8);
+    // split in the middle of the two bytes of the e-acute
+    recorder.recordOutput(output, 0, 2);
+    recorder.recordOutput(output, 2, output.length - 2);
+    recorder.recordInput(new byte[]{'l', 's', '\r', (byte)0xFF}, 0, 4);
+    recorder.recordResize(new WinSize(100, 30));
+    recorder.close();
+
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    assertTrue(lines.get(0), lines.get(0).matches("\\{\"version\": 2, \"width\": 80, \"height\": 24, \"timestamp\": \\d+}"));
+    assertEquals(List.of("o:h", "o:\u00e9llo \"\u001b[0m\\\r\n", "i:ls\r\ufffd", "r:100x30"), events(lines));
+    assertTrue(lines.get(2), lines.get(2).contains("\"\u00e9llo \\\"\\u001b[0m\\\\\\r\\n\""));
+  }
+
+  public void testInvalidSequencesAreReplaced() throws Exception {
+    Path path = myDir.resolve("session.cast");
+    SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096);
+    recorder.recordOutput(ByteBuffer.wrap(new byte[]{
+      'a', (byte)0xED, (byte)0xA0, (byte)0x80, // a surrogate
+      'b', (byte)0xE0, (byte)0x80, (byte)0x80, // overlong
+      'c', (byte)0xF0, (byte)0x80, (byte)0x80, (byte)0x80, // overlong
+      'd', (byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80, // above U+10FFFF
+      'e', (byte)0xF0, (byte)0x9F, (byte)0x98, (byte)0x80, (byte)0xED, (byte)0x9F, (byte)0xBF // U+1F600, U+D7FF
+    }));
+    // split between the chunks
+    recorder.recordOutput(ByteBuffer.wrap(new byte[]{(byte)0xED}));
+    recorder.recordOutput(ByteBuffer.wrap(new byte[]{(byte)0xA0, (byte)0x80, 'f'}));
+    recorder.recordOutput(ByteBuffer.wrap(new byte[]{(byte)0xF0, (byte)0x9F}));
+    recorder.recordOutput(ByteBuffer.wrap(new byte[]{(byte)0x98, (byte)0x80}));
+    recorder.close();
+
+    // fails if the file isn't valid UTF-8
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    assertEquals(List.of("o:a\ufffd\ufffd\ufffdb\ufffd\ufffd\ufffdc\ufffd\ufffd\ufffd\ufffd" +
+                         "d\ufffd\ufffd\ufffd\ufffde\ud83d\ude00\ud7ff",
+                         "o:\ufffd\ufffd\ufffdf",
+                         "o:\ud83d\ude00"), events(lines));
+  }
+
+  public void testSegmentRotation() throws Exception {
+    Path path = myDir.resolve("session.cast");
+    SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      byte[] line = ("line " + i + "\r\n").getBytes(StandardCharsets.US_ASCII);
+      recorder.recordOutput(line, 0, line.length);
+      expected.append("line ").append(i).append("\r\n");
+    }
+    recorder.close();
+
+    assertTrue(recorder.getSegmentCount() > 3);
+    assertEquals(myDir.resolve("session.2.cast"), recorder.getSegmentPath(2));
+    StringBuilder actual = new StringBuilder();
+    for (int i = 0; i < recorder.getSegmentCount(); i++) {
+      List<String> lines = Files.readAllLines(recorder.getSegmentPath(i), StandardCharsets.UTF_8);
+      assertTrue(lines.get(0).startsWith("{\"version\": 2"));
+      assertTrue(Files.size(recorder.getSegmentPath(i)) <= 4096);
+      for (String event : events(lines)) {
+        actual.append(event.substring(2));
+      }
+    }
+    assertEquals(expected.toString(), actual.toString());
+  }
+
+  public void testProcessIsRecorded() throws Exception {
+    if (Platform.isWindows()) return;
+    Path path = myDir.resolve("session.cast");
+    UnixPtyProcess process = (UnixPtyProcess)new PtyProcessBuilder(new String[]{"cat"}).start();
+    SessionRecorder recorder = new SessionRecorder(path, process.getWinSize(), 64 * 1024);
+    process.setRecorder(recorder);
+    PtyTest.Gobbler stdout = PtyTest.startStdoutGobbler(process);
+
+    PtyTest.writeToStdinAndFlush(process, "Hello", true);
+    stdout.assertEndsWith("Hello\r\nHello\r\n");
+    process.setWinSize(new WinSize(90, 20));
+    PtyHelpers.getInstance().kill((int)process.pid(), PtyHelpers.SIGPIPE);
+    PtyTest.assertProcessTerminatedBySignal(PtyHelpers.SIGPIPE, process);
+    stdout.awaitFinish();
+    recorder.close();
+
+    List<String> events = events(Files.readAllLines(path, StandardCharsets.UTF_8));
+    assertTrue(events.toString(), events.contains("i:Hello\r"));
+    assertTrue(events.toString(), events.contains("r:90x20"));
+    StringBuilder output = new StringBuilder();
+    for (String event : events) {
+      if (event.startsWith("o:")) {
+        output.append(event.substring(2));
+      }
+    }
+    assertEquals("Hello\r\nHello\r\n", output.toString());
+  }
+
+  public void testOnlyWrittenInputIsRecorded() throws Exception {
+    if (Platform.isWindows()) return;
+    Path path = myDir.resolve("session.cast");
+    SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 16 * 1024 * 1024);
+    Pty pty = new Pty();
+    int slaveFD = JTermios.open(pty.getSlaveName(), JTermios.O_RDWR | JTermios.O_NOCTTY);
+    assertTrue("Cannot open " + pty.getSlaveName(), slaveFD >= 0);
+    byte[] input = new byte[16 * 1024 * 1024];
+    Arrays.fill(input, (byte)'x');
+    try {
+      pty.setRecorder(recorder);
+      // nothing reads the slave, so the write blocks once the tty input buffer is full, and fails on close
+      CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+        try {
+          pty.write(input, 0, input.length);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      Thread.sleep(200);
+      pty.close();
+      try {
+        write.get(TestUtil.getTestWaitTimeoutSeconds(), TimeUnit.SECONDS);
+        fail("The write has completed");
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof UncheckedIOException);
+      }
+    }
+    finally {
+      JTermios.close(slaveFD);
+      pty.close();
+    }
+    recorder.close();
+
+    int recorded = 0;
+    for (int i = 0; i < recorder.getSegmentCount(); i++) {
+      for (String event : events(Files.readAllLines(recorder.getSegmentPath(i), StandardCharsets.UTF_8))) {
+        assertTrue(event.startsWith("i:x"));
+        recorded += event.length() - 2;
+      }
+    }
+    assertTrue("Recorded " + recorded + " bytes", recorded > 0 && recorded < input.length);
+  }
+
+  /**
+   * @return the events as "type:data", checking that the times don't decrease
+   */
+  private static List<String> events(List<String> lines) {
+    List<String> events = new ArrayList<>();
+    double time = 0;
+    for (String line : lines.subList(1, lines.size())) {
+      Matcher matcher = EVENT.matcher(line);
+      assertTrue(line, matcher.matches());
+      double eventTime = Double.parseDouble(matcher.group(1));
+      assertTrue(eventTime >= time);
+      time = eventTime;
+      events.add(matcher.group(2) + ":" + unescape(matcher.group(3)));
+    }
+    return events;
+  }
+
+  private static String unescape(String json) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0; i < json.length(); i++) {
+      char c = json.charAt(i);
+      if (c != '\\') {
+        result.append(c);
+        continue;
+      }
+      c = json.charAt(++i);
+      switch (c) {
+        case 'n': result.append('\n'); break;
+        case 'r': result.append('\r'); break;
+        case 't': result.append('\t'); break;
+        case 'b': result.append('\b'); break;
+        case 'f': result.append('\f'); break;
+        case 'u':
+          result.append((char)Integer.parseInt(json.substring(i + 1, i + 5), 16));
+          i += 4;
+          break;
+        default: result.append(c);
+      }
+    }
+    return result.toString();
+  }
+}
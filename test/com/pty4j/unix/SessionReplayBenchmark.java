@@ -0,0 +1,40 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Replays a recorded session at full speed to a consumer which only touches the bytes, and prints the throughput and
+ * the latency of each run. Not a part of the test suite.
+ * <p>
+ * Usage: {@code SessionReplayBenchmark <recording.cast> [runs]}, defaults to 10 runs.
+ */
+public class SessionReplayBenchmark {
+  private static volatile long ourChecksum;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0) {
+      System.err.println("Usage: SessionReplayBenchmark <recording.cast> [runs]");
+      System.exit(1);
+    }
+    TestUtil.setLocalPtyLib();
+    Path path = Paths.get(args[0]);
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    SessionReplayer replayer = SessionReplayer.load(path);
+    System.out.printf("%s: %d bytes in %d output events%n", path, replayer.getOutputSize(),
+                      replayer.getOutputEventCount());
+    for (int run = 1; run <= runs; run++) {
+      SessionReplayer.Report report = replayer.replay(chunk -> {
+        long checksum = 0;
+        while (chunk.hasRemaining()) {
+          checksum += chunk.get();
+        }
+        ourChecksum += checksum;
+      }, false);
+      System.out.printf("run %2d: %s%n", run, report);
+    }
+  }
+}
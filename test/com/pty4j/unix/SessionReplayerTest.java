@@ -0,0 +1,112 @@
+package com.pty4j.unix;
+
+import com.pty4j.TestUtil;
+import com.pty4j.WinSize;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Test cases for {@link SessionReplayer}.
+ */
+public class SessionReplayerTest extends TestCase {
+
+  private Path myDir;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+    myDir = Files.createTempDirectory("replayer");
+  }
+
+  @Override
+  public void tearDown() throws Exception {
+    try (Stream<Path> files = Files.list(myDir)) {
+      for (Path file : (Iterable<Path>)files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testReplayAtFullSpeed() throws Exception {
+    if (Platform.isWindows()) return;
+    Path path = myDir.resolve("session.cast");
+    StringBuilder expected = new StringBuilder();
+    try (SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096)) {
+      for (int i = 0; i < 2000; i++) {
+        String line = "line \u00e9 " + i + "\r\n";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        recorder.recordOutput(bytes, 0, bytes.length);
+        recorder.recordInput(new byte[]{'x'}, 0, 1);
+        if (i == 1000) {
+          recorder.recordResize(new WinSize(100, 30));
+        }
+        expected.append(line);
+      }
+      assertTrue(recorder.getSegmentCount() > 1);
+    }
+
+    SessionReplayer replayer = SessionReplayer.load(path);
+    assertEquals(2000, replayer.getOutputEventCount());
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] bytes = new byte[64 * 1024];
+    SessionReplayer.Report report = replayer.replay(chunk -> {
+      int length = chunk.remaining();
+      chunk.get(bytes, 0, length);
+      output.write(bytes, 0, length);
+    }, false);
+
+    assertEquals(expected.toString(), output.toString(StandardCharsets.UTF_8));
+    assertEquals(replayer.getOutputSize(), report.getBytes());
+    assertEquals(2000, report.getChunkCount());
+    assertTrue(report.getThroughputMBps() > 0);
+    assertTrue(report.getLatencyNanos(50) <= report.getLatencyNanos(100));
+  }
+
+  public void testFailingHandler() throws Exception {
+    if (Platform.isWindows()) return;
+    Path path = myDir.resolve("session.cast");
+    try (SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 1024 * 1024)) {
+      byte[] bytes = new byte[64 * 1024];
+      Arrays.fill(bytes, (byte)'x');
+      for (int i = 0; i < 16; i++) {
+        recorder.recordOutput(bytes, 0, bytes.length);
+      }
+    }
+    // the writer fills up the slave while the handler fails
+    SessionReplayer replayer = SessionReplayer.load(path);
+    try {
+      replayer.replay(chunk -> {
+        throw new IllegalStateException("handler failure");
+      }, false);
+      fail("the handler failure should be rethrown");
+    }
+    catch (IllegalStateException e) {
+      assertEquals("handler failure", e.getMessage());
+    }
+  }
+
+  public void testReplayAtOriginalTiming() throws Exception {
+    if (Platform.isWindows()) return;
+    Path path = myDir.resolve("session.cast");
+    try (SessionRecorder recorder = new SessionRecorder(path, new WinSize(80, 24), 4096)) {
+      recorder.recordOutput(new byte[]{'a'}, 0, 1);
+      Thread.sleep(200);
+      recorder.recordOutput(new byte[]{'b'}, 0, 1);
+    }
+
+    SessionReplayer.Report report = SessionReplayer.load(path).replay(chunk -> {}, true);
+    assertEquals(2, report.getBytes());
+    assertTrue(report.toString(), report.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(190));
+  }
+}
@@ -0,0 +1,74 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running a command in a {@link ShellCommandRunner} with spawning a pty process for it, and reports
+ * the throughput of a batch run by a {@link ShellPool} of the default size.
+ * Not a part of the test suite.
+ * <p>
+ * Usage: {@code ShellCommandBenchmark [commands]}, defaults to {@code 1000}.
+ */
+public class ShellCommandBenchmark {
+  public static void main(String[] args) throws Exception {
+    TestUtil.setLocalPtyLib();
+    int commands = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+    System.out.printf("%-10s %10s %10s %10s%n", "mode", "mean, us", "p50, us", "p99, us");
+    print("spawn", spawn(commands / 10)); // warm up
+    print("spawn", spawn(commands));
+    try (ShellCommandRunner runner = ShellCommandRunner.start(new PtyProcessBuilder(new String[]{"/bin/sh"}))) {
+      print("runner", run(runner, commands / 10)); // warm up
+      print("runner", run(runner, commands));
+    }
+    try (ShellPool pool = new ShellPool.Builder(new PtyProcessBuilder(new String[]{"/bin/sh"})).build()) {
+      List<String> batch = Collections.nCopies(commands, "true");
+      pool.runAll(batch).get(); // warm up
+      long start = System.nanoTime();
+      pool.runAll(batch).get();
+      System.out.printf("pool of %d: %d commands/s%n", pool.getSize(),
+                        commands * TimeUnit.SECONDS.toNanos(1) / (System.nanoTime() - start));
+    }
+  }
+
+  /**
+   * @return the time from spawning {@code true} to its exit, in microseconds
+   */
+  private static long[] spawn(int commands) throws Exception {
+    long[] latencies = new long[commands];
+    PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"/bin/true"});
+    for (int i = 0; i < commands; i++) {
+      long start = System.nanoTime();
+      PtyProcess process = builder.start();
+      process.waitFor();
+      latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+    return latencies;
+  }
+
+  /**
+   * @return the time from queuing {@code true} to its result, in microseconds
+   */
+  private static long[] run(ShellCommandRunner runner, int commands) throws Exception {
+    long[] latencies = new long[commands];
+    for (int i = 0; i < commands; i++) {
+      long start = System.nanoTime();
+      runner.run("true").get();
+      latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    }
+    return latencies;
+  }
+
+  private static void print(String mode, long[] latencies) {
+    Arrays.sort(latencies);
+    System.out.printf("%-10s %10d %10d %10d%n", mode, Arrays.stream(latencies).sum() / latencies.length,
+                      latencies[latencies.length / 2], latencies[latencies.length * 99 / 100]);
+  }
+}
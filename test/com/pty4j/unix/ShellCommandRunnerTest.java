@@ -0,0 +1,84 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ShellCommandRunner}.
+ */
+public class ShellCommandRunnerTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testRun() throws Exception {
+    if (Platform.isWindows()) return;
+    try (ShellCommandRunner runner = ShellCommandRunner.start(new PtyProcessBuilder(new String[]{"/bin/sh"}))) {
+      ShellCommandRunner.Result result = get(runner.run("echo 'it'\\''s'; echo error >&2"));
+      assertEquals(0, result.getExitCode());
+      assertEquals("it's\nerror\n", result.getText());
+
+      assertEquals(3, get(runner.run("(exit 3)")).getExitCode());
+      assertEquals(2, get(runner.run("if then")).getExitCode());
+      // stdin isn't the tty, so the following commands aren't read by cat
+      assertEquals("", get(runner.run("cat")).getText());
+
+      get(runner.run("cd /tmp && export GREETING=hi"));
+      assertEquals("/tmp hi\n", get(runner.run("echo \"$(pwd) $GREETING\"")).getText());
+      // the output doesn't have to end with a line break
+      assertEquals("a\u001b[31mb\u001b]0;title\u0007", get(runner.run("printf 'a\\033[31mb\\033]0;title\\007'")).getText());
+    }
+  }
+
+  public void testQueuedCommands() throws Exception {
+    if (Platform.isWindows()) return;
+    try (ShellCommandRunner runner = ShellCommandRunner.start(new PtyProcessBuilder(new String[]{"/bin/sh"}))) {
+      List<CompletableFuture<ShellCommandRunner.Result>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        results.add(runner.run("echo " + i));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(i + "\n", get(results.get(i)).getText());
+      }
+      assertEquals(0, runner.getPendingCount());
+    }
+  }
+
+  public void testShellExit() throws Exception {
+    if (Platform.isWindows()) return;
+    ShellCommandRunner runner = ShellCommandRunner.start(new PtyProcessBuilder(new String[]{"/bin/sh"}));
+    CompletableFuture<ShellCommandRunner.Result> exit = runner.run("exit 0");
+    CompletableFuture<ShellCommandRunner.Result> next = runner.run("echo never");
+    assertFailed(exit);
+    assertFailed(next);
+    assertFailed(runner.run("echo later"));
+    runner.close();
+  }
+
+  private static ShellCommandRunner.Result get(CompletableFuture<ShellCommandRunner.Result> result) throws Exception {
+    return result.get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private static void assertFailed(CompletableFuture<ShellCommandRunner.Result> result) throws Exception {
+    try {
+      fail("Unexpected result: " + get(result));
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link ShellPool}.
+ */
+public class ShellPoolTest extends TestCase {
+
+  private static final int WAIT_TIMEOUT_SECONDS = TestUtil.getTestWaitTimeoutSeconds();
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testRunAllKeepsOrder() throws Exception {
+    if (Platform.isWindows()) return;
+    try (ShellPool pool = new ShellPool.Builder(new PtyProcessBuilder(new String[]{"/bin/sh"})).setSize(3).build()) {
+      List<String> commands = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        // make some shells slower, so that the others take their commands
+        commands.add(i % 7 == 0 ? "sleep 0.05; echo " + i : "echo " + i);
+      }
+      List<ShellCommandRunner.Result> results = pool.runAll(commands).get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertEquals(commands.size(), results.size());
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(i + "\n", results.get(i).getText());
+      }
+    }
+  }
+
+  public void testShellsFailingToStart() throws Exception {
+    if (Platform.isWindows()) return;
+    Path lock = Files.createTempDirectory("shell-pool").resolve("lock");
+    // only the first shell starts, the others keep failing
+    PtyProcessBuilder shell = new PtyProcessBuilder(new String[]{
+      "/bin/sh", "-c", "mkdir '" + lock + "' 2>/dev/null && exec /bin/sh; exit 1"
+    });
+    try (ShellPool pool = new ShellPool.Builder(shell).setSize(3).build()) {
+      List<String> commands = new ArrayList<>();
+      for (int i = 0; i < 30; i++) {
+        commands.add("echo " + i);
+      }
+      List<ShellCommandRunner.Result> results = pool.runAll(commands).get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(i + "\n", results.get(i).getText());
+      }
+    }
+    finally {
+      Files.delete(lock);
+      Files.delete(lock.getParent());
+    }
+
+    try (ShellPool pool = new ShellPool.Builder(new PtyProcessBuilder(new String[]{"/bin/sh", "-c", "exit 1"}))
+      .setSize(2)
+      .build()) {
+      fail("Unexpected result: " + pool.run("echo never").get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  public void testShellsAreReplaced() throws Exception {
+    if (Platform.isWindows()) return;
+    try (ShellPool pool = new ShellPool.Builder(new PtyProcessBuilder(new String[]{"/bin/sh"}))
+      .setSize(1)
+      .setMaxCommandsPerShell(2)
+      .build()) {
+      Set<String> pids = new HashSet<>();
+      for (int i = 0; i < 4; i++) {
+        pids.add(pool.run("echo $$").get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS).getText());
+      }
+      assertEquals(2, pids.size());
+
+      try {
+        fail("Unexpected result: " + pool.run("exit 1").get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      }
+      catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IOException);
+      }
+      assertEquals("after exit\n", pool.run("echo after exit").get(WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS).getText());
+    }
+  }
+}
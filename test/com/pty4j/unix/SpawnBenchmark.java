@@ -0,0 +1,68 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.TestUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the spawn latency of {@link SpawnMode#FORK} and {@link SpawnMode#VFORK} as the touched heap grows.
+ * Not a part of the test suite.
+ * <p>
+ * Usage: {@code SpawnBenchmark [heap MB,...] [spawns]}, defaults to {@code 0,1024,4096 200}.
+ * The heap is filled with a ballast which is touched page by page, so the JVM has to run with a large enough
+ * {@code -Xmx}, e.g. {@code -Xmx6g} for the defaults.
+ */
+public class SpawnBenchmark {
+  private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+  public static void main(String[] args) throws Exception {
+    TestUtil.setLocalPtyLib();
+    int[] heapSizes = Arrays.stream((args.length > 0 ? args[0] : "0,1024,4096").split(","))
+      .mapToInt(Integer::parseInt).toArray();
+    int spawns = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    System.out.printf("%-8s %8s %10s %10s %10s%n", "mode", "heap MB", "mean, us", "p50, us", "p99, us");
+    List<byte[]> ballast = new ArrayList<>();
+    for (int heapSize : heapSizes) {
+      while ((long)ballast.size() * CHUNK_SIZE < (long)heapSize * 1024 * 1024) {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < chunk.length; i += 4096) {
+          chunk[i] = 1;
+        }
+        ballast.add(chunk);
+      }
+      for (SpawnMode mode : SpawnMode.values()) {
+        run(mode, 10); // warm up
+        long[] latencies = run(mode, spawns);
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %8d %10d %10d %10d%n", mode, heapSize,
+                          Arrays.stream(latencies).sum() / latencies.length,
+                          latencies[latencies.length / 2], latencies[latencies.length * 99 / 100]);
+      }
+    }
+    System.out.println("ballast chunks: " + ballast.size());
+  }
+
+  /**
+   * @return the time spent in {@link PtyProcessBuilder#start()} by every spawn, in microseconds
+   */
+  private static long[] run(@NotNull SpawnMode mode, int spawns) throws Exception {
+    long[] latencies = new long[spawns];
+    PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"/bin/true"}).setUnixSpawnMode(mode);
+    for (int i = 0; i < spawns; i++) {
+      long start = System.nanoTime();
+      PtyProcess process = builder.start();
+      latencies[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+      process.waitFor();
+      process.getInputStream().close();
+      process.getOutputStream().close();
+    }
+    return latencies;
+  }
+}
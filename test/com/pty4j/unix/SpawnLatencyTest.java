@@ -0,0 +1,72 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawn latency regression test: the child must not pay for every possible fd when closing the inherited ones,
+ * which used to take a syscall per fd up to RLIMIT_NOFILE.
+ */
+public class SpawnLatencyTest extends TestCase {
+
+  private static final int RLIMIT_NOFILE = 7;
+  private static final long HIGH_NOFILE_LIMIT = 1 << 20;
+  private static final int SPAWNS = 20;
+  private static final long MAX_MEAN_SPAWN_MILLIS = 50;
+
+  private interface CLib extends Library {
+    // struct rlimit { rlim_t rlim_cur; rlim_t rlim_max; }
+    int getrlimit(int resource, long[] rlim);
+
+    int setrlimit(int resource, long[] rlim);
+  }
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testSpawnUnderHighNoFileLimit() throws Exception {
+    // rlim_t is 64-bit, and RLIMIT_NOFILE has a different number on MIPS
+    if (!Platform.isLinux() || Native.LONG_SIZE != 8 || Platform.isMIPS()) return;
+    // the fd cleanup was reworked together with spawn_pty, so a library without it still closes fds one by one
+    if (!TestUtil.hasSpawnPty()) return;
+
+    CLib libc = Native.load(Platform.C_LIBRARY_NAME, CLib.class);
+    long[] original = new long[2];
+    assertEquals(0, libc.getrlimit(RLIMIT_NOFILE, original));
+    try {
+      // raising the hard limit requires CAP_SYS_RESOURCE, otherwise use the current hard limit
+      if (libc.setrlimit(RLIMIT_NOFILE, new long[]{HIGH_NOFILE_LIMIT, HIGH_NOFILE_LIMIT}) != 0) {
+        libc.setrlimit(RLIMIT_NOFILE, new long[]{original[1], original[1]});
+      }
+      long[] limit = new long[2];
+      assertEquals(0, libc.getrlimit(RLIMIT_NOFILE, limit));
+      if (limit[0] < 64 * 1024) return; // too low to tell the difference
+
+      PtyProcessBuilder builder = new PtyProcessBuilder(new String[]{"/bin/true"});
+      long start = System.nanoTime();
+      for (int i = 0; i < SPAWNS; i++) {
+        PtyProcess process = builder.start();
+        PtyTest.assertProcessTerminatedNormally(process);
+        process.getInputStream().close();
+        process.getOutputStream().close();
+      }
+      long meanMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) / SPAWNS;
+      assertTrue("Mean spawn time " + meanMillis + " ms with RLIMIT_NOFILE=" + limit[0],
+                 meanMillis < MAX_MEAN_SPAWN_MILLIS);
+    }
+    finally {
+      libc.setrlimit(RLIMIT_NOFILE, original);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.pty4j.unix;
+
+import com.pty4j.PtyProcessBuilder;
+import com.pty4j.PtyTest;
+import com.pty4j.TestUtil;
+import com.sun.jna.Platform;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test cases for {@link SpawnSpec}.
+ */
+public class SpawnSpecTest extends TestCase {
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+    TestUtil.setLocalPtyLib();
+  }
+
+  public void testReuse() throws Exception {
+    if (Platform.isWindows()) return;
+    SpawnSpec spec = newBuilder().buildUnixSpawnSpec();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("base - " + new File(".").getCanonicalPath(), run(spec, Map.of(), null));
+    }
+  }
+
+  public void testOverrides() throws Exception {
+    if (Platform.isWindows()) return;
+    SpawnSpec spec = newBuilder().buildUnixSpawnSpec();
+    File dir = new File("/tmp").getCanonicalFile();
+    assertEquals("replaced added " + dir.getPath(), run(spec, Map.of("FOO", "replaced", "BAR", "added"), dir.getPath()));
+    // the overrides don't leak into the next spawns
+    assertEquals("base - " + new File(".").getCanonicalPath(), run(spec, Map.of(), null));
+  }
+
+  public void testVforkSpawnMode() throws Exception {
+    if (Platform.isWindows() || !TestUtil.hasSpawnPty()) return;
+    SpawnSpec spec = newBuilder().setUnixSpawnMode(SpawnMode.VFORK).buildUnixSpawnSpec();
+    assertEquals("base added " + new File(".").getCanonicalPath(), run(spec, Map.of("BAR", "added"), null));
+  }
+
+  private static @NotNull PtyProcessBuilder newBuilder() {
+    Map<String, String> env = new HashMap<>(System.getenv());
+    env.put("FOO", "base");
+    env.remove("BAR");
+    // "sh" is looked up through the PATH of the environment
+    return new PtyProcessBuilder(new String[]{"sh", "-c", "echo \"$FOO ${BAR:--} $(pwd -P)\""})
+      .setEnvironment(env)
+      .setDirectory(".");
+  }
+
+  private static @NotNull String run(@NotNull SpawnSpec spec, @NotNull Map<String, String> extraEnvironment,
+                                     String directory) throws Exception {
+    UnixPtyProcess process = spec.start(extraEnvironment, directory);
+    String output = readAll(process.getInputStream());
+    PtyTest.assertProcessTerminatedNormally(process);
+    return output.trim();
+  }
+
+  private static @NotNull String readAll(@NotNull InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[1024];
+    int count;
+    while ((count = in.read(buf)) > 0) {
+      out.write(buf, 0, count);
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+}
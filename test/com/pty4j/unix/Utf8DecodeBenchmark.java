@@ -0,0 +1,98 @@
+package com.pty4j.unix;
+
+import com.pty4j.util.Utf8Decoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares decoding pty-sized chunks of output with {@link Utf8Decoder} against an {@link InputStreamReader}, for ASCII
+ * and for mixed text, and prints the throughput and the allocation of each run. Not a part of the test suite.
+ * <p>
+ * Usage: {@code Utf8DecodeBenchmark [megabytes] [runs]}, defaults to 64 MB and 5 runs.
+ */
+public class Utf8DecodeBenchmark {
+  private static final int CHUNK_SIZE = 16 * 1024;
+  private static volatile long ourChecksum;
+
+  public static void main(String[] args) throws Exception {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    byte[] ascii = repeat("drwxr-xr-x  2 user user  4096 Oct 18 12:00 src\r\n", megabytes);
+    byte[] mixed = repeat("\u00e9l\u00e8ve \u2014 \u65e5\u672c\u8a9e \ud83d\ude00 ok\r\n", megabytes);
+    for (int run = 1; run <= runs; run++) {
+      report(run, "ascii", "Utf8Decoder", ascii, () -> decodeWithDecoder(ascii));
+      report(run, "ascii", "InputStreamReader", ascii, () -> decodeWithReader(ascii));
+      report(run, "mixed", "Utf8Decoder", mixed, () -> decodeWithDecoder(mixed));
+      report(run, "mixed", "InputStreamReader", mixed, () -> decodeWithReader(mixed));
+    }
+  }
+
+  private static byte[] repeat(String line, int megabytes) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    byte[] result = new byte[megabytes * 1024 * 1024];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = bytes[i % bytes.length];
+    }
+    return result;
+  }
+
+  private static long decodeWithDecoder(byte[] bytes) {
+    Utf8Decoder decoder = new Utf8Decoder();
+    // chunks are read into a direct buffer, as PtyTextReader does
+    ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE + 1);
+    long checksum = 0;
+    for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE) {
+      chunk.clear();
+      chunk.put(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset)).flip();
+      chars.clear();
+      decoder.decode(chunk, chars);
+      checksum += checksum(chars.flip());
+    }
+    chars.clear();
+    decoder.flush(chars);
+    return checksum + checksum(chars.flip());
+  }
+
+  private static long decodeWithReader(byte[] bytes) throws Exception {
+    Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE + 1);
+    long checksum = 0;
+    while (reader.read(chars.clear()) >= 0) {
+      checksum += checksum(chars.flip());
+    }
+    return checksum;
+  }
+
+  private static long checksum(CharBuffer chars) {
+    long checksum = 0;
+    char[] array = chars.array();
+    for (int i = chars.position(); i < chars.limit(); i++) {
+      checksum += array[i];
+    }
+    return checksum;
+  }
+
+  private static void report(int run, String input, String decoder, byte[] bytes, Decode decode) throws Exception {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    ourChecksum += decode.run();
+    long elapsed = System.nanoTime() - start;
+    long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+    System.out.printf("run %d: %-5s %-17s %8.1f MB/s, %d bytes allocated%n", run, input, decoder,
+                      bytes.length / (elapsed / 1e9) / (1024 * 1024), allocated);
+  }
+
+  private interface Decode {
+    long run() throws Exception;
+  }
+}
@@ -0,0 +1,63 @@
+package com.pty4j.unix;
+
+import com.pty4j.WinSize;
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test cases for {@link WinSizeCoalescer}.
+ */
+public class WinSizeCoalescerTest extends TestCase {
+
+  public void testBurstIsCoalesced() throws Exception {
+    List<WinSize> applied = new CopyOnWriteArrayList<>();
+    WinSizeCoalescer coalescer = new WinSizeCoalescer(applied::add, 200, TimeUnit.MILLISECONDS);
+    for (int columns = 80; columns < 180; columns++) {
+      coalescer.resize(new WinSize(columns, 24));
+      assertEquals(new WinSize(columns, 24), coalescer.getSize());
+    }
+    // the first one at once, the last one at the end of the window
+    assertEquals(List.of(new WinSize(80, 24)), applied);
+    awaitAppliedCount(coalescer, 2);
+    assertEquals(List.of(new WinSize(80, 24), new WinSize(179, 24)), applied);
+    assertEquals(98, coalescer.getDroppedCount());
+  }
+
+  public void testSameSizeIsSkipped() throws Exception {
+    List<WinSize> applied = new CopyOnWriteArrayList<>();
+    WinSizeCoalescer coalescer = new WinSizeCoalescer(applied::add, 0, TimeUnit.MILLISECONDS);
+    coalescer.setCurrentSize(new WinSize(80, 24));
+    coalescer.resize(new WinSize(80, 24));
+    coalescer.resize(new WinSize(100, 30));
+    coalescer.resize(new WinSize(100, 30));
+    coalescer.resize(new WinSize(80, 24));
+    assertEquals(List.of(new WinSize(100, 30), new WinSize(80, 24)), applied);
+    assertEquals(2, coalescer.getSkippedCount());
+  }
+
+  public void testFailedResizeKeepsSize() throws Exception {
+    WinSizeCoalescer coalescer = new WinSizeCoalescer(size -> {
+      throw new UnixPtyException("Failed to set window size", 9);
+    }, 0, TimeUnit.MILLISECONDS);
+    coalescer.setCurrentSize(new WinSize(80, 24));
+    try {
+      coalescer.resize(new WinSize(100, 30));
+      fail("resize should fail");
+    }
+    catch (UnixPtyException e) {
+      assertEquals(9, e.getErrno());
+    }
+    assertEquals(new WinSize(80, 24), coalescer.getSize());
+  }
+
+  private static void awaitAppliedCount(WinSizeCoalescer coalescer, long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (coalescer.getAppliedCount() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, coalescer.getAppliedCount());
+  }
+}
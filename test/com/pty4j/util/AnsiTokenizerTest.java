@@ -0,0 +1,164 @@
+package com.pty4j.util;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for {@link AnsiTokenizer}.
+ */
+public class AnsiTokenizerTest extends TestCase {
+
+  private static final String OUTPUT =
+    "\u001b]0;user@host: ~\u0007" +
+    "\u001b[?2004h\u001b[01;34mdir\u001b[0m  file\r\n" +
+    "\u001b[38:5:196mred\u001b[m\u001b(B\t\u00e9\b\u007f" +
+    "\u001bP1$qm\u001b\\" +
+    "\u001b[1;2\u0018x" +
+    "\u001b[;5H\u001b_ignored\u001b\\end";
+
+  private static final String EVENTS =
+    "osc(0;user@host: ~) csi(?2004h) csi(1,34m) text(dir) csi(0m) text(  file) ctl(13) ctl(10) " +
+    "csi(38,:5,:196m) text(red) csi(m) esc((B) ctl(9) text(\u00e9) ctl(8) " +
+    "dcs(1$q) data(m) end esc(\\) " +
+    "ctl(24) text(x) " +
+    "csi(,5H) esc(\\) text(end)";
+
+  public void testTokenize() {
+    byte[] bytes = OUTPUT.getBytes(StandardCharsets.UTF_8);
+    RecordingHandler whole = new RecordingHandler();
+    new AnsiTokenizer().tokenize(bytes, 0, bytes.length, whole);
+    assertEquals(EVENTS, whole.getEvents());
+
+    RecordingHandler split = new RecordingHandler();
+    AnsiTokenizer tokenizer = new AnsiTokenizer();
+    for (int i = 0; i < bytes.length; i++) {
+      tokenizer.tokenize(bytes, i, 1, split);
+    }
+    assertEquals(EVENTS, split.getEvents());
+  }
+
+  public void testStrip() {
+    byte[] bytes = OUTPUT.getBytes(StandardCharsets.UTF_8);
+    String expected = "dir  file\r\nred\t\u00e9xend";
+
+    byte[] text = new byte[bytes.length];
+    int length = new AnsiTokenizer().strip(bytes, 0, bytes.length, text, 0);
+    assertEquals(expected, new String(text, 0, length, StandardCharsets.UTF_8));
+
+    AnsiTokenizer tokenizer = new AnsiTokenizer();
+    ByteBuffer src = ByteBuffer.allocateDirect(bytes.length);
+    ByteBuffer dst = ByteBuffer.allocateDirect(bytes.length);
+    for (byte b : bytes) {
+      tokenizer.strip(src.clear().put(b).flip(), dst);
+    }
+    byte[] splitText = new byte[dst.flip().remaining()];
+    dst.get(splitText);
+    assertEquals(expected, new String(splitText, StandardCharsets.UTF_8));
+  }
+
+  public void testLongOscIsTruncated() {
+    byte[] bytes = "\u001b]2;a long title\u0007".getBytes(StandardCharsets.US_ASCII);
+    RecordingHandler handler = new RecordingHandler();
+    new AnsiTokenizer(6).tokenize(bytes, 0, bytes.length, handler);
+    assertEquals("osc(2;a lo...)", handler.getEvents());
+  }
+
+  private static class RecordingHandler implements AnsiTokenizer.Handler {
+    private final StringBuilder myEvents = new StringBuilder();
+    private final StringBuilder myText = new StringBuilder();
+    private final StringBuilder myData = new StringBuilder();
+
+    @Override
+    public void onText(@NotNull byte[] bytes, int offset, int length) {
+      // runs are split at chunk boundaries, so adjacent ones are joined, as well as the DCS data
+      myText.append(new String(bytes, offset, length, StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void onControl(int code) {
+      event("ctl(" + code + ")");
+    }
+
+    @Override
+    public void onEscape(@NotNull AnsiTokenizer.Sequence sequence) {
+      event("esc(" + toString(sequence) + ")");
+    }
+
+    @Override
+    public void onCsi(@NotNull AnsiTokenizer.Sequence sequence) {
+      event("csi(" + toString(sequence) + ")");
+    }
+
+    @Override
+    public void onOsc(@NotNull byte[] bytes, int length, boolean truncated) {
+      event("osc(" + new String(bytes, 0, length, StandardCharsets.UTF_8) + (truncated ? "...)" : ")"));
+    }
+
+    @Override
+    public void onDcsStart(@NotNull AnsiTokenizer.Sequence sequence) {
+      event("dcs(" + toString(sequence) + ")");
+    }
+
+    @Override
+    public void onDcsData(@NotNull byte[] bytes, int offset, int length) {
+      myData.append(new String(bytes, offset, length, StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void onDcsEnd() {
+      event("end");
+    }
+
+    private void event(@NotNull String event) {
+      flushRuns();
+      if (myEvents.length() > 0) {
+        myEvents.append(' ');
+      }
+      myEvents.append(event);
+    }
+
+    private void flushRuns() {
+      if (myText.length() > 0) {
+        String text = new String(myText.toString().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        myText.setLength(0);
+        event("text(" + text + ")");
+      }
+      if (myData.length() > 0) {
+        String data = myData.toString();
+        myData.setLength(0);
+        event("data(" + data + ")");
+      }
+    }
+
+    @NotNull String getEvents() {
+      flushRuns();
+      return myEvents.toString();
+    }
+
+    private static @NotNull String toString(@NotNull AnsiTokenizer.Sequence sequence) {
+      StringBuilder result = new StringBuilder();
+      if (sequence.getPrivateMarker() != 0) {
+        result.append((char)sequence.getPrivateMarker());
+      }
+      for (int i = 0; i < sequence.getParameterCount(); i++) {
+        if (i > 0) {
+          result.append(',');
+        }
+        if (sequence.isSubParameter(i)) {
+          result.append(':');
+        }
+        int value = sequence.getParameter(i, -1);
+        if (value >= 0) {
+          result.append(value);
+        }
+      }
+      for (int i = 0; i < sequence.getIntermediateCount(); i++) {
+        result.append((char)sequence.getIntermediate(i));
+      }
+      return result.append((char)sequence.getFinal()).toString();
+    }
+  }
+}
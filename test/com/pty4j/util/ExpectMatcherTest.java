@@ -0,0 +1,131 @@
+package com.pty4j.util;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for {@link ExpectMatcher}.
+ */
+public class ExpectMatcherTest extends TestCase {
+
+  public void testLiteralsSplitBetweenChunks() {
+    ExpectPatterns patterns = ExpectPatterns.literals("login: ", "Password: ", "word");
+    ExpectMatcher matcher = new ExpectMatcher(64);
+    String output = "Welcome\r\nlogin: user\r\nPassword: ";
+    int matches = 0;
+    for (byte b : output.getBytes(StandardCharsets.US_ASCII)) {
+      append(matcher, new String(new byte[]{b}, StandardCharsets.US_ASCII));
+      ExpectMatcher.Match match = matcher.find(patterns);
+      if (match == null) continue;
+      if (++matches == 1) {
+        assertEquals(0, match.getPatternIndex());
+        assertEquals("login: ", match.getText());
+        assertEquals(9, match.getStart());
+        assertEquals(16, match.getEnd());
+      }
+      else {
+        // "word" ends before "Password: "
+        assertEquals(2, match.getPatternIndex());
+        assertEquals("word", match.getText());
+      }
+    }
+    // "Password: " can't match, as it overlaps with "word"
+    assertEquals(2, matches);
+    assertNull(matcher.find(patterns));
+  }
+
+  public void testRegexAndLiteral() {
+    ExpectPatterns patterns = new ExpectPatterns.Builder()
+      .literal("error")
+      .regex("exit code (\\d+)")
+      .regex("\\$ $")
+      .build();
+    ExpectMatcher matcher = new ExpectMatcher(64);
+    append(matcher, "done, exit code 42\r\nuser@host:~");
+    ExpectMatcher.Match match = matcher.find(patterns);
+    assertNotNull(match);
+    assertEquals(1, match.getPatternIndex());
+    assertEquals("42", match.getGroup(1));
+    // the prompt isn't complete yet
+    assertNull(matcher.find(patterns));
+    append(matcher, "$ ");
+    match = matcher.find(patterns);
+    assertNotNull(match);
+    assertEquals(2, match.getPatternIndex());
+    assertEquals("$ ", match.getText());
+    assertEquals("$ ", match.getGroup(0));
+  }
+
+  public void testWindowForgetsOldOutput() {
+    ExpectPatterns patterns = new ExpectPatterns.Builder().regex("start.*end").build();
+    ExpectMatcher matcher = new ExpectMatcher(16);
+    append(matcher, "start");
+    assertNull(matcher.find(patterns));
+    append(matcher, "0123456789");
+    assertNull(matcher.find(patterns));
+    // "start" is pushed out of the window
+    append(matcher, "end");
+    assertNull(matcher.find(patterns));
+    assertEquals(18, matcher.getPosition());
+
+    ExpectPatterns literal = ExpectPatterns.literals("end");
+    ExpectMatcher.Match match = matcher.find(literal);
+    assertNotNull(match);
+    assertEquals(15, match.getStart());
+    try {
+      matcher.find(ExpectPatterns.literals("a literal longer than the window"));
+      fail("the literal can't fit in the window");
+    }
+    catch (IllegalArgumentException ignored) {
+    }
+  }
+
+  public void testLiteralStartingInForgottenOutput() {
+    ExpectPatterns patterns = ExpectPatterns.literals("ABCDEFGH", "FGH");
+    ExpectMatcher matcher = new ExpectMatcher(8);
+    append(matcher, "ABCD");
+    assertNull(matcher.find(patterns));
+    // "ABCD" is pushed out of the window, so only the shorter literal, which is in the window, can match
+    append(matcher, "EFGH1234");
+    ExpectMatcher.Match match = matcher.find(patterns);
+    assertNotNull(match);
+    assertEquals(1, match.getPatternIndex());
+    assertEquals(5, match.getStart());
+    assertEquals("FGH", match.getText());
+    assertNull(matcher.find(patterns));
+
+    // appended in steps, the longer literal is found before its start is pushed out
+    matcher = new ExpectMatcher(8);
+    ByteBuffer output = ByteBuffer.wrap("xxABCDEFGH1234".getBytes(StandardCharsets.US_ASCII));
+    match = matcher.appendAndFind(output, ExpectPatterns.literals("ABCDEFGH"));
+    assertNotNull(match);
+    assertEquals("ABCDEFGH", match.getText());
+    assertEquals(2, match.getStart());
+    assertTrue(output.hasRemaining());
+  }
+
+  public void testEmptyRegexMatchesAreSkipped() {
+    ExpectPatterns patterns = new ExpectPatterns.Builder().regex("x*").regex("\\s*").build();
+    ExpectMatcher matcher = new ExpectMatcher(64);
+    append(matcher, "abc");
+    assertNull(matcher.find(patterns));
+    append(matcher, "xx d");
+    ExpectMatcher.Match match = matcher.find(patterns);
+    assertNotNull(match);
+    assertEquals(0, match.getPatternIndex());
+    assertEquals(3, match.getStart());
+    assertEquals("xx", match.getText());
+    match = matcher.find(patterns);
+    assertNotNull(match);
+    assertEquals(1, match.getPatternIndex());
+    assertEquals(5, match.getStart());
+    assertEquals(" ", match.getText());
+    assertNull(matcher.find(patterns));
+  }
+
+  private static void append(ExpectMatcher matcher, String output) {
+    matcher.append(ByteBuffer.wrap(output.getBytes(StandardCharsets.US_ASCII)));
+  }
+}
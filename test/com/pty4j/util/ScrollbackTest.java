@@ -0,0 +1,91 @@
+package com.pty4j.util;
+
+import junit.framework.TestCase;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test cases for {@link Scrollback}.
+ */
+public class ScrollbackTest extends TestCase {
+
+  public void testLines() {
+    Scrollback scrollback = new Scrollback(1024, 100);
+    append(scrollback, "one\r\ntw");
+    append(scrollback, "o\r\nthree");
+    assertEquals(0, scrollback.getFirstLine());
+    assertEquals(2, scrollback.getLastLine());
+    assertEquals("one\r\n", line(scrollback, 0));
+    assertEquals("two\r\n", line(scrollback, 1));
+    assertEquals("three", line(scrollback, 2));
+    assertEquals("two\r\nthree", lastLines(scrollback, 2));
+    assertEquals("one\r\ntwo\r\nthree", lastLines(scrollback, 10));
+    try {
+      scrollback.getLineLength(3);
+      fail("line 3 doesn't exist yet");
+    }
+    catch (IndexOutOfBoundsException ignored) {
+    }
+    try {
+      scrollback.copyLine(0, ByteBuffer.allocate(4));
+      fail("line 0 doesn't fit");
+    }
+    catch (BufferOverflowException ignored) {
+    }
+  }
+
+  public void testEvictionByLines() {
+    Scrollback scrollback = new Scrollback(1024, 3);
+    for (int i = 0; i < 10; i++) {
+      append(scrollback, i + "\n");
+    }
+    // the empty line after the last '\n' is retained too
+    assertEquals(8, scrollback.getFirstLine());
+    assertEquals(10, scrollback.getLastLine());
+    assertEquals("8\n", line(scrollback, 8));
+    assertEquals("8\n9\n", lastLines(scrollback, 3));
+    assertEquals(4, scrollback.getRetainedBytes());
+  }
+
+  public void testEvictionByBytes() {
+    Scrollback scrollback = new Scrollback(10, 100);
+    append(scrollback, "aaaa\nbbbb\n");
+    append(scrollback, "cc\n");
+    // the first line partially overwritten is evicted as a whole, the buffer has wrapped around
+    assertEquals(1, scrollback.getFirstLine());
+    assertEquals("bbbb\n", line(scrollback, 1));
+    assertEquals("bbbb\ncc\n", lastLines(scrollback, 100));
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(32);
+    direct.put("0123456789abcdef\nxyz".getBytes(StandardCharsets.US_ASCII)).flip();
+    scrollback.append(direct);
+    assertFalse(direct.hasRemaining());
+    assertEquals(4, scrollback.getFirstLine());
+    assertEquals("xyz", line(scrollback, 4));
+
+    append(scrollback, "0123456789abcdef");
+    // the last line alone is longer than the buffer: its tail is retained
+    assertEquals("6789abcdef", lastLines(scrollback, 1));
+    assertEquals(10, scrollback.getRetainedBytes());
+    assertEquals(49, scrollback.getTotalBytes());
+  }
+
+  private static void append(Scrollback scrollback, String text) {
+    byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+    scrollback.append(bytes, 0, bytes.length);
+  }
+
+  private static String line(Scrollback scrollback, long line) {
+    ByteBuffer buffer = ByteBuffer.allocate(scrollback.getLineLength(line));
+    assertEquals(buffer.capacity(), scrollback.copyLine(line, buffer));
+    return new String(buffer.array(), StandardCharsets.US_ASCII);
+  }
+
+  private static String lastLines(Scrollback scrollback, int count) {
+    ByteBuffer buffer = ByteBuffer.allocate(scrollback.getRetainedBytes());
+    int length = scrollback.copyLastLines(count, buffer);
+    return new String(buffer.array(), 0, length, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,77 @@
+package com.pty4j.util;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Test cases for {@link Utf8Decoder}.
+ */
+public class Utf8DecoderTest extends TestCase {
+
+  public void testSequencesSplitAtEveryByte() {
+    String text = "a\u00e9\u20ac\ud83d\ude00z";
+    byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+    Utf8Decoder decoder = new Utf8Decoder();
+    CharBuffer chars = CharBuffer.allocate(16);
+    for (byte b : bytes) {
+      ByteBuffer src = ByteBuffer.wrap(new byte[]{b});
+      decoder.decode(src, chars);
+      assertFalse(src.hasRemaining());
+    }
+    assertFalse(decoder.hasPendingBytes());
+    assertEquals(text, chars.flip().toString());
+  }
+
+  public void testSupplementaryCharacterWaitsForRoom() {
+    byte[] bytes = "\ud83d\ude00".getBytes(StandardCharsets.UTF_8);
+    Utf8Decoder decoder = new Utf8Decoder();
+    ByteBuffer src = ByteBuffer.wrap(bytes);
+    CharBuffer chars = CharBuffer.allocate(1);
+    decoder.decode(src, chars);
+    assertEquals(0, chars.position());
+    assertEquals(1, src.remaining());
+
+    chars = CharBuffer.allocate(2);
+    decoder.decode(src, chars);
+    assertFalse(src.hasRemaining());
+    assertEquals("\ud83d\ude00", chars.flip().toString());
+  }
+
+  public void testFlushReplacesIncompleteSequence() {
+    Utf8Decoder decoder = new Utf8Decoder();
+    CharBuffer chars = CharBuffer.allocate(4);
+    decoder.decode(ByteBuffer.wrap(new byte[]{'a', (byte)0xE2, (byte)0x82}), chars);
+    assertTrue(decoder.hasPendingBytes());
+    assertTrue(decoder.flush(chars));
+    assertEquals("a\ufffd", chars.flip().toString());
+  }
+
+  public void testMatchesJdkDecoderOnRandomInput() {
+    Random random = new Random(42);
+    // bytes likely to form both valid and malformed sequences: lead bytes, continuation bytes, surrogates, overlongs
+    byte[] alphabet = {'a', '\n', (byte)0x80, (byte)0xBF, (byte)0xC0, (byte)0xC2, (byte)0xDF, (byte)0xE0, (byte)0xA0,
+      (byte)0xED, (byte)0x9F, (byte)0xEF, (byte)0xF0, (byte)0x90, (byte)0xF4, (byte)0x8F, (byte)0xF5, (byte)0xFF};
+    Utf8Decoder decoder = new Utf8Decoder();
+    for (int i = 0; i < 2000; i++) {
+      byte[] bytes = new byte[random.nextInt(32)];
+      for (int j = 0; j < bytes.length; j++) {
+        bytes[j] = alphabet[random.nextInt(alphabet.length)];
+      }
+      String expected = new String(bytes, StandardCharsets.UTF_8);
+
+      CharBuffer chars = CharBuffer.allocate(bytes.length + 1);
+      int offset = 0;
+      while (offset < bytes.length) {
+        int length = 1 + random.nextInt(bytes.length - offset);
+        decoder.decode(ByteBuffer.wrap(bytes, offset, length), chars);
+        offset += length;
+      }
+      assertTrue(decoder.flush(chars));
+      assertEquals(expected, chars.flip().toString());
+    }
+  }
+}